@@ -0,0 +1,136 @@
+package com.example.android.inventory;
+
+import android.content.Loader;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventory.utils.QueryUtils;
+import com.example.android.inventory.utils.TestAssets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests of the lifecycle of {@link BookLoader}, against a local stub HTTP server.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookLoaderTest {
+
+    /** Maximum time to wait for a result */
+    private static final long TIMEOUT_SECONDS = 10;
+
+    /** Maximum time a canceled lookup may take to return */
+    private static final long CANCEL_MILLIS = 2000;
+
+    private MockWebServer mServer;
+
+    /** Response of the stub server */
+    private String mResponse;
+
+    @Before
+    public void setUp() throws Exception {
+        // The loaders share the circuit breaker of the app. They install its response cache
+        // again, where the port of the stub server keeps the entries of every test apart.
+        QueryUtils.resetSharedState();
+        mResponse = TestAssets.readString(TestAssets.ISBN_RESPONSE);
+        mServer = new MockWebServer();
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+        QueryUtils.resetSharedState();
+    }
+
+    @Test
+    public void restartedLoader_deliversKeptBooksWithoutRequest() throws Exception {
+        mServer.enqueue(new MockResponse().setBody(mResponse));
+        final BookLoader loader = newLoader("/books/v1/volumes?q=restart");
+        final BlockingQueue<List<Book>> results = new LinkedBlockingQueue<>();
+        loader.registerListener(0, new Loader.OnLoadCompleteListener<List<Book>>() {
+            @Override
+            public void onLoadComplete(Loader<List<Book>> loader, List<Book> books) {
+                results.add(books);
+            }
+        });
+
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                loader.startLoading();
+            }
+        });
+        List<Book> first = results.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(first);
+        assertEquals("The Little Prince", first.get(0).getBookTitle());
+
+        // As the activity does when it is stopped and started again
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                loader.stopLoading();
+                loader.startLoading();
+            }
+        });
+        List<Book> second = results.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        assertSame(first, second);
+        assertEquals(1, mServer.getRequestCount());
+
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                loader.reset();
+            }
+        });
+    }
+
+    @Test
+    public void canceledLoad_disconnectsRequest() throws Exception {
+        // The body would arrive long after the read timeout
+        mServer.enqueue(new MockResponse().setBody(mResponse)
+                .setBodyDelay(60, TimeUnit.SECONDS));
+        final BookLoader loader = newLoader("/books/v1/volumes?q=cancel");
+        final BlockingQueue<Object> results = new LinkedBlockingQueue<>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                List<Book> books = loader.loadInBackground();
+                results.add(books == null ? Boolean.FALSE : books);
+            }
+        });
+        thread.start();
+
+        // Cancel once the request reached the server
+        assertNotNull(mServer.takeRequest(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        long start = System.nanoTime();
+        loader.cancelLoadInBackground();
+        Object result = results.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(Boolean.FALSE, result);
+        assertTrue("Canceled lookup took " + millis + " ms", millis < CANCEL_MILLIS);
+    }
+
+    private BookLoader newLoader(String path) {
+        return new BookLoader(InstrumentationRegistry.getTargetContext(),
+                mServer.url(path).toString());
+    }
+
+    private static void runOnMainSync(Runnable runnable) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(runnable);
+    }
+}
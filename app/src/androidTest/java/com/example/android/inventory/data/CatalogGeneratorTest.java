@@ -0,0 +1,109 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+import com.example.android.inventory.data.ProductContract.StatsEntry;
+import com.example.android.inventory.data.ProductContract.SupplierEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests for the synthetic catalog of {@link CatalogGenerator}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CatalogGeneratorTest {
+
+    /** Number of products generated by the tests, several batches */
+    private static final int CATALOG_SIZE = 5 * CatalogGenerator.BATCH_SIZE + 17;
+
+    private ProductDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        // Use an in-memory database so the tests never touch the app data
+        mDbHelper = new ProductDbHelper(InstrumentationRegistry.getTargetContext(), null);
+        mDatabase = mDbHelper.getWritableDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void sameSeed_generatesSameCatalog() throws Exception {
+        CatalogGenerator first = new CatalogGenerator(7);
+        CatalogGenerator second = new CatalogGenerator(7);
+        CatalogGenerator other = new CatalogGenerator(8);
+
+        boolean differs = false;
+        for (int i = 0; i < CATALOG_SIZE; i++) {
+            ContentValues product = first.next();
+            assertEquals(product, second.next());
+            differs |= !product.equals(other.next());
+        }
+        assertTrue(differs);
+    }
+
+    @Test
+    public void generatedProducts_areValid() throws Exception {
+        CatalogGenerator generator = new CatalogGenerator(1);
+        Set<String> isbns = new HashSet<>();
+        Set<String> suppliers = new HashSet<>();
+        int outOfStock = 0;
+        for (int i = 0; i < CATALOG_SIZE; i++) {
+            ContentValues product = generator.next();
+
+            String isbn = product.getAsString(ProductEntry.COLUMN_PRODUCT_ISBN);
+            assertEquals(13, isbn.length());
+            assertEquals(CatalogGenerator.isbn13CheckDigit(isbn), isbn.charAt(12) - '0');
+            assertTrue("Duplicate ISBN " + isbn, isbns.add(isbn));
+
+            double price = product.getAsDouble(ProductEntry.COLUMN_PRODUCT_PRICE);
+            assertTrue(price >= CatalogGenerator.MIN_PRICE && price <= CatalogGenerator.MAX_PRICE);
+
+            int quantity = product.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+            assertTrue(quantity >= 0);
+            if (quantity == 0) {
+                outOfStock++;
+            }
+            suppliers.add(product.getAsString(ProductEntry.COLUMN_SUPPLIER_NAME));
+        }
+
+        assertTrue(suppliers.size() <= CatalogGenerator.SUPPLIER_COUNT);
+        double outOfStockFraction = (double) outOfStock / CATALOG_SIZE;
+        assertEquals(CatalogGenerator.OUT_OF_STOCK_FRACTION, outOfStockFraction, 0.03);
+    }
+
+    @Test
+    public void insert_writesCatalogAndKeepsStatsConsistent() throws Exception {
+        CatalogGenerator generator = new CatalogGenerator(3);
+
+        assertEquals(CATALOG_SIZE, generator.insert(mDatabase, CATALOG_SIZE));
+        // A second call carries on with the same suppliers
+        assertEquals(10, generator.insert(mDatabase, 10));
+
+        assertEquals(CATALOG_SIZE + 10,
+                DatabaseUtils.queryNumEntries(mDatabase, ProductEntry.TABLE_NAME));
+        assertTrue(DatabaseUtils.queryNumEntries(mDatabase, SupplierEntry.TABLE_NAME)
+                <= CatalogGenerator.SUPPLIER_COUNT);
+        assertEquals(CATALOG_SIZE + 10, DatabaseUtils.longForQuery(mDatabase,
+                "SELECT " + StatsEntry.COLUMN_PRODUCT_COUNT + " FROM " + StatsEntry.TABLE_NAME,
+                null));
+        assertTrue(ProductDbHelper.rebuildStats(mDatabase));
+    }
+}
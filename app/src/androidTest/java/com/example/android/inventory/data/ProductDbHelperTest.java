@@ -0,0 +1,468 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventory.data.ProductContract.IsbnMetadataEntry;
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+import com.example.android.inventory.data.ProductContract.StatsEntry;
+import com.example.android.inventory.data.ProductContract.StockMovementEntry;
+import com.example.android.inventory.data.ProductContract.SupplierEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests for the schema migrations and connection settings of {@link ProductDbHelper}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductDbHelperTest {
+
+    /** Name of the database file used by the reader/writer stress test */
+    private static final String STRESS_DATABASE_NAME = "inventory_stress_test.db";
+
+    /** Number of list reads issued while the write transaction is open */
+    private static final int STRESS_READS = 100;
+
+    /** Maximum time the list reads may take in total */
+    private static final long STRESS_TIMEOUT_MILLIS = 5000;
+
+    private ProductDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        // Use an in-memory database so the tests never touch the app data
+        mDbHelper = new ProductDbHelper(InstrumentationRegistry.getTargetContext(), null);
+        mDatabase = mDbHelper.getWritableDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void migrateFromVersion1_createsIndexes() throws Exception {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        try {
+            createVersion1Table(db);
+
+            ProductDbHelper.migrate(db, 1, 2);
+
+            assertTrue(hasIndex(db, ProductDbHelper.INDEX_PRODUCT_ISBN));
+            assertTrue(hasIndex(db, ProductDbHelper.INDEX_PRODUCT_NAME));
+            assertTrue(hasIndex(db, ProductDbHelper.INDEX_PRODUCT_AUTHOR));
+            assertTrue(hasIndex(db, ProductDbHelper.INDEX_SUPPLIER_NAME));
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void migrateToVersion4_movesSuppliersToTheirOwnTable() throws Exception {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        try {
+            createVersion1Table(db);
+            db.insert(ProductEntry.TABLE_NAME, null, version1Product("Dune", "Supplier", null));
+            db.insert(ProductEntry.TABLE_NAME, null, version1Product("Emma", "Supplier", null));
+            db.insert(ProductEntry.TABLE_NAME, null, version1Product("Ulysses", "Supplier", "a@b.c"));
+
+            ProductDbHelper.migrate(db, 1, 4);
+
+            // The two products with the same supplier details share one supplier row
+            assertEquals(2, DatabaseUtils.queryNumEntries(db, SupplierEntry.TABLE_NAME));
+            assertEquals(3, DatabaseUtils.queryNumEntries(db, ProductEntry.VIEW_WITH_SUPPLIER_NAME));
+            assertEquals(1, DatabaseUtils.queryNumEntries(db, ProductEntry.VIEW_WITH_SUPPLIER_NAME,
+                    ProductEntry.COLUMN_SUPPLIER_EMAIL + "=?", new String[] {"a@b.c"}));
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void migrate_failsForMissingVersion() throws Exception {
+        ProductDbHelper.migrate(mDatabase, 1, ProductDbHelper.MIGRATIONS.length + 2);
+    }
+
+    @Test
+    public void appQueries_doNotScanTable() throws Exception {
+        String[] columns = {
+                ProductEntry._ID,
+                ProductEntry.COLUMN_PRODUCT_ISBN,
+                ProductEntry.COLUMN_PRODUCT_NAME,
+                ProductEntry.COLUMN_PRODUCT_AUTHOR,
+                ProductEntry.COLUMN_SUPPLIER_ID};
+        for (String column : columns) {
+            String sql = "SELECT * FROM " + ProductEntry.TABLE_NAME + " WHERE " + column + "=?";
+            List<String> plan = ProductDbHelper.explainQueryPlan(mDatabase, sql, new String[] {"1"});
+            assertFalse(sql + "\n" + ProductDbHelper.describeQueryPlan(plan),
+                    ProductDbHelper.isFullTableScan(plan));
+        }
+
+        // Products are linked to an existing supplier by its details
+        String sql = "SELECT * FROM " + SupplierEntry.TABLE_NAME + " WHERE "
+                + SupplierEntry.COLUMN_SUPPLIER_NAME + "=? AND "
+                + SupplierEntry.COLUMN_SUPPLIER_PHONE + "=?";
+        List<String> plan = ProductDbHelper.explainQueryPlan(mDatabase, sql, new String[] {"1", "1"});
+        assertFalse(sql + "\n" + ProductDbHelper.describeQueryPlan(plan),
+                ProductDbHelper.isFullTableScan(plan));
+    }
+
+    @Test
+    public void statsTriggers_keepTotalsConsistent() throws Exception {
+        ContentValues supplier = new ContentValues();
+        supplier.put(SupplierEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+        supplier.put(SupplierEntry.COLUMN_SUPPLIER_PHONE, "000");
+        long supplierId = mDatabase.insert(SupplierEntry.TABLE_NAME, null, supplier);
+
+        long dune = mDatabase.insert(ProductEntry.TABLE_NAME, null, product(supplierId, 10.0, 3));
+        long emma = mDatabase.insert(ProductEntry.TABLE_NAME, null, product(supplierId, 2.5, 4));
+        mDatabase.insert(ProductEntry.TABLE_NAME, null, product(supplierId, 7.0, 0));
+
+        ContentValues sold = new ContentValues();
+        sold.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 0);
+        mDatabase.update(ProductEntry.TABLE_NAME, sold, ProductEntry._ID + "=?",
+                new String[] {String.valueOf(emma)});
+        mDatabase.delete(ProductEntry.TABLE_NAME, ProductEntry._ID + "=?",
+                new String[] {String.valueOf(dune)});
+
+        Cursor cursor = mDatabase.query(StatsEntry.TABLE_NAME, null, null, null, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(2, cursor.getLong(cursor.getColumnIndex(StatsEntry.COLUMN_PRODUCT_COUNT)));
+            assertEquals(0, cursor.getLong(cursor.getColumnIndex(StatsEntry.COLUMN_TOTAL_QUANTITY)));
+            assertEquals(0.0, cursor.getDouble(cursor.getColumnIndex(StatsEntry.COLUMN_TOTAL_VALUE)),
+                    0.001);
+            assertEquals(2,
+                    cursor.getLong(cursor.getColumnIndex(StatsEntry.COLUMN_OUT_OF_STOCK_COUNT)));
+        } finally {
+            cursor.close();
+        }
+        assertTrue(ProductDbHelper.rebuildStats(mDatabase));
+
+        // A stats row that drifted from the products is reported and repaired
+        mDatabase.execSQL("UPDATE " + StatsEntry.TABLE_NAME + " SET "
+                + StatsEntry.COLUMN_PRODUCT_COUNT + " = 42");
+        assertFalse(ProductDbHelper.rebuildStats(mDatabase));
+        assertTrue(ProductDbHelper.rebuildStats(mDatabase));
+    }
+
+    @Test
+    public void ftsTriggers_reindexOnlyTextUpdates() throws Exception {
+        ContentValues supplier = new ContentValues();
+        supplier.put(SupplierEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+        supplier.put(SupplierEntry.COLUMN_SUPPLIER_PHONE, "000");
+        long supplierId = mDatabase.insert(SupplierEntry.TABLE_NAME, null, supplier);
+        long productId = mDatabase.insert(ProductEntry.TABLE_NAME, null, product(supplierId, 1.0, 3));
+        String[] idArgs = {String.valueOf(productId)};
+
+        // A quantity change keeps the product in the index
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 2);
+        mDatabase.update(ProductEntry.TABLE_NAME, values, ProductEntry._ID + "=?", idArgs);
+        assertEquals(1, countFtsMatches("Title"));
+
+        // A name change replaces the indexed text
+        values.clear();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Dune");
+        mDatabase.update(ProductEntry.TABLE_NAME, values, ProductEntry._ID + "=?", idArgs);
+        assertEquals(0, countFtsMatches("Title"));
+        assertEquals(1, countFtsMatches("Dune"));
+        assertEquals(1, countFtsMatches("Author"));
+    }
+
+    @Test
+    public void stockMovements_areLoggedAndCompacted() throws Exception {
+        ContentValues supplier = new ContentValues();
+        supplier.put(SupplierEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+        supplier.put(SupplierEntry.COLUMN_SUPPLIER_PHONE, "000");
+        long supplierId = mDatabase.insert(SupplierEntry.TABLE_NAME, null, supplier);
+        long productId = mDatabase.insert(ProductEntry.TABLE_NAME, null, product(supplierId, 1.0, 3));
+        String[] idArgs = {String.valueOf(productId)};
+
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 5);
+        mDatabase.update(ProductEntry.TABLE_NAME, values, ProductEntry._ID + "=?", idArgs);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 4);
+        mDatabase.update(ProductEntry.TABLE_NAME, values, ProductEntry._ID + "=?", idArgs);
+        // Updates that do not change the quantity are not movements
+        values.clear();
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 2.0);
+        mDatabase.update(ProductEntry.TABLE_NAME, values, ProductEntry._ID + "=?", idArgs);
+
+        assertEquals("3,5,4", describeMovements(productId));
+
+        // Move the movements into the past, within the same day, and fold them
+        mDatabase.execSQL("UPDATE " + StockMovementEntry.TABLE_NAME + " SET "
+                + StockMovementEntry.COLUMN_TIMESTAMP + " = 1000 + " + StockMovementEntry._ID);
+        assertEquals(3, StockMovementCompactor.compact(mDatabase, 100000));
+        assertEquals("4x3", describeMovements(productId));
+
+        // Folding again does not change anything
+        assertEquals(0, StockMovementCompactor.compact(mDatabase, 100000));
+        assertEquals("4x3", describeMovements(productId));
+    }
+
+    @Test
+    public void deletedProduct_keepsItsStockMovements() throws Exception {
+        ContentValues supplier = new ContentValues();
+        supplier.put(SupplierEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+        supplier.put(SupplierEntry.COLUMN_SUPPLIER_PHONE, "000");
+        long supplierId = mDatabase.insert(SupplierEntry.TABLE_NAME, null, supplier);
+        long productId = mDatabase.insert(ProductEntry.TABLE_NAME, null, product(supplierId, 1.0, 3));
+        String[] idArgs = {String.valueOf(productId)};
+
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 2);
+        mDatabase.update(ProductEntry.TABLE_NAME, values, ProductEntry._ID + "=?", idArgs);
+        mDatabase.delete(ProductEntry.TABLE_NAME, ProductEntry._ID + "=?", idArgs);
+
+        // The sale is still in the ledger, followed by the stock that left with the product
+        assertEquals("3,2,0", describeMovements(productId));
+    }
+
+    @Test
+    public void editedSupplier_replacesUnusedPreviousSupplier() throws Exception {
+        ProductProvider provider = new ProductProvider(mDbHelper);
+        provider.attachInfo(InstrumentationRegistry.getTargetContext(), null);
+        ContentValues dune = version1Product("Dune", "Supplier", null);
+        dune.put(ProductEntry.COLUMN_PRODUCT_PRICE, 1.0);
+        ContentValues emma = version1Product("Emma", "Other supplier", null);
+        emma.put(ProductEntry.COLUMN_PRODUCT_PRICE, 1.0);
+        Uri duneUri = provider.insert(ProductEntry.CONTENT_URI, dune);
+        Uri emmaUri = provider.insert(ProductEntry.CONTENT_URI, emma);
+        assertEquals(2, DatabaseUtils.queryNumEntries(mDatabase, SupplierEntry.TABLE_NAME));
+
+        // Emma moves to the supplier of Dune, which is still used
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+        values.put(ProductEntry.COLUMN_SUPPLIER_PHONE, "000");
+        assertEquals(1, provider.update(emmaUri, values, null, null));
+        assertEquals(1, DatabaseUtils.queryNumEntries(mDatabase, SupplierEntry.TABLE_NAME));
+
+        // Editing the supplier details of Dune leaves the previous supplier to Emma
+        values.put(ProductEntry.COLUMN_SUPPLIER_EMAIL, "a@b.c");
+        assertEquals(1, provider.update(duneUri, values, null, null));
+        assertEquals(2, DatabaseUtils.queryNumEntries(mDatabase, SupplierEntry.TABLE_NAME));
+
+        // Editing them again replaces the supplier that only Dune used
+        values.put(ProductEntry.COLUMN_SUPPLIER_EMAIL, "d@e.f");
+        assertEquals(1, provider.update(duneUri, values, null, null));
+        assertEquals(2, DatabaseUtils.queryNumEntries(mDatabase, SupplierEntry.TABLE_NAME));
+        assertEquals(0, DatabaseUtils.queryNumEntries(mDatabase, SupplierEntry.TABLE_NAME,
+                SupplierEntry.COLUMN_SUPPLIER_EMAIL + "=?", new String[] {"a@b.c"}));
+    }
+
+    @Test
+    public void isbnMetadata_replacesPreviousLookup() throws Exception {
+        ProductProvider provider = new ProductProvider(mDbHelper);
+        provider.attachInfo(InstrumentationRegistry.getTargetContext(), null);
+        String isbn = "9780156012195";
+
+        // No book found: a row without title, fetched now
+        ContentValues values = new ContentValues();
+        values.put(IsbnMetadataEntry.COLUMN_ISBN, isbn);
+        long before = System.currentTimeMillis();
+        assertEquals(IsbnMetadataEntry.buildIsbnUri(isbn),
+                provider.insert(IsbnMetadataEntry.CONTENT_URI, values));
+
+        values.put(IsbnMetadataEntry.COLUMN_TITLE, "The Little Prince");
+        values.put(IsbnMetadataEntry.COLUMN_AUTHOR, "Antoine de Saint-Exupéry");
+        provider.insert(IsbnMetadataEntry.CONTENT_URI, values);
+
+        Cursor cursor = provider.query(IsbnMetadataEntry.buildIsbnUri(isbn), null, null, null,
+                null);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("The Little Prince", cursor.getString(
+                    cursor.getColumnIndexOrThrow(IsbnMetadataEntry.COLUMN_TITLE)));
+            assertTrue(cursor.getLong(cursor.getColumnIndexOrThrow(
+                    IsbnMetadataEntry.COLUMN_FETCHED_AT)) >= before);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void writeAheadLogging_readsProgressDuringLongWrite() throws Exception {
+        // Write-ahead logging needs a database file
+        final Context context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(STRESS_DATABASE_NAME);
+        final ProductDbHelper dbHelper = new ProductDbHelper(context, STRESS_DATABASE_NAME);
+        try {
+            final SQLiteDatabase writableDatabase = dbHelper.getWritableDatabase();
+            final CountDownLatch writerStarted = new CountDownLatch(1);
+            final CountDownLatch readsFinished = new CountDownLatch(1);
+
+            // Hold a write transaction open while inserting rows, until the reads are done
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    writableDatabase.beginTransaction();
+                    try {
+                        ContentValues supplier = new ContentValues();
+                        supplier.put(SupplierEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+                        supplier.put(SupplierEntry.COLUMN_SUPPLIER_PHONE, "000");
+                        long supplierId = writableDatabase.insert(SupplierEntry.TABLE_NAME, null,
+                                supplier);
+
+                        ContentValues values = new ContentValues();
+                        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Stress");
+                        values.put(ProductEntry.COLUMN_PRODUCT_AUTHOR, "Writer");
+                        values.put(ProductEntry.COLUMN_PRODUCT_ISBN, "9780000000000");
+                        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 1.0);
+                        values.put(ProductEntry.COLUMN_SUPPLIER_ID, supplierId);
+                        writableDatabase.insert(ProductEntry.TABLE_NAME, null, values);
+                        writerStarted.countDown();
+                        while (!readsFinished.await(10, TimeUnit.MILLISECONDS)) {
+                            writableDatabase.insert(ProductEntry.TABLE_NAME, null, values);
+                        }
+                        writableDatabase.setTransactionSuccessful();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        writableDatabase.endTransaction();
+                    }
+                }
+            });
+            writer.start();
+            assertTrue(writerStarted.await(5, TimeUnit.SECONDS));
+
+            // Every read must complete while the write transaction is still open
+            SQLiteDatabase readableDatabase = dbHelper.getReadableDatabase();
+            long start = System.nanoTime();
+            for (int i = 0; i < STRESS_READS; i++) {
+                Cursor cursor = readableDatabase.query(ProductEntry.TABLE_NAME, null, null, null,
+                        null, null, null);
+                try {
+                    // The uncommitted rows of the writer are not visible yet
+                    assertEquals(0, cursor.getCount());
+                } finally {
+                    cursor.close();
+                }
+            }
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue(writer.isAlive());
+            readsFinished.countDown();
+            writer.join();
+
+            assertTrue("Reads took " + elapsedMillis + " ms", elapsedMillis < STRESS_TIMEOUT_MILLIS);
+        } finally {
+            dbHelper.close();
+            context.deleteDatabase(STRESS_DATABASE_NAME);
+        }
+    }
+
+    /**
+     * Creates the products table of version 1 of the schema, without any index.
+     */
+    private static void createVersion1Table(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + ProductEntry.TABLE_NAME + " ("
+                + ProductEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + ProductEntry.COLUMN_PRODUCT_NAME + " TEXT NOT NULL, "
+                + ProductEntry.COLUMN_PRODUCT_AUTHOR + " TEXT NOT NULL, "
+                + ProductEntry.COLUMN_PRODUCT_PUBLISHER + " TEXT, "
+                + ProductEntry.COLUMN_PRODUCT_ISBN + " TEXT NOT NULL, "
+                + ProductEntry.COLUMN_PRODUCT_PRICE + " REAL NOT NULL DEFAULT 0.0, "
+                + ProductEntry.COLUMN_PRODUCT_QUANTITY + " INTEGER NOT NULL DEFAULT 0, "
+                + ProductEntry.COLUMN_PRODUCT_IMAGE + " TEXT, "
+                + ProductEntry.COLUMN_SUPPLIER_NAME + " TEXT NOT NULL, "
+                + ProductEntry.COLUMN_SUPPLIER_EMAIL + " TEXT, "
+                + ProductEntry.COLUMN_SUPPLIER_PHONE + " TEXT NOT NULL);");
+    }
+
+    /**
+     * Returns the values of a product row in version 1 of the schema.
+     */
+    private static ContentValues version1Product(String name, String supplierName,
+                                                 String supplierEmail) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductEntry.COLUMN_PRODUCT_AUTHOR, "Author");
+        values.put(ProductEntry.COLUMN_PRODUCT_ISBN, "9780000000000");
+        values.put(ProductEntry.COLUMN_SUPPLIER_NAME, supplierName);
+        values.put(ProductEntry.COLUMN_SUPPLIER_EMAIL, supplierEmail);
+        values.put(ProductEntry.COLUMN_SUPPLIER_PHONE, "000");
+        return values;
+    }
+
+    /**
+     * Returns the number of products whose indexed text matches the given FTS query.
+     */
+    private long countFtsMatches(String query) {
+        return DatabaseUtils.longForQuery(mDatabase, "SELECT count(*) FROM "
+                + ProductEntry.FTS_TABLE_NAME + " WHERE " + ProductEntry.FTS_TABLE_NAME
+                + " MATCH ?", new String[] {query});
+    }
+
+    /**
+     * Returns the quantity after each stock movement of the given product, oldest first, with
+     * the number of folded movements of the snapshots, for example "3,4x2".
+     */
+    private String describeMovements(long productId) {
+        Cursor cursor = mDatabase.query(StockMovementEntry.TABLE_NAME, null,
+                StockMovementEntry.COLUMN_PRODUCT_ID + "=?", new String[] {String.valueOf(productId)},
+                null, null, StockMovementEntry._ID);
+        try {
+            StringBuilder builder = new StringBuilder();
+            while (cursor.moveToNext()) {
+                if (builder.length() > 0) {
+                    builder.append(',');
+                }
+                builder.append(cursor.getInt(
+                        cursor.getColumnIndex(StockMovementEntry.COLUMN_QUANTITY)));
+                int count = cursor.getInt(
+                        cursor.getColumnIndex(StockMovementEntry.COLUMN_MOVEMENT_COUNT));
+                if (count > 1) {
+                    builder.append('x').append(count);
+                }
+            }
+            return builder.toString();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the values of a product row with the given supplier, price and quantity.
+     */
+    private static ContentValues product(long supplierId, double price, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Title");
+        values.put(ProductEntry.COLUMN_PRODUCT_AUTHOR, "Author");
+        values.put(ProductEntry.COLUMN_PRODUCT_ISBN, "9780000000000");
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, price);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put(ProductEntry.COLUMN_SUPPLIER_ID, supplierId);
+        return values;
+    }
+
+    /**
+     * Returns true if the given database has an index with the given name.
+     */
+    private static boolean hasIndex(SQLiteDatabase db, String indexName) {
+        Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type='index' AND name=?",
+                new String[] {indexName});
+        try {
+            return cursor.getCount() == 1;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventory.data.ProductContract.IsbnMetadataEntry;
+import com.example.android.inventory.data.ProductContract.MetricsEntry;
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+import com.example.android.inventory.data.ProductContract.SupplierEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests of {@link ProductProvider#applyBatch}: what is written and what is notified
+ * when a batch fails, with and without yield points. Also tests the rows of a bulk insert that
+ * fail on their own, and the transactions counted by the metrics.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductProviderBatchTest {
+
+    /** Number of product inserts of a batch */
+    private static final int BATCH_SIZE = 200;
+
+    /** Time to wait for change notifications that are expected */
+    private static final long NOTIFICATION_TIMEOUT_MILLIS = 2000;
+
+    /** Time to wait for change notifications that are not expected */
+    private static final long NO_NOTIFICATION_MILLIS = 500;
+
+    private Context mContext;
+    private ProductDbHelper mDbHelper;
+    private ProductProvider mProvider;
+    private NotificationObserver mObserver;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        // Use an in-memory database so the tests never touch the app data
+        mDbHelper = new ProductDbHelper(mContext, null);
+        mProvider = new ProductProvider(mDbHelper);
+        mProvider.attachInfo(mContext, null);
+        // Send every notification right away
+        mProvider.setNotificationWindow(0);
+        mObserver = new NotificationObserver();
+        mContext.getContentResolver().registerContentObserver(ProductEntry.CONTENT_URI, true,
+                mObserver);
+    }
+
+    @After
+    public void tearDown() {
+        mContext.getContentResolver().unregisterContentObserver(mObserver);
+        mDbHelper.close();
+    }
+
+    @Test
+    public void failedBatch_isRolledBackWithoutNotification() throws Exception {
+        ArrayList<ContentProviderOperation> operations = productInserts(false);
+        operations.add(failingOperation());
+
+        try {
+            mProvider.applyBatch(operations);
+            fail("The batch should fail on its last operation");
+        } catch (OperationApplicationException expected) {
+        }
+
+        assertEquals(0, productCount());
+        assertFalse(mObserver.await(NO_NOTIFICATION_MILLIS));
+    }
+
+    @Test
+    public void failureAfterYield_notifiesCommittedOperations() throws Exception {
+        ArrayList<ContentProviderOperation> operations = productInserts(true);
+        operations.add(failingOperation());
+
+        // Another writer waits for the database, so the batch yields at its yield points
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SQLiteDatabase database = mDbHelper.getWritableDatabase();
+                for (int i = 0; writing.get(); i++) {
+                    ContentValues values = new ContentValues();
+                    values.put(IsbnMetadataEntry.COLUMN_ISBN, String.valueOf(i));
+                    values.put(IsbnMetadataEntry.COLUMN_FETCHED_AT, 0);
+                    database.insert(IsbnMetadataEntry.TABLE_NAME, null, values);
+                }
+            }
+        });
+        writer.start();
+        try {
+            mProvider.applyBatch(operations);
+            fail("The batch should fail on its last operation");
+        } catch (OperationApplicationException expected) {
+        } finally {
+            writing.set(false);
+            writer.join();
+        }
+
+        // Only the operations after the last yield were rolled back
+        long committed = productCount();
+        assertTrue("No yield happened", committed > 0);
+        assertTrue(committed < BATCH_SIZE);
+        // The committed operations were notified before the failure
+        assertTrue(mObserver.await(NOTIFICATION_TIMEOUT_MILLIS));
+    }
+
+    @Test
+    public void bulkInsertMethod_reportsFailedRowsWithoutTheirSuppliers() throws Exception {
+        CatalogGenerator generator = new CatalogGenerator(1);
+        ContentValues[] values = {generator.next(), generator.next(), generator.next()};
+        // The second row has a supplier of its own and is refused by the database
+        values[1].put(ProductEntry.COLUMN_SUPPLIER_NAME, "Refused supplier");
+        values[1].put(ProductEntry.COLUMN_PRODUCT_ISBN, "refused");
+        mDbHelper.getWritableDatabase().execSQL("CREATE TRIGGER refuse_isbn BEFORE INSERT ON "
+                + ProductEntry.TABLE_NAME + " WHEN new." + ProductEntry.COLUMN_PRODUCT_ISBN
+                + " = 'refused' BEGIN SELECT RAISE(ABORT, 'refused'); END;");
+        // The third row fails validation
+        values[2].remove(ProductEntry.COLUMN_PRODUCT_NAME);
+
+        Bundle extras = new Bundle();
+        extras.putParcelableArray(ProductEntry.KEY_VALUES, values);
+        Bundle result = mProvider.call(ProductEntry.METHOD_BULK_INSERT, null, extras);
+
+        assertEquals(1, result.getInt(ProductEntry.KEY_ROWS_INSERTED));
+        assertArrayEquals(new int[] {1, 2}, result.getIntArray(ProductEntry.KEY_FAILED_ROWS));
+        assertEquals(1, productCount());
+        // The supplier inserted for the refused row was taken back with it
+        assertEquals(0, DatabaseUtils.queryNumEntries(mDbHelper.getReadableDatabase(),
+                SupplierEntry.TABLE_NAME, SupplierEntry.COLUMN_SUPPLIER_NAME + "=?",
+                new String[] {"Refused supplier"}));
+    }
+
+    @Test
+    public void productWrites_areCountedAsTransactions() throws Exception {
+        Uri uri = mProvider.insert(ProductEntry.CONTENT_URI, new CatalogGenerator(1).next());
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 1.0);
+        assertEquals(1, mProvider.update(uri, values, null, null));
+
+        assertEquals(2, metricsCount("transactions.committed"));
+        assertEquals(0, metricsCount("transactions.rolled_back"));
+    }
+
+    /**
+     * Returns the operations that insert {@link #BATCH_SIZE} products, each allowing a yield
+     * before it if asked.
+     */
+    private static ArrayList<ContentProviderOperation> productInserts(boolean yieldAllowed) {
+        CatalogGenerator generator = new CatalogGenerator(1);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            operations.add(ContentProviderOperation.newInsert(ProductEntry.CONTENT_URI)
+                    .withValues(generator.next())
+                    .withYieldAllowed(yieldAllowed)
+                    .build());
+        }
+        return operations;
+    }
+
+    /** Returns an operation that always fails: an assertion of more products than inserted */
+    private static ContentProviderOperation failingOperation() {
+        return ContentProviderOperation.newAssertQuery(ProductEntry.CONTENT_URI)
+                .withExpectedCount(BATCH_SIZE + 1)
+                .build();
+    }
+
+    /** Returns the count of the metrics row with the given name */
+    private long metricsCount(String name) {
+        Cursor cursor = mProvider.query(MetricsEntry.CONTENT_URI, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                if (name.equals(cursor.getString(
+                        cursor.getColumnIndexOrThrow(MetricsEntry.COLUMN_NAME)))) {
+                    return cursor.getLong(cursor.getColumnIndexOrThrow(MetricsEntry.COLUMN_COUNT));
+                }
+            }
+            fail("No metrics row " + name);
+            return 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long productCount() {
+        return DatabaseUtils.queryNumEntries(mDbHelper.getReadableDatabase(),
+                ProductEntry.TABLE_NAME);
+    }
+
+    /** Waits for a change notification of the products */
+    private static final class NotificationObserver extends ContentObserver {
+        private final CountDownLatch mNotified = new CountDownLatch(1);
+
+        NotificationObserver() {
+            // Called on a binder thread
+            super(null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            mNotified.countDown();
+        }
+
+        /** Returns true if a notification arrived within the given time */
+        boolean await(long millis) throws InterruptedException {
+            return mNotified.await(millis, TimeUnit.MILLISECONDS);
+        }
+    }
+}
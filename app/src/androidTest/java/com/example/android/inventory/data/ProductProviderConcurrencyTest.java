@@ -0,0 +1,165 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests of {@link ProductProvider} writes from several threads at once, which share
+ * the cached compiled statements: writes inside batches and bulk inserts, and single writes
+ * outside any transaction, must neither deadlock nor lose an adjustment.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductProviderConcurrencyTest {
+
+    /** Number of rounds of each writer thread */
+    private static final int ROUNDS = 200;
+
+    /** Number of adjustments of a batch */
+    private static final int BATCH_SIZE = 10;
+
+    /** Maximum time the writers may take, far longer than they need without a deadlock */
+    private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private Context mContext;
+    private ProductDbHelper mDbHelper;
+    private ProductProvider mProvider;
+    private long mProductId;
+
+    /** First failure of a writer thread */
+    private final AtomicReference<Throwable> mFailure = new AtomicReference<>();
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        // Use an in-memory database so the tests never touch the app data
+        mDbHelper = new ProductDbHelper(mContext, null);
+        mProvider = new ProductProvider(mDbHelper);
+        mProvider.attachInfo(mContext, null);
+        ContentValues product = new CatalogGenerator(1).next();
+        product.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 0);
+        mProductId = ContentUris.parseId(mProvider.insert(ProductEntry.CONTENT_URI, product));
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void batchesAndSingleWrites_doNotDeadlock() throws Exception {
+        final Uri adjustUri = ProductEntry.buildAdjustUri(mProductId);
+
+        // Adjustments inside batch transactions
+        Thread batches = newWriter(new Runnable() {
+            @Override
+            public void run() {
+                for (int round = 0; round < ROUNDS; round++) {
+                    ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+                    for (int i = 0; i < BATCH_SIZE; i++) {
+                        operations.add(ContentProviderOperation.newUpdate(adjustUri)
+                                .withValue(ProductEntry.KEY_QUANTITY_DELTA, 1)
+                                .build());
+                    }
+                    try {
+                        mProvider.applyBatch(operations);
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            }
+        });
+        // The same adjustment outside any transaction of the caller
+        Thread singles = newWriter(new Runnable() {
+            @Override
+            public void run() {
+                ContentValues values = new ContentValues();
+                values.put(ProductEntry.KEY_QUANTITY_DELTA, 1);
+                for (int round = 0; round < ROUNDS; round++) {
+                    assertEquals(1, mProvider.update(adjustUri, values, null, null));
+                }
+            }
+        });
+        // Inserts and single deletes of other products, with the insert and delete statements
+        Thread inserts = newWriter(new Runnable() {
+            @Override
+            public void run() {
+                CatalogGenerator generator = new CatalogGenerator(2);
+                for (int round = 0; round < ROUNDS / 10; round++) {
+                    ContentValues[] values = new ContentValues[BATCH_SIZE];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = generator.next();
+                    }
+                    mProvider.bulkInsert(ProductEntry.CONTENT_URI, values);
+                    Uri uri = mProvider.insert(ProductEntry.CONTENT_URI, generator.next());
+                    assertEquals(1, mProvider.delete(uri, null, null));
+                }
+            }
+        });
+
+        List<Thread> writers = new ArrayList<>();
+        writers.add(batches);
+        writers.add(singles);
+        writers.add(inserts);
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        for (Thread writer : writers) {
+            writer.join(Math.max(1, deadline - System.currentTimeMillis()));
+            assertFalse("Writer " + writer.getName() + " is stuck", writer.isAlive());
+        }
+        if (mFailure.get() != null) {
+            throw new AssertionError(mFailure.get());
+        }
+
+        // No adjustment was lost
+        assertEquals(ROUNDS * BATCH_SIZE + ROUNDS, quantity());
+    }
+
+    /** Starts a daemon thread running the given writes, which records their failure */
+    private Thread newWriter(final Runnable writes) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writes.run();
+                } catch (Throwable t) {
+                    mFailure.compareAndSet(null, t);
+                }
+            }
+        });
+        // A deadlocked writer must not keep the test process alive
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private int quantity() {
+        Cursor cursor = mProvider.query(
+                ContentUris.withAppendedId(ProductEntry.CONTENT_URI, mProductId),
+                new String[] { ProductEntry.COLUMN_PRODUCT_QUANTITY }, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.net.Uri;
+import android.os.Build;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Repeatable microbenchmarks of the {@link ProductProvider} operations on catalogs of 1k, 10k and
+ * 100k products from {@link CatalogGenerator}. The provider runs in the test process on a
+ * database file of its own. The results of each catalog size are written as JSON to
+ * "benchmarks/provider-&lt;rows&gt;.json" in the external files directory of the app, for example
+ * <pre>
+ * adb pull /sdcard/Android/data/com.example.android.inventory/files/benchmarks
+ * </pre>
+ * and are also logged with the tag "ProviderBenchmark".
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProviderBenchmarkTest {
+
+    /** Tag of the logged results */
+    private static final String LOG_TAG = "ProviderBenchmark";
+
+    /** Version of the result format, incremented whenever a field changes meaning */
+    private static final int FORMAT_VERSION = 1;
+
+    /** Name of the database file of the benchmarked provider */
+    private static final String DATABASE_NAME = "inventory_benchmark.db";
+
+    /** Seed of the catalog and of the rows picked by the benchmarks */
+    private static final long SEED = 42;
+
+    /** Number of measured calls of the operations on single rows */
+    private static final int ROW_ITERATIONS = 200;
+
+    /** Number of measured calls of the operations on many rows */
+    private static final int LIST_ITERATIONS = 10;
+
+    /** Number of calls run before measuring an operation */
+    private static final int WARMUP_ITERATIONS = 10;
+
+    /** Columns read by the list of products */
+    private static final String[] LIST_PROJECTION = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_AUTHOR,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_IMAGE};
+
+    /** A measured operation of the provider */
+    private interface Operation {
+        void run(int iteration) throws Exception;
+    }
+
+    private Context mContext;
+    private ProductDbHelper mDbHelper;
+    private ProductProvider mProvider;
+    private Random mRandom;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDbHelper = new ProductDbHelper(mContext, DATABASE_NAME);
+        mProvider = new ProductProvider(mDbHelper);
+        mProvider.attachInfo(mContext, null);
+        mRandom = new Random(SEED);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void provider_1k() throws Exception {
+        runBenchmarks(1000);
+    }
+
+    @Test
+    public void provider_10k() throws Exception {
+        runBenchmarks(10000);
+    }
+
+    @Test
+    public void provider_100k() throws Exception {
+        runBenchmarks(100000);
+    }
+
+    /**
+     * Fill the database with the given number of products, measure every provider operation and
+     * write the results.
+     */
+    private void runBenchmarks(final int rows) throws Exception {
+        final CatalogGenerator generator = new CatalogGenerator(SEED);
+        assertEquals(rows, generator.insert(mDbHelper.getWritableDatabase(), rows));
+        final long maxId = DatabaseUtils.longForQuery(mDbHelper.getReadableDatabase(),
+                "SELECT MAX(" + ProductEntry._ID + ") FROM " + ProductEntry.TABLE_NAME, null);
+
+        // The authors of the catalog, generated again from the same seed
+        final String[] authors = new String[ROW_ITERATIONS + WARMUP_ITERATIONS];
+        CatalogGenerator authorGenerator = new CatalogGenerator(SEED);
+        for (int i = 0; i < authors.length; i++) {
+            authors[i] = authorGenerator.next().getAsString(ProductEntry.COLUMN_PRODUCT_AUTHOR);
+        }
+
+        JSONArray results = new JSONArray();
+        results.put(measure("query_list", rows, LIST_ITERATIONS, new Operation() {
+            @Override
+            public void run(int iteration) {
+                readAll(mProvider.query(ProductEntry.CONTENT_URI, LIST_PROJECTION, null, null,
+                        null));
+            }
+        }));
+        results.put(measure("query_by_id", rows, ROW_ITERATIONS, new Operation() {
+            @Override
+            public void run(int iteration) {
+                readAll(mProvider.query(productUri(randomId(maxId)), null, null, null, null));
+            }
+        }));
+        results.put(measure("query_by_author", rows, ROW_ITERATIONS, new Operation() {
+            @Override
+            public void run(int iteration) {
+                readAll(mProvider.query(ProductEntry.CONTENT_URI, LIST_PROJECTION,
+                        ProductEntry.COLUMN_PRODUCT_AUTHOR + "=?",
+                        new String[] { authors[iteration] }, null));
+            }
+        }));
+
+        // The inserted products are deleted again below, so the catalog keeps its size
+        final long[] insertedIds = new long[ROW_ITERATIONS + WARMUP_ITERATIONS];
+        results.put(measure("insert", rows, ROW_ITERATIONS, new Operation() {
+            @Override
+            public void run(int iteration) {
+                Uri uri = mProvider.insert(ProductEntry.CONTENT_URI, generator.next());
+                insertedIds[iteration] = ContentUris.parseId(uri);
+            }
+        }));
+        results.put(measure("update_quantity_by_id", rows, ROW_ITERATIONS, new Operation() {
+            @Override
+            public void run(int iteration) {
+                ContentValues values = new ContentValues();
+                values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, iteration);
+                assertEquals(1, mProvider.update(productUri(randomId(maxId)), values, null, null));
+            }
+        }));
+        results.put(measure("delete_by_id", rows, ROW_ITERATIONS, new Operation() {
+            @Override
+            public void run(int iteration) {
+                assertEquals(1, mProvider.delete(productUri(insertedIds[iteration]), null, null));
+            }
+        }));
+        results.put(measure("bulk_insert_" + CatalogGenerator.BATCH_SIZE, rows, LIST_ITERATIONS,
+                new Operation() {
+                    @Override
+                    public void run(int iteration) {
+                        ContentValues[] batch = new ContentValues[CatalogGenerator.BATCH_SIZE];
+                        for (int i = 0; i < batch.length; i++) {
+                            batch[i] = generator.next();
+                        }
+                        assertEquals(batch.length,
+                                mProvider.bulkInsert(ProductEntry.CONTENT_URI, batch));
+                    }
+                }));
+
+        writeResults(rows, results);
+    }
+
+    /**
+     * Run the given operation {@link #WARMUP_ITERATIONS} times, then time it the given number of
+     * times. Returns the statistics of the timed calls in microseconds.
+     */
+    private static JSONObject measure(String name, int rows, int iterations, Operation operation)
+            throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            operation.run(iterations + i);
+        }
+
+        long[] micros = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            operation.run(i);
+            micros[i] = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+        }
+        Arrays.sort(micros);
+
+        long sum = 0;
+        for (long value : micros) {
+            sum += value;
+        }
+        return new JSONObject()
+                .put("name", name)
+                .put("rows", rows)
+                .put("iterations", iterations)
+                .put("min_us", micros[0])
+                .put("median_us", micros[iterations / 2])
+                .put("p90_us", micros[(int) Math.ceil(iterations * 0.9) - 1])
+                .put("max_us", micros[iterations - 1])
+                .put("mean_us", sum / iterations);
+    }
+
+    /**
+     * Write the results of one catalog size with the device details, and log them.
+     */
+    private void writeResults(int rows, JSONArray results) throws JSONException, IOException {
+        JSONObject report = new JSONObject()
+                .put("format", FORMAT_VERSION)
+                .put("benchmark", "provider")
+                .put("rows", rows)
+                .put("device", Build.MANUFACTURER + " " + Build.MODEL)
+                .put("sdk", Build.VERSION.SDK_INT)
+                .put("timestamp", System.currentTimeMillis())
+                .put("results", results);
+        String json = report.toString();
+        Log.i(LOG_TAG, json);
+
+        File directory = mContext.getExternalFilesDir(null);
+        if (directory == null) {
+            // External storage is not available, keep the results in the app storage
+            directory = mContext.getFilesDir();
+        }
+        directory = new File(directory, "benchmarks");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        Writer writer = new FileWriter(new File(directory, "provider-" + rows + ".json"));
+        try {
+            writer.write(json);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /** Returns a random product ID, the catalog IDs are 1 to the given maximum */
+    private long randomId(long maxId) {
+        return 1 + (long) (mRandom.nextDouble() * maxId);
+    }
+
+    private static Uri productUri(long id) {
+        return ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
+    }
+
+    /** Read every row of the given cursor, as a list would, and close it */
+    private static void readAll(Cursor cursor) {
+        try {
+            while (cursor.moveToNext()) {
+                cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+import com.example.android.inventory.data.ProductContract.SupplierEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the per-call cost of the hot provider statements built from ContentValues, as
+ * {@link SQLiteDatabase#update} and {@link SQLiteDatabase#query} do, with the same statements
+ * taken from the {@link StatementCache}. The results are logged with the tag "StatementCacheBench".
+ */
+@RunWith(AndroidJUnit4.class)
+public class StatementCacheBenchmarkTest {
+
+    /** Tag of the logged results */
+    private static final String LOG_TAG = "StatementCacheBench";
+
+    /** Number of calls measured for each variant */
+    private static final int ITERATIONS = 2000;
+
+    /** Number of calls run before measuring, so both variants start warm */
+    private static final int WARMUP_ITERATIONS = 200;
+
+    private static final String ISBN = "9780000000000";
+
+    private ProductDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+    private long mProductId;
+
+    @Before
+    public void setUp() {
+        mDbHelper = new ProductDbHelper(InstrumentationRegistry.getTargetContext(), null);
+        mDatabase = mDbHelper.getWritableDatabase();
+
+        ContentValues supplier = new ContentValues();
+        supplier.put(SupplierEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+        supplier.put(SupplierEntry.COLUMN_SUPPLIER_PHONE, "000");
+        long supplierId = mDatabase.insert(SupplierEntry.TABLE_NAME, null, supplier);
+
+        ContentValues product = new ContentValues();
+        product.put(ProductEntry.COLUMN_PRODUCT_NAME, "Title");
+        product.put(ProductEntry.COLUMN_PRODUCT_AUTHOR, "Author");
+        product.put(ProductEntry.COLUMN_PRODUCT_ISBN, ISBN);
+        product.put(ProductEntry.COLUMN_SUPPLIER_ID, supplierId);
+        mProductId = mDatabase.insert(ProductEntry.TABLE_NAME, null, product);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void updateQuantity() throws Exception {
+        String[] idArgs = {String.valueOf(mProductId)};
+        String sql = "UPDATE " + ProductEntry.TABLE_NAME + " SET "
+                + ProductEntry.COLUMN_PRODUCT_QUANTITY + " = ? WHERE " + ProductEntry._ID + " = ?";
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            updateWithContentValues(i, idArgs);
+            updateWithCachedStatement(sql, i);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            updateWithContentValues(i, idArgs);
+        }
+        long contentValuesNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            updateWithCachedStatement(sql, i);
+        }
+        long cachedNanos = System.nanoTime() - start;
+
+        report("update quantity by id", contentValuesNanos, cachedNanos);
+        assertEquals(ITERATIONS - 1, DatabaseUtils.longForQuery(mDatabase, "SELECT "
+                + ProductEntry.COLUMN_PRODUCT_QUANTITY + " FROM " + ProductEntry.TABLE_NAME, null));
+    }
+
+    @Test
+    public void findByIsbn() throws Exception {
+        String[] columns = {ProductEntry._ID};
+        String[] isbnArgs = {ISBN};
+        String sql = "SELECT " + ProductEntry._ID + " FROM " + ProductEntry.TABLE_NAME
+                + " WHERE " + ProductEntry.COLUMN_PRODUCT_ISBN + " = ? LIMIT 1";
+
+        long found = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            Cursor cursor = mDatabase.query(ProductEntry.TABLE_NAME, columns,
+                    ProductEntry.COLUMN_PRODUCT_ISBN + "=?", isbnArgs, null, null, null, "1");
+            try {
+                cursor.moveToFirst();
+                found = cursor.getLong(0);
+            } finally {
+                cursor.close();
+            }
+        }
+        long queryNanos = System.nanoTime() - start;
+        assertEquals(mProductId, found);
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            SQLiteStatement statement = mDbHelper.getStatementCache().get(mDatabase, sql);
+            synchronized (statement) {
+                statement.bindString(1, ISBN);
+                found = statement.simpleQueryForLong();
+            }
+        }
+        long cachedNanos = System.nanoTime() - start;
+        assertEquals(mProductId, found);
+
+        report("lookup by ISBN", queryNanos, cachedNanos);
+    }
+
+    private void updateWithContentValues(int quantity, String[] idArgs) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        mDatabase.update(ProductEntry.TABLE_NAME, values, ProductEntry._ID + "=?", idArgs);
+    }
+
+    private void updateWithCachedStatement(String sql, int quantity) {
+        SQLiteStatement statement = mDbHelper.getStatementCache().get(mDatabase, sql);
+        synchronized (statement) {
+            statement.bindLong(1, quantity);
+            statement.bindLong(2, mProductId);
+            statement.executeUpdateDelete();
+        }
+    }
+
+    /**
+     * Log the mean cost per call of both variants of an operation.
+     */
+    private static void report(String operation, long beforeNanos, long afterNanos) {
+        Log.i(LOG_TAG, operation + ": before=" + microsPerCall(beforeNanos) + " us/call"
+                + " after=" + microsPerCall(afterNanos) + " us/call");
+    }
+
+    private static double microsPerCall(long nanos) {
+        return (double) TimeUnit.NANOSECONDS.toMicros(nanos) / ITERATIONS;
+    }
+}
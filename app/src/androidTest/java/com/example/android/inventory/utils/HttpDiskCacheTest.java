@@ -0,0 +1,234 @@
+package com.example.android.inventory.utils;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventory.Book;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests of the {@link HttpDiskCache} of {@link QueryUtils#fetchBookData}, against a
+ * local stub HTTP server.
+ */
+@RunWith(AndroidJUnit4.class)
+public class HttpDiskCacheTest {
+
+    /** Size of the cache of the tests */
+    private static final long CACHE_SIZE = 64 * 1024;
+
+    /** Maximum time a repeated lookup may take without the network */
+    private static final long OFFLINE_LOOKUP_MILLIS = 10;
+
+    private MockWebServer mServer;
+
+    /** Response of the stub server */
+    private String mResponse;
+    private File mDirectory;
+    private HttpDiskCache mCache;
+
+    @Before
+    public void setUp() throws Exception {
+        mResponse = TestAssets.readString(TestAssets.ISBN_RESPONSE);
+        mServer = new MockWebServer();
+        mServer.start();
+        mDirectory = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "http_disk_cache_test");
+        deleteDirectory();
+        mCache = new HttpDiskCache(mDirectory, CACHE_SIZE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+        deleteDirectory();
+    }
+
+    @Test
+    public void freshResponse_isServedWithoutRequest() throws Exception {
+        mServer.enqueue(new MockResponse().setBody(mResponse)
+                .setHeader("Cache-Control", "max-age=60"));
+        String url = url("9780156012195");
+
+        assertLittlePrince(QueryUtils.fetchBookData(url, mCache));
+        assertLittlePrince(QueryUtils.fetchBookData(url, mCache));
+
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void staleResponse_isRevalidatedWithEtag() throws Exception {
+        mServer.enqueue(new MockResponse().setBody(mResponse)
+                .setHeader("Cache-Control", "private, max-age=0, must-revalidate")
+                .setHeader("ETag", "\"v1\""));
+        mServer.enqueue(new MockResponse().setResponseCode(304)
+                .setHeader("ETag", "\"v1\""));
+        String url = url("9780156012195");
+
+        assertLittlePrince(QueryUtils.fetchBookData(url, mCache));
+        assertLittlePrince(QueryUtils.fetchBookData(url, mCache));
+
+        assertNull(mServer.takeRequest().getHeader("If-None-Match"));
+        RecordedRequest revalidation = mServer.takeRequest();
+        assertEquals("\"v1\"", revalidation.getHeader("If-None-Match"));
+    }
+
+    @Test
+    public void cachedResponse_isServedQuicklyOffline() throws Exception {
+        mServer.enqueue(new MockResponse().setBody(mResponse)
+                .setHeader("Cache-Control", "no-cache")
+                .setHeader("ETag", "\"v1\""));
+        String url = url("9780156012195");
+        assertLittlePrince(QueryUtils.fetchBookData(url, mCache));
+
+        // Go offline: the connection is refused
+        mServer.shutdown();
+        long start = System.nanoTime();
+        List<Book> books = QueryUtils.fetchBookData(url, mCache);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertLittlePrince(books);
+        assertTrue("Offline lookup took " + millis + " ms", millis < OFFLINE_LOOKUP_MILLIS);
+    }
+
+    @Test
+    public void noStoreResponse_isNotCached() throws Exception {
+        mServer.enqueue(new MockResponse().setBody(mResponse)
+                .setHeader("Cache-Control", "no-store"));
+        mServer.enqueue(new MockResponse().setBody(mResponse)
+                .setHeader("Cache-Control", "no-store"));
+        String url = url("9780156012195");
+
+        assertLittlePrince(QueryUtils.fetchBookData(url, mCache));
+        assertLittlePrince(QueryUtils.fetchBookData(url, mCache));
+
+        assertEquals(2, mServer.getRequestCount());
+        assertNull(mServer.takeRequest().getHeader("If-None-Match"));
+        assertNull(mServer.takeRequest().getHeader("If-None-Match"));
+    }
+
+    @Test
+    public void leastRecentlyUsedEntries_areEvicted() throws Exception {
+        // Each use is a minute after the previous one, far above the resolution of file times
+        final AtomicLong now = new AtomicLong(TimeUnit.DAYS.toMillis(365));
+        HttpDiskCache.Clock clock = new HttpDiskCache.Clock() {
+            @Override
+            public long currentTimeMillis() {
+                return now.addAndGet(TimeUnit.MINUTES.toMillis(1));
+            }
+        };
+        // Room for about two responses
+        mCache = new HttpDiskCache(mDirectory, 2 * mResponse.length() + 1000, clock);
+        for (int i = 0; i < 3; i++) {
+            mServer.enqueue(new MockResponse().setBody(mResponse)
+                    .setHeader("Cache-Control", "max-age=60"));
+        }
+
+        QueryUtils.fetchBookData(url("1"), mCache);
+        QueryUtils.fetchBookData(url("2"), mCache);
+        // Reading the first entry makes the second one the least recently used
+        assertLittlePrince(QueryUtils.fetchBookData(url("1"), mCache));
+        assertEquals(2, mServer.getRequestCount());
+        QueryUtils.fetchBookData(url("3"), mCache);
+
+        // The cache key is the URL of the request, with its partial response parameter
+        assertNull(mCache.get(QueryUtils.withPartialResponse(url("2"))));
+        assertNotNull(mCache.get(QueryUtils.withPartialResponse(url("1"))));
+        assertNotNull(mCache.get(QueryUtils.withPartialResponse(url("3"))));
+        assertTrue(mCache.size() <= 2 * mResponse.length() + 1000);
+    }
+
+    @Test
+    public void unreadableFreshResponse_isFetchedAgain() throws Exception {
+        mServer.enqueue(new MockResponse().setBody(mResponse)
+                .setHeader("Cache-Control", "max-age=60")
+                .setHeader("ETag", "\"v1\""));
+        mServer.enqueue(new MockResponse().setBody(mResponse)
+                .setHeader("Cache-Control", "max-age=60"));
+        String url = url("9780156012195");
+        assertLittlePrince(QueryUtils.fetchBookData(url, mCache));
+
+        // Truncate the cached body, as a crash in the middle of a write would
+        new FileOutputStream(bodyFile()).close();
+
+        assertLittlePrince(QueryUtils.fetchBookData(url, mCache));
+        assertEquals(2, mServer.getRequestCount());
+        mServer.takeRequest();
+        // The entry that cannot be read is not revalidated
+        assertNull(mServer.takeRequest().getHeader("If-None-Match"));
+    }
+
+    @Test
+    public void openBody_isNotChangedByNewResponse() throws Exception {
+        mServer.enqueue(new MockResponse().setBody(mResponse)
+                .setHeader("Cache-Control", "no-cache"));
+        mServer.enqueue(new MockResponse().setBody("{\"totalItems\": 0}")
+                .setHeader("Cache-Control", "no-cache"));
+        String url = url("9780156012195");
+        QueryUtils.fetchBookData(url, mCache);
+
+        InputStream inputStream = mCache.get(QueryUtils.withPartialResponse(url))
+                .newInputStream();
+        try {
+            // The new response replaces the entry while its body is read
+            QueryUtils.fetchBookData(url, mCache);
+            assertLittlePrince(QueryUtils.readBooks(inputStream));
+        } finally {
+            inputStream.close();
+        }
+        // The replaced files were renamed over the old ones, nothing is left behind
+        for (String name : mDirectory.list()) {
+            assertTrue(name, name.endsWith(".body") || name.endsWith(".meta"));
+        }
+    }
+
+    private String url(String isbn) {
+        return mServer.url("/books/v1/volumes?q=isbn:" + isbn).toString();
+    }
+
+    private static void assertLittlePrince(List<Book> books) {
+        assertNotNull(books);
+        assertEquals(1, books.size());
+        assertEquals("The Little Prince", books.get(0).getBookTitle());
+        assertEquals("9780156012195", books.get(0).getIsbn());
+    }
+
+    /** Returns the body file of the only entry of the cache */
+    private File bodyFile() {
+        File[] bodies = mDirectory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File directory, String name) {
+                return name.endsWith(".body");
+            }
+        });
+        assertEquals(1, bodies.length);
+        return bodies[0];
+    }
+
+    private void deleteDirectory() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+}
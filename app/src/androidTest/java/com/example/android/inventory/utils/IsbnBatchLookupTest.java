@@ -0,0 +1,262 @@
+package com.example.android.inventory.utils;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventory.Book;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests of {@link IsbnBatchLookup} against a local stub HTTP server that answers
+ * every ISBN with a book after an artificial latency.
+ */
+@RunWith(AndroidJUnit4.class)
+public class IsbnBatchLookupTest {
+
+    /** Artificial latency of every response of the stub server */
+    private static final long LATENCY_MILLIS = 300;
+
+    /** Maximum number of requests in flight of the tested lookup */
+    private static final int PARALLELISM = 4;
+
+    /** Maximum time a batch may take */
+    private static final long TIMEOUT_SECONDS = 10;
+
+    /** ISBN whose response has no latency */
+    private static final String FAST_ISBN = "9780000000000";
+
+    private MockWebServer mServer;
+    private IsbnBatchLookup mLookup;
+
+    /** Number of requests that arrived for each ISBN */
+    private final ConcurrentHashMap<String, AtomicInteger> mRequests =
+            new ConcurrentHashMap<>();
+
+    @Before
+    public void setUp() throws Exception {
+        // The lookups share the circuit breaker and the response cache of the app
+        QueryUtils.resetSharedState();
+        mServer = new MockWebServer();
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                String isbn = request.getRequestUrl().queryParameter("q").substring(
+                        Constants.QUERY_ISBN_PREFIX.length());
+                AtomicInteger count = new AtomicInteger();
+                AtomicInteger previous = mRequests.putIfAbsent(isbn, count);
+                (previous == null ? count : previous).incrementAndGet();
+
+                MockResponse response = new MockResponse().setBody(bookJson(isbn));
+                if (!isbn.equals(FAST_ISBN)) {
+                    response.setBodyDelay(LATENCY_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                return response;
+            }
+        });
+        mServer.start();
+        mLookup = new IsbnBatchLookup(mServer.url("/books/v1/volumes").toString(), PARALLELISM);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mLookup.shutdown();
+        mServer.shutdown();
+        QueryUtils.resetSharedState();
+    }
+
+    @Test
+    public void batch_runsBoundedRequestsInParallel() throws Exception {
+        List<String> isbns = isbns(2 * PARALLELISM);
+        Results results = new Results(isbns.size());
+
+        long start = System.nanoTime();
+        mLookup.lookup(isbns, results);
+        results.await();
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        for (String isbn : isbns) {
+            assertEquals("Book " + isbn, results.titles.get(isbn));
+        }
+        // Two waves of requests: faster than one at a time, slower than all at once
+        assertTrue("Batch took " + millis + " ms", millis >= 2 * LATENCY_MILLIS);
+        assertTrue("Batch took " + millis + " ms", millis < isbns.size() * LATENCY_MILLIS);
+    }
+
+    @Test
+    public void sameIsbn_isRequestedOnce() throws Exception {
+        String isbn = "9781111111111";
+        Results first = new Results(1);
+        Results second = new Results(1);
+
+        // The same ISBN twice in a batch, and again in a batch started while it is in flight
+        mLookup.lookup(Arrays.asList(isbn, isbn), first);
+        mLookup.lookup(Collections.singletonList(isbn), second);
+        first.await();
+        second.await();
+
+        assertEquals("Book " + isbn, first.titles.get(isbn));
+        assertEquals("Book " + isbn, second.titles.get(isbn));
+        assertEquals(1, mRequests.get(isbn).get());
+        assertEquals(1, mLookup.getRequestCount());
+    }
+
+    @Test
+    public void results_streamAsTheyArrive() throws Exception {
+        List<String> isbns = new ArrayList<>(isbns(PARALLELISM - 1));
+        isbns.add(FAST_ISBN);
+        Results results = new Results(isbns.size());
+
+        mLookup.lookup(isbns, results);
+        results.await();
+
+        // The fast ISBN was requested last but delivered first
+        assertEquals(FAST_ISBN, results.order.get(0));
+        assertEquals(isbns.size(), results.order.size());
+    }
+
+    @Test
+    public void throwingCallback_doesNotStarveTheOthers() throws Exception {
+        String isbn = "9782222222222";
+        Results throwing = new Results(1) {
+            @Override
+            public void onResult(String isbn, List<Book> books) {
+                super.onResult(isbn, books);
+                throw new IllegalStateException("Callback failure");
+            }
+        };
+        Results other = new Results(1);
+
+        mLookup.lookup(Collections.singletonList(isbn), throwing);
+        mLookup.lookup(Collections.singletonList(isbn), other);
+
+        // The batch of the throwing callback completes too
+        throwing.await();
+        other.await();
+        assertEquals("Book " + isbn, other.titles.get(isbn));
+    }
+
+    @Test
+    public void lookupAfterShutdown_isRejectedEveryTime() throws Exception {
+        mLookup.shutdown();
+
+        // The rejected lookup is not left in flight, where the next one would wait for it
+        for (int i = 0; i < 2; i++) {
+            try {
+                mLookup.lookup(Collections.singletonList("9783333333333"), new Results(1));
+                fail("A lookup after shutdown should be rejected");
+            } catch (RejectedExecutionException expected) {
+            }
+        }
+        assertEquals(0, mLookup.getRequestCount());
+    }
+
+    @Test
+    public void batchAfterShutdown_isRejectedWhole() throws Exception {
+        mLookup.shutdown();
+        Results results = new Results(0);
+
+        try {
+            mLookup.lookup(isbns(PARALLELISM), results);
+            fail("A batch after shutdown should be rejected");
+        } catch (RejectedExecutionException expected) {
+        }
+        assertEquals(0, results.resultCount.get());
+        assertEquals(1, results.completed.getCount());
+        assertEquals(0, mLookup.getRequestCount());
+    }
+
+    @Test
+    public void shutdownDuringBatch_stillCompletesIt() throws Exception {
+        List<String> isbns = isbns(2 * PARALLELISM);
+        Results results = new Results(isbns.size());
+        Thread stopper = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mLookup.shutdown();
+            }
+        });
+
+        stopper.start();
+        try {
+            mLookup.lookup(isbns, results);
+        } catch (RejectedExecutionException e) {
+            // Rejected before any ISBN was looked up, or every ISBN still gets a result
+            if (!results.completed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                assertEquals(0, results.resultCount.get());
+                return;
+            }
+        } finally {
+            stopper.join();
+        }
+        results.await();
+    }
+
+    /** Returns the given number of distinct ISBNs */
+    private static List<String> isbns(int count) {
+        List<String> isbns = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            isbns.add(String.valueOf(9780156012100L + i));
+        }
+        return isbns;
+    }
+
+    /** Returns a volumes response with a single book for the given ISBN */
+    private static String bookJson(String isbn) {
+        return "{\"items\": [{\"volumeInfo\": {\"title\": \"Book " + isbn + "\","
+                + " \"authors\": [\"Author\"], \"industryIdentifiers\": ["
+                + "{\"type\": \"ISBN_13\", \"identifier\": \"" + isbn + "\"}]}}]}";
+    }
+
+    /** Collects the results of a batch */
+    private static class Results implements IsbnBatchLookup.Callback {
+        final Map<String, String> titles = new ConcurrentHashMap<>();
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger resultCount = new AtomicInteger();
+        final CountDownLatch completed = new CountDownLatch(1);
+        final int expectedResults;
+
+        Results(int expectedResults) {
+            this.expectedResults = expectedResults;
+        }
+
+        @Override
+        public void onResult(String isbn, List<Book> books) {
+            resultCount.incrementAndGet();
+            order.add(isbn);
+            if (books != null && !books.isEmpty()) {
+                titles.put(isbn, books.get(0).getBookTitle());
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(completed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            assertEquals(expectedResults, resultCount.get());
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.android.inventory.utils;
+
+import android.os.Debug;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventory.Book;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the streaming parse of {@link QueryUtils#readBooks} with the previous parse, which
+ * read the whole response into a String and built an org.json tree, on recorded Google Books
+ * responses from the test assets. The time and the bytes allocated per parse are logged with the
+ * tag "QueryUtilsBench".
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryUtilsBenchmarkTest {
+
+    /** Tag of the logged results */
+    private static final String LOG_TAG = "QueryUtilsBench";
+
+    /** Number of parses measured for each variant */
+    private static final int ITERATIONS = 500;
+
+    /** Number of parses run before measuring, so both variants start warm */
+    private static final int WARMUP_ITERATIONS = 50;
+
+    /** A variant of the parse */
+    private interface Parser {
+        Book parse(InputStream inputStream) throws Exception;
+    }
+
+    @Test
+    public void parseIsbnResponse() throws Exception {
+        compare(TestAssets.ISBN_RESPONSE);
+    }
+
+    @Test
+    public void parseSearchResponse() throws Exception {
+        compare(TestAssets.SEARCH_RESPONSE);
+    }
+
+    /**
+     * Check that both variants read the same book from the given asset, then time them and log
+     * the results.
+     */
+    private void compare(String asset) throws Exception {
+        byte[] response = TestAssets.read(asset);
+        Parser streaming = new Parser() {
+            @Override
+            public Book parse(InputStream inputStream) throws Exception {
+                List<Book> books = QueryUtils.readBooks(inputStream);
+                return books.isEmpty() ? null : books.get(0);
+            }
+        };
+        Parser tree = new Parser() {
+            @Override
+            public Book parse(InputStream inputStream) throws Exception {
+                return parseWithJsonTree(inputStream);
+            }
+        };
+
+        Book expected = tree.parse(new ByteArrayInputStream(response));
+        Book actual = streaming.parse(new ByteArrayInputStream(response));
+        assertNotNull(actual);
+        assertEquals(expected.getBookTitle(), actual.getBookTitle());
+        assertEquals(expected.getAuthor(), actual.getAuthor());
+        assertEquals(expected.getIsbn(), actual.getIsbn());
+        assertEquals(expected.getPublisher(), actual.getPublisher());
+
+        Result treeResult = measure(tree, response);
+        Result streamingResult = measure(streaming, response);
+        Log.i(LOG_TAG, asset + " (" + response.length + " bytes):"
+                + " before=" + treeResult + " after=" + streamingResult);
+    }
+
+    /** Mean time and allocation of one parse */
+    private static final class Result {
+        final double micros;
+        final long bytes;
+
+        Result(double micros, long bytes) {
+            this.micros = micros;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public String toString() {
+            return micros + " us/parse " + bytes + " bytes/parse";
+        }
+    }
+
+    /**
+     * Time the given parser on the given response, and count the bytes it allocates.
+     */
+    @SuppressWarnings("deprecation")
+    private static Result measure(Parser parser, byte[] response) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            parser.parse(new ByteArrayInputStream(response));
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            parser.parse(new ByteArrayInputStream(response));
+        }
+        long nanos = System.nanoTime() - start;
+
+        // Count the allocations in a separate run, since counting slows the allocations down
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        try {
+            for (int i = 0; i < ITERATIONS; i++) {
+                parser.parse(new ByteArrayInputStream(response));
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        long bytes = Debug.getThreadAllocSize();
+
+        return new Result((double) TimeUnit.NANOSECONDS.toMicros(nanos) / ITERATIONS,
+                bytes / ITERATIONS);
+    }
+
+    /**
+     * The parse that QueryUtils used before the streaming parse: read the whole response into a
+     * String, build an org.json tree from it and read the first item.
+     */
+    private static Book parseWithJsonTree(InputStream inputStream)
+            throws IOException, JSONException {
+        StringBuilder output = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream,
+                Charset.forName("UTF-8")));
+        String line = reader.readLine();
+        while (line != null) {
+            output.append(line);
+            line = reader.readLine();
+        }
+
+        JSONObject baseJsonResponse = new JSONObject(output.toString());
+        JSONObject volumeInfoObject = baseJsonResponse.getJSONArray(Constants.JSON_KEY_ITEMS)
+                .getJSONObject(0).getJSONObject(Constants.JSON_KEY_VOLUME_INFO);
+        String title = volumeInfoObject.getString(Constants.JSON_KEY_TITLE);
+        JSONArray authorsArray = volumeInfoObject.getJSONArray(Constants.JSON_KEY_AUTHORS);
+        String author = authorsArray.length() != 0 ? authorsArray.getString(0) : null;
+        JSONArray identifiers =
+                volumeInfoObject.getJSONArray(Constants.JSON_KEY_INDUSTRY_IDENTIFIERS);
+        String isbn = null;
+        for (int i = 0; i < identifiers.length(); i++) {
+            JSONObject identifier = identifiers.getJSONObject(i);
+            if (Constants.JSON_KEY_ISBN_13.equals(identifier.optString(Constants.JSON_KEY_TYPE))) {
+                isbn = identifier.getString(Constants.JSON_KEY_IDENTIFIER);
+            }
+        }
+        String publisher = volumeInfoObject.has(Constants.JSON_KEY_PUBLISHER)
+                ? volumeInfoObject.getString(Constants.JSON_KEY_PUBLISHER) : null;
+        return new Book(title, author, isbn, publisher);
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.android.inventory.utils;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventory.Book;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures the bytes on the wire and the latency of a lookup by {@link QueryUtils#fetchBookData}
+ * against a local stub server, which honours the partial response parameter and gzip like the
+ * Google Books API, compared with the previous client: a full response, without compression,
+ * on a new connection every time. The results are logged with the tag "QueryUtilsNetBench".
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryUtilsNetworkBenchmarkTest {
+
+    /** Tag of the logged results */
+    private static final String LOG_TAG = "QueryUtilsNetBench";
+
+    /** Number of lookups measured for each client */
+    private static final int ITERATIONS = 50;
+
+    private MockWebServer mServer;
+
+    /** Full response body served by the stub server */
+    private byte[] mResponse;
+
+    /** Number of response body bytes sent by the stub server */
+    private final AtomicLong mBytesSent = new AtomicLong();
+
+    @Before
+    public void setUp() throws Exception {
+        mResponse = TestAssets.read(TestAssets.SEARCH_RESPONSE);
+        mServer = new MockWebServer();
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                try {
+                    return respond(request);
+                } catch (IOException | JSONException e) {
+                    return new MockResponse().setResponseCode(500);
+                }
+            }
+        });
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void lookup_asksForGzipAndPartialResponse() throws Exception {
+        assertLittlePrince(QueryUtils.fetchBookData(url(), (HttpDiskCache) null));
+
+        RecordedRequest request = mServer.takeRequest();
+        assertEquals("gzip", request.getHeader("Accept-Encoding"));
+        assertEquals(Constants.BOOK_FIELDS,
+                request.getRequestUrl().queryParameter(Constants.QUERY_PARAMETER_FIELDS));
+    }
+
+    @Test
+    public void lookups_reuseConnection() throws Exception {
+        assertLittlePrince(QueryUtils.fetchBookData(url(), (HttpDiskCache) null));
+        assertLittlePrince(QueryUtils.fetchBookData(url(), (HttpDiskCache) null));
+
+        // The sequence number counts the requests on the same connection
+        assertEquals(0, mServer.takeRequest().getSequenceNumber());
+        assertEquals(1, mServer.takeRequest().getSequenceNumber());
+    }
+
+    @Test
+    public void compareWithPreviousClient() throws Exception {
+        // Warm up both clients
+        fetchLikePreviousClient(url());
+        QueryUtils.fetchBookData(url(), (HttpDiskCache) null);
+
+        mBytesSent.set(0);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertLittlePrince(fetchLikePreviousClient(url()));
+        }
+        double beforeMillis = millisPerLookup(start);
+        long beforeBytes = mBytesSent.get() / ITERATIONS;
+
+        mBytesSent.set(0);
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertLittlePrince(QueryUtils.fetchBookData(url(), (HttpDiskCache) null));
+        }
+        double afterMillis = millisPerLookup(start);
+        long afterBytes = mBytesSent.get() / ITERATIONS;
+
+        Log.i(LOG_TAG, "before=" + beforeBytes + " bytes " + beforeMillis + " ms/lookup"
+                + " after=" + afterBytes + " bytes " + afterMillis + " ms/lookup");
+        assertTrue(afterBytes < beforeBytes);
+    }
+
+    private String url() {
+        return mServer.url("/books/v1/volumes?q=saint-exupery").toString();
+    }
+
+    /**
+     * Returns the response of the stub server to the given request: the full response, or only
+     * its fields named by the partial response parameter, compressed if the client accepts gzip.
+     */
+    private MockResponse respond(RecordedRequest request) throws IOException, JSONException {
+        byte[] body = mResponse;
+        if (request.getRequestUrl().queryParameter(Constants.QUERY_PARAMETER_FIELDS) != null) {
+            body = partialResponse(body);
+        }
+        MockResponse response = new MockResponse();
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            body = gzip(body);
+            response.setHeader("Content-Encoding", "gzip");
+        }
+        mBytesSent.addAndGet(body.length);
+        return response.setBody(new Buffer().write(body));
+    }
+
+    /**
+     * The lookup of the previous client: no compression and no partial response, and the
+     * connection is disconnected afterwards.
+     */
+    private static List<Book> fetchLikePreviousClient(String requestUrl) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(requestUrl).openConnection();
+        try {
+            // Turn off the transparent gzip of the platform
+            connection.setRequestProperty("Accept-Encoding", "identity");
+            InputStream inputStream = connection.getInputStream();
+            try {
+                return QueryUtils.readBooks(inputStream);
+            } finally {
+                inputStream.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Returns the given response with only the fields of {@link Constants#BOOK_FIELDS}.
+     */
+    private static byte[] partialResponse(byte[] response) throws IOException, JSONException {
+        JSONArray items = new JSONObject(new String(response, "UTF-8")).getJSONArray("items");
+        JSONArray partialItems = new JSONArray();
+        for (int i = 0; i < items.length(); i++) {
+            JSONObject volumeInfo = items.getJSONObject(i).getJSONObject("volumeInfo");
+            JSONObject partialVolumeInfo = new JSONObject();
+            for (String name : new String[] {"title", "authors", "publisher",
+                    "industryIdentifiers"}) {
+                if (volumeInfo.has(name)) {
+                    partialVolumeInfo.put(name, volumeInfo.get(name));
+                }
+            }
+            partialItems.put(new JSONObject().put("volumeInfo", partialVolumeInfo));
+        }
+        return new JSONObject().put("items", partialItems).toString().getBytes("UTF-8");
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        GZIPOutputStream gzipOutput = new GZIPOutputStream(output);
+        gzipOutput.write(data);
+        gzipOutput.close();
+        return output.toByteArray();
+    }
+
+    private static double millisPerLookup(long startNanos) {
+        return (double) TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos)
+                / ITERATIONS / 1000;
+    }
+
+    private static void assertLittlePrince(List<Book> books) {
+        assertNotNull(books);
+        assertEquals(1, books.size());
+        assertEquals("The Little Prince", books.get(0).getBookTitle());
+    }
+}
@@ -0,0 +1,229 @@
+package com.example.android.inventory.utils;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventory.Book;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests of the retries and the circuit breaker of {@link QueryUtils#fetchBookData},
+ * against a local stub server that injects faults: error responses, dropped connections and
+ * stalled responses, before it answers normally.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryUtilsResilienceTest {
+
+    /** Per-attempt timeout of the first attempt of the tests */
+    private static final int TIMEOUT_MILLIS = 200;
+
+    /** Time the circuit of the tests stays open */
+    private static final long OPEN_MILLIS = 500;
+
+    /** Maximum time a lookup may take when the circuit is open */
+    private static final long FAIL_FAST_MILLIS = 50;
+
+    private MockWebServer mServer;
+
+    /** Normal response of the stub server */
+    private String mResponse;
+
+    /** Faults answered to the next requests, before the normal response */
+    private final Queue<MockResponse> mFaults = new ConcurrentLinkedQueue<>();
+
+    /** When true, every request is answered with "503 Service Unavailable" */
+    private volatile boolean mDown;
+
+    private RetryPolicy mRetryPolicy;
+    private CircuitBreaker mCircuitBreaker;
+
+    @Before
+    public void setUp() throws Exception {
+        mResponse = TestAssets.readString(TestAssets.ISBN_RESPONSE);
+        mServer = new MockWebServer();
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (mDown) {
+                    return unavailable();
+                }
+                MockResponse fault = mFaults.poll();
+                return fault != null ? fault : new MockResponse().setBody(mResponse);
+            }
+        });
+        mServer.start();
+        // 3 attempts, short timeouts and waits, with a seeded jitter
+        mRetryPolicy = new RetryPolicy(3, TIMEOUT_MILLIS, 2 * TIMEOUT_MILLIS, 20, 100, 5000,
+                new Random(1));
+        mCircuitBreaker = new CircuitBreaker(3, OPEN_MILLIS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void transientErrors_areRetried() throws Exception {
+        mFaults.add(unavailable());
+        mFaults.add(new MockResponse().setResponseCode(502));
+
+        assertLittlePrince(fetch());
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(CircuitBreaker.State.CLOSED, mCircuitBreaker.getState());
+    }
+
+    @Test
+    public void droppedConnection_isRetried() throws Exception {
+        mFaults.add(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST));
+
+        assertLittlePrince(fetch());
+    }
+
+    @Test
+    public void stalledResponse_isRetriedAfterItsTimeout() throws Exception {
+        mFaults.add(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+
+        long start = System.nanoTime();
+        assertLittlePrince(fetch());
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // Given up after the timeout of the first attempt, not the old 10 second read timeout
+        assertTrue("Lookup took " + millis + " ms", millis < 10 * TIMEOUT_MILLIS);
+    }
+
+    @Test
+    public void retryAfter_isHonoured() throws Exception {
+        mFaults.add(unavailable().setHeader("Retry-After", "1"));
+
+        long start = System.nanoTime();
+        assertLittlePrince(fetch());
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue("Lookup took " + millis + " ms", millis >= 1000);
+    }
+
+    @Test
+    public void clientError_isNotRetried() throws Exception {
+        mFaults.add(new MockResponse().setResponseCode(400));
+
+        assertNull(fetch());
+        assertEquals(1, mServer.getRequestCount());
+        // The service answered, so it is not failing
+        assertEquals(CircuitBreaker.State.CLOSED, mCircuitBreaker.getState());
+    }
+
+    @Test
+    public void malformedResponse_isRetried() throws Exception {
+        // The sign-in page of a captive portal, and JSON of another structure
+        mFaults.add(new MockResponse().setBody("<html><body>Sign in</body></html>"));
+        mFaults.add(new MockResponse().setBody("[\"items\"]"));
+
+        assertLittlePrince(fetch());
+        assertEquals(3, mServer.getRequestCount());
+    }
+
+    @Test
+    public void malformedResponses_areNotAnEmptyResult() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            mFaults.add(new MockResponse().setBody("{\"items\": {"));
+        }
+
+        // A failure, not a lookup that found no book
+        assertNull(fetch());
+    }
+
+    @Test
+    public void responseWithoutItems_isAnEmptyResult() throws Exception {
+        mFaults.add(new MockResponse()
+                .setBody("{\"kind\": \"books#volumes\", \"totalItems\": 0}"));
+
+        List<Book> books = fetch();
+        assertNotNull(books);
+        assertTrue(books.isEmpty());
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void failingService_opensCircuitAndFailsFast() throws Exception {
+        mDown = true;
+
+        // 3 failed attempts open the circuit
+        assertNull(fetch());
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(CircuitBreaker.State.OPEN, mCircuitBreaker.getState());
+
+        long start = System.nanoTime();
+        assertNull(fetch());
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(3, mServer.getRequestCount());
+        assertTrue("Lookup took " + millis + " ms", millis < FAIL_FAST_MILLIS);
+
+        // Once the service is back, the trial request after the open time closes the circuit
+        mDown = false;
+        Thread.sleep(OPEN_MILLIS + 100);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, mCircuitBreaker.getState());
+        assertLittlePrince(fetch());
+        assertEquals(4, mServer.getRequestCount());
+        assertEquals(CircuitBreaker.State.CLOSED, mCircuitBreaker.getState());
+    }
+
+    @Test
+    public void failedTrialRequest_opensCircuitAgain() throws Exception {
+        mDown = true;
+        assertNull(fetch());
+        Thread.sleep(OPEN_MILLIS + 100);
+
+        // A single trial request, which fails
+        assertNull(fetch());
+        assertEquals(4, mServer.getRequestCount());
+        assertEquals(CircuitBreaker.State.OPEN, mCircuitBreaker.getState());
+    }
+
+    @Test
+    public void retries_stopAtTheDeadline() throws Exception {
+        mRetryPolicy = new RetryPolicy(10, TIMEOUT_MILLIS, 2 * TIMEOUT_MILLIS, 20, 100, 1000,
+                new Random(1));
+        // The service asks for a wait past the deadline of the lookup
+        mFaults.add(unavailable().setHeader("Retry-After", "30"));
+
+        long start = System.nanoTime();
+        assertNull(fetch());
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(1, mServer.getRequestCount());
+        assertTrue("Lookup took " + millis + " ms", millis < 1000);
+    }
+
+    private List<Book> fetch() {
+        return QueryUtils.fetchBookData(mServer.url("/books/v1/volumes?q=isbn:9780156012195")
+                .toString(), null, mRetryPolicy, mCircuitBreaker);
+    }
+
+    private static MockResponse unavailable() {
+        return new MockResponse().setResponseCode(503);
+    }
+
+    private static void assertLittlePrince(List<Book> books) {
+        assertNotNull(books);
+        assertEquals(1, books.size());
+        assertEquals("The Little Prince", books.get(0).getBookTitle());
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.android.inventory.utils;
+
+import android.support.test.InstrumentationRegistry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * The recorded Google Books responses of the test APK, shared by the tests of the lookups.
+ */
+public final class TestAssets {
+
+    /** Response to the volumes request for ISBN 9780156012195, The Little Prince */
+    public static final String ISBN_RESPONSE = "google_books/volumes_isbn_9780156012195.json";
+
+    /** Response to a volumes search for "saint-exupéry", with many books */
+    public static final String SEARCH_RESPONSE = "google_books/volumes_search_saint_exupery.json";
+
+    private TestAssets() {
+    }
+
+    /**
+     * Returns the content of the given asset of the test APK.
+     */
+    public static byte[] read(String name) throws IOException {
+        InputStream inputStream = InstrumentationRegistry.getContext().getAssets().open(name);
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                output.write(buffer, 0, count);
+            }
+            return output.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Returns the content of the given asset of the test APK, decoded from UTF-8.
+     */
+    public static String readString(String name) throws IOException {
+        return new String(read(name), Charset.forName("UTF-8"));
+    }
+}
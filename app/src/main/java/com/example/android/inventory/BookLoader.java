@@ -1,14 +1,31 @@
 package com.example.android.inventory;
 
 import android.content.AsyncTaskLoader;
+import android.content.ContentResolver;
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
+import android.os.AsyncTask;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 
+import com.example.android.inventory.data.ProductContract.IsbnMetadataEntry;
 import com.example.android.inventory.utils.QueryUtils;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * Loads a list of books by using an AsyncTask to perform the network request to the given URL.
+ * When the books are looked up by ISBN, the ISBN metadata table is read first: a book found
+ * before is returned right away, and refreshed in the background once it is older than
+ * {@link IsbnMetadataEntry#TTL_MILLIS}. An ISBN for which no book was found is not looked up
+ * again for {@link IsbnMetadataEntry#NEGATIVE_TTL_MILLIS}. The network results are written back.
+ *
+ * The delivered books are kept, so when the activity is recreated, for example on rotation, the
+ * loader delivers them again right away instead of repeating the lookup. Stopping, resetting or
+ * abandoning the loader cancels the lookup in flight and disconnects its HTTP request.
  */
 
 public class BookLoader extends AsyncTaskLoader<List<Book>> {
@@ -19,6 +36,22 @@ public class BookLoader extends AsyncTaskLoader<List<Book>> {
     /** Query URL */
     private String mUrl;
 
+    /** ISBN of the book, or null if the URL does not look up a single ISBN */
+    private String mIsbn;
+
+    /** Books delivered last, or null until the first lookup is done */
+    private List<Book> mBooks;
+
+    /** Signal to cancel the lookup in flight, or null if there is none. Guarded by this. */
+    private CancellationSignal mCancellationSignal;
+
+    /** Columns of the ISBN metadata read by the loader */
+    private static final String[] METADATA_PROJECTION = {
+            IsbnMetadataEntry.COLUMN_TITLE,
+            IsbnMetadataEntry.COLUMN_AUTHOR,
+            IsbnMetadataEntry.COLUMN_PUBLISHER,
+            IsbnMetadataEntry.COLUMN_FETCHED_AT};
+
     /**
      * Constructs a new {@link BookLoader}.
      *
@@ -26,14 +59,65 @@ public class BookLoader extends AsyncTaskLoader<List<Book>> {
      * @param url to load data from
      */
     public BookLoader(Context context, String url) {
+        this(context, url, null);
+    }
+
+    /**
+     * Constructs a new {@link BookLoader} that looks up a single ISBN.
+     *
+     * @param context of the activity
+     * @param url to load data from
+     * @param isbn the ISBN that the URL looks up, to cache the result in the ISBN metadata table
+     */
+    public BookLoader(Context context, String url, String isbn) {
         super(context);
         mUrl = url;
+        mIsbn = isbn;
+        // Repeated lookups of the same book are answered from the on-disk cache
+        QueryUtils.installResponseCache(context);
     }
 
     @Override
     protected void onStartLoading() {
-        // Trigger the loadInBackground() method to execute.
-        forceLoad();
+        if (mBooks != null) {
+            // Deliver the books of the previous lookup, for example after a rotation
+            deliverResult(mBooks);
+        }
+        if (takeContentChanged() || mBooks == null) {
+            // Trigger the loadInBackground() method to execute.
+            forceLoad();
+        }
+    }
+
+    @Override
+    public void deliverResult(List<Book> books) {
+        if (isReset()) {
+            // A lookup finished after the loader was reset
+            return;
+        }
+        mBooks = books;
+        if (isStarted()) {
+            super.deliverResult(books);
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        // The activity is stopped: the lookup in flight is not needed anymore
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        mBooks = null;
+    }
+
+    @Override
+    protected void onAbandon() {
+        // A new loader replaces this one, so its request would only compete with the new one
+        cancelLoad();
     }
 
     /**
@@ -45,7 +129,128 @@ public class BookLoader extends AsyncTaskLoader<List<Book>> {
             return null;
         }
 
-        // Perform the network request, parse the response, and extract a list of books.
-        return QueryUtils.fetchBookData(mUrl);
+        CancellationSignal cancellationSignal;
+        synchronized (this) {
+            if (isLoadInBackgroundCanceled()) {
+                throw new OperationCanceledException();
+            }
+            mCancellationSignal = new CancellationSignal();
+            cancellationSignal = mCancellationSignal;
+        }
+        try {
+            return lookUp(cancellationSignal);
+        } finally {
+            synchronized (this) {
+                mCancellationSignal = null;
+            }
+        }
+    }
+
+    /**
+     * This is on the main thread: aborts the lookup in flight, including its HTTP request.
+     */
+    @Override
+    public void cancelLoadInBackground() {
+        super.cancelLoadInBackground();
+        synchronized (this) {
+            if (mCancellationSignal != null) {
+                mCancellationSignal.cancel();
+            }
+        }
+    }
+
+    /**
+     * Look up the books of the URL, through the ISBN metadata table if the loader has an ISBN.
+     * Canceling the given signal aborts the lookup.
+     */
+    private List<Book> lookUp(CancellationSignal cancellationSignal) {
+        if (mIsbn == null) {
+            // Perform the network request, parse the response, and extract a list of books.
+            return QueryUtils.fetchBookData(mUrl, cancellationSignal);
+        }
+
+        ContentResolver resolver = getContext().getContentResolver();
+        Cursor cursor = resolver.query(IsbnMetadataEntry.buildIsbnUri(mIsbn),
+                METADATA_PROJECTION, null, null, null, cancellationSignal);
+        try {
+            if (cursor != null && cursor.moveToFirst()) {
+                String title = cursor.getString(
+                        cursor.getColumnIndexOrThrow(IsbnMetadataEntry.COLUMN_TITLE));
+                long age = System.currentTimeMillis() - cursor.getLong(
+                        cursor.getColumnIndexOrThrow(IsbnMetadataEntry.COLUMN_FETCHED_AT));
+                if (title != null) {
+                    // A book found before never waits on the network. Refresh it in the
+                    // background if it is stale, for the next lookup.
+                    if (age >= IsbnMetadataEntry.TTL_MILLIS) {
+                        AsyncTask.THREAD_POOL_EXECUTOR.execute(
+                                new RefreshTask(resolver, mUrl, mIsbn));
+                    }
+                    String author = cursor.getString(
+                            cursor.getColumnIndexOrThrow(IsbnMetadataEntry.COLUMN_AUTHOR));
+                    String publisher = cursor.getString(
+                            cursor.getColumnIndexOrThrow(IsbnMetadataEntry.COLUMN_PUBLISHER));
+                    List<Book> books = new ArrayList<>();
+                    books.add(new Book(title, author, mIsbn, publisher));
+                    return books;
+                }
+                if (age < IsbnMetadataEntry.NEGATIVE_TTL_MILLIS) {
+                    // No book was found for this ISBN a short time ago
+                    return Collections.emptyList();
+                }
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        return fetchAndStore(resolver, mUrl, mIsbn, cancellationSignal);
+    }
+
+    /**
+     * Perform the network request for the given ISBN and write the result to the ISBN metadata
+     * table. Returns the list of books, or null if the request failed or was canceled.
+     * @param cancellationSignal signal to cancel the request, or null
+     */
+    private static List<Book> fetchAndStore(ContentResolver resolver, String url, String isbn,
+                                            CancellationSignal cancellationSignal) {
+        List<Book> books = QueryUtils.fetchBookData(url, cancellationSignal);
+        // A failed request, or a malformed response, says nothing about the ISBN, so it is not
+        // stored
+        if (books == null) {
+            return null;
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(IsbnMetadataEntry.COLUMN_ISBN, isbn);
+        if (!books.isEmpty()) {
+            Book book = books.get(0);
+            values.put(IsbnMetadataEntry.COLUMN_TITLE, book.getBookTitle());
+            values.put(IsbnMetadataEntry.COLUMN_AUTHOR, book.getAuthor());
+            values.put(IsbnMetadataEntry.COLUMN_PUBLISHER, book.getPublisher());
+        }
+        // An empty list is stored as a row without title: no book was found
+        resolver.insert(IsbnMetadataEntry.CONTENT_URI, values);
+        return books;
+    }
+
+    /**
+     * Refreshes the stale metadata of an ISBN from the network, without holding the loader.
+     */
+    private static class RefreshTask implements Runnable {
+        private final ContentResolver mResolver;
+        private final String mUrl;
+        private final String mIsbn;
+
+        RefreshTask(ContentResolver resolver, String url, String isbn) {
+            mResolver = resolver;
+            mUrl = url;
+            mIsbn = isbn;
+        }
+
+        @Override
+        public void run() {
+            fetchAndStore(mResolver, mUrl, mIsbn, null);
+        }
     }
 }
@@ -59,84 +59,9 @@ public class ProductCursorAdapter extends RecyclerView.Adapter<ProductCursorAdap
      */
     @Override
     public void onBindViewHolder(@NonNull ProductViewHolder viewHolder, int position) {
-        final ProductViewHolder holder = viewHolder;
         mCursor.moveToPosition(position); // Get to the right location in the cursor
-        // Set data
-        holder.setData(mCursor);
-        // Indices for _id
-        final long id = mCursor.getLong(mCursor.getColumnIndex(ProductEntry._ID));
-        // Set an OnClickListener to open a DetailActivity
-        holder.cardView.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View view) {
-                // Create a new intent to go to {@link DetailActivity}
-                Intent intent = new Intent(mContext, DetailActivity.class);
-
-                // Form the content URI that represents the specific product that was clicked on,
-                // by appending the "id" (passed as input to this method) onto the
-                // {@link ProductEntry#CONTENT_URI}.
-                // For example, the URI would be "content://com.example.android.inventory/products/2"
-                // if the product with ID 2 was clicked on.
-                Uri currentProductUri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
-
-                // Set the URI on the data field of the intent
-                intent.setData(currentProductUri);
-
-                // Launch the {@link DetailActivity} to display the data for the current product.
-                mContext.startActivity(intent);
-            }
-        });
-
-        // Find the columns of product quantity
-        int quantityColumnIndex = mCursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_QUANTITY);
-        // Read the product quantity from the Cursor for the current product
-        int quantity = mCursor.getInt(quantityColumnIndex);
-
-        // If the quantity is more than 0, set the text of a sale button to display 'sell'.
-        // Otherwise, set the text of a sale button to display 'sold out'.
-        if (quantity > 0) {
-            holder.saleButton.setText(mContext.getString(R.string.sell));
-        } else{
-            holder.saleButton.setText(mContext.getString(R.string.sold_out));
-        }
-
-        //Set OnClickListener on the sale button. We can decrement the available quantity by one.
-        holder.saleButton.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View view) {
-                // Read from text fields
-                String quantityString = holder.quantityTextView.getText().toString().trim();
-
-                // Parse the string into an Integer value.
-                int quantity = Integer.parseInt(quantityString);
-                // If the quantity is more than 0, decrement the quantity by 1.
-                // If quantity is 0, show a toast message.
-                if (quantity > 0) {
-                    // Set the text of a sale button to display 'sell'.
-                    holder.saleButton.setText(mContext.getString(R.string.sell));
-                    quantity = quantity - 1;
-                } else if (quantity == 0) {
-                    // Set the text of a sale button to display 'sold out'
-                    holder.saleButton.setText(mContext.getString(R.string.sold_out));
-                    Toast.makeText(view.getContext(),
-                            view.getContext().getString(R.string.detail_update_zero_quantity),
-                            Toast.LENGTH_SHORT).show();
-                }
-
-                // Create a ContentValues object where column names are the keys,
-                // and product attributes from the textView fields are the values.
-                ContentValues values = new ContentValues();
-                values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
-
-                // Update the product with content URI: mCurrentProductUri
-                // and pass in the new ContentValues. Pass in null for the selection and selection args
-                // because mCurrentProductUri will already identify the correct row in the database that
-                // we want to modify.
-                Uri mCurrentProductUri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
-                int rowsAffected = view.getContext().getContentResolver().update(mCurrentProductUri, values,
-                        null, null);
-            }
-        });
+        // Set data and listeners
+        viewHolder.bind(mCursor);
     }
 
     /**
@@ -169,8 +94,8 @@ public class ProductCursorAdapter extends RecyclerView.Adapter<ProductCursorAdap
         return temp;
     }
 
-    // Inner class for creating ViewHolders
-    class ProductViewHolder extends RecyclerView.ViewHolder {
+    // Nested class for creating ViewHolders. It is shared with {@link ProductPagingAdapter}.
+    static class ProductViewHolder extends RecyclerView.ViewHolder {
 
         private TextView productNameTextView;
         private TextView authorTextView;
@@ -196,6 +121,92 @@ public class ProductCursorAdapter extends RecyclerView.Adapter<ProductCursorAdap
             cardView = itemView.findViewById(R.id.card_view);
         }
 
+        /**
+         * Display the product at the current position of the given cursor, and set the listeners
+         * that open its details and sell one copy.
+         * @param c The cursor from which to get the data.
+         */
+        void bind(Cursor c) {
+            final Context context = itemView.getContext();
+            // Set data
+            setData(c);
+            // Indices for _id
+            final long id = c.getLong(c.getColumnIndex(ProductEntry._ID));
+            // Set an OnClickListener to open a DetailActivity
+            cardView.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    // Create a new intent to go to {@link DetailActivity}
+                    Intent intent = new Intent(context, DetailActivity.class);
+
+                    // Form the content URI that represents the specific product that was clicked on,
+                    // by appending the "id" (passed as input to this method) onto the
+                    // {@link ProductEntry#CONTENT_URI}.
+                    // For example, the URI would be "content://com.example.android.inventory/products/2"
+                    // if the product with ID 2 was clicked on.
+                    Uri currentProductUri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
+
+                    // Set the URI on the data field of the intent
+                    intent.setData(currentProductUri);
+
+                    // Launch the {@link DetailActivity} to display the data for the current product.
+                    context.startActivity(intent);
+                }
+            });
+
+            // Find the columns of product quantity
+            int quantityColumnIndex = c.getColumnIndex(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+            // Read the product quantity from the Cursor for the current product
+            int quantity = c.getInt(quantityColumnIndex);
+
+            // If the quantity is more than 0, set the text of a sale button to display 'sell'.
+            // Otherwise, set the text of a sale button to display 'sold out'.
+            if (quantity > 0) {
+                saleButton.setText(context.getString(R.string.sell));
+            } else{
+                saleButton.setText(context.getString(R.string.sold_out));
+            }
+
+            //Set OnClickListener on the sale button. We can decrement the available quantity by one.
+            saleButton.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    // Create a ContentValues object with the amount to add to the quantity.
+                    ContentValues values = new ContentValues();
+                    values.put(ProductEntry.KEY_QUANTITY_DELTA, -1);
+
+                    // Decrement the quantity on the adjust URI of the current product. The provider
+                    // applies the change in a single statement, so rapid taps are never lost.
+                    // Pass in null for the selection and selection args because the URI already
+                    // identifies the correct row in the database that we want to modify.
+                    Uri adjustUri = ProductEntry.buildAdjustUri(id);
+                    int rowsAffected = context.getContentResolver().update(adjustUri, values,
+                            null, null);
+
+                    // If nothing was updated, the product is sold out, so set the text of a sale
+                    // button to display 'sold out' and show a toast message.
+                    if (rowsAffected == 0) {
+                        saleButton.setText(context.getString(R.string.sold_out));
+                        Toast.makeText(context, context.getString(R.string.detail_update_zero_quantity),
+                                Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
+        }
+
+        /**
+         * Clear the views while the product for this position is being loaded.
+         */
+        void clear() {
+            productNameTextView.setText("");
+            authorTextView.setText("");
+            priceTextView.setText("");
+            quantityTextView.setText("");
+            saleButton.setText("");
+            cardView.setOnClickListener(null);
+            saleButton.setOnClickListener(null);
+        }
+
         /**
          * Find the columns of product attributes that we're interested in, then
          * read the product attributes from the Cursor for the current product.
@@ -0,0 +1,526 @@
+package com.example.android.inventory;
+
+import android.content.AsyncQueryHandler;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import com.example.android.inventory.ProductCursorAdapter.ProductViewHolder;
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link ProductPagingAdapter} is an adapter for a recycler view that reads the list of products
+ * one page at a time, using keyset pagination on the product _id. Only the pages around the
+ * position that was displayed last are kept open, so memory stays flat no matter how many
+ * products there are. A page that was dropped is queried again when it scrolls back into view.
+ */
+public class ProductPagingAdapter extends RecyclerView.Adapter<ProductViewHolder> {
+
+    /** Number of products read by a single page query */
+    private static final int PAGE_SIZE = 50;
+
+    /** Number of pages kept open on each side of the page that was displayed last */
+    private static final int RETAINED_PAGES = 2;
+
+    /** Start loading the next page when a product this close to the end of the list is displayed */
+    private static final int PREFETCH_DISTANCE = PAGE_SIZE / 2;
+
+    /** Query token for loading the page that follows the last loaded page */
+    private static final int TOKEN_NEXT_PAGE = 1;
+
+    /** Query token for loading an already known page again */
+    private static final int TOKEN_RELOAD_PAGE = 2;
+
+    /** Query token for loading a single changed product */
+    private static final int TOKEN_ROW = 3;
+
+    /** Columns of the products displayed in the list */
+    private static final String[] PROJECTION = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_AUTHOR,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_IMAGE};
+
+    /** Selection of the products of a known page, between two product IDs */
+    private static final String PAGE_SELECTION = ProductEntry._ID + ">? AND "
+            + ProductEntry._ID + "<=?";
+
+    /** Sort order of the products in the list, which is the order of the pages */
+    private static final String PAGE_SORT_ORDER = ProductEntry._ID + " ASC";
+
+    /**
+     * A page of the list: the products with an _id greater than {@link #afterId} and less than or
+     * equal to {@link #lastId}. The cursor is null while the page is not kept open. Products that
+     * changed since the page was loaded are read one by one into {@link #rows}, which take
+     * precedence over the rows of the page cursor.
+     */
+    private static class Page {
+        final long afterId;
+        long lastId;
+        int count;
+        Cursor cursor;
+        final Map<Long, Cursor> rows = new HashMap<>();
+        boolean loading;
+
+        Page(long afterId) {
+            this.afterId = afterId;
+        }
+    }
+
+    private final Context mContext;
+
+    /** Known pages of the list, in _id order */
+    private final List<Page> mPages = new ArrayList<>();
+
+    /** Runs the page queries on a background thread and delivers them on the main thread */
+    private final AsyncQueryHandler mQueryHandler;
+
+    /** Reloads the changed product, or the open pages after a bulk change */
+    private final ContentObserver mObserver;
+
+    /** Total number of products in the known pages */
+    private int mItemCount;
+
+    /** Whether there may be products after the last known page */
+    private boolean mHasMore = true;
+
+    /** Whether the page that follows the last known page is being loaded */
+    private boolean mLoadingNextPage;
+
+    /**
+     * Whether the next page must be loaded once the reload of the last page is done. Both queries
+     * read the products after the last known ID, so running them together would add the same
+     * products twice.
+     */
+    private boolean mNextPageQueued;
+
+    /** Whether the last page must be reloaded once the next page has been loaded */
+    private boolean mLastPageReloadQueued;
+
+    /** Whether {@link #release()} was called */
+    private boolean mReleased;
+
+    /**
+     * Constructor for the ProductPagingAdapter that initializes the Context.
+     *
+     * @param context Context of the app
+     */
+    public ProductPagingAdapter(Context context) {
+        mContext = context;
+        mQueryHandler = new AsyncQueryHandler(context.getContentResolver()) {
+            @Override
+            protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
+                if (mReleased) {
+                    if (cursor != null) {
+                        cursor.close();
+                    }
+                    return;
+                }
+                if (token == TOKEN_NEXT_PAGE) {
+                    onNextPageLoaded((Page) cookie, cursor);
+                } else if (token == TOKEN_ROW) {
+                    onRowLoaded((Long) cookie, cursor);
+                } else {
+                    onPageReloaded((Page) cookie, cursor);
+                }
+            }
+        };
+        mObserver = new ContentObserver(new Handler()) {
+            @Override
+            public void onChange(boolean selfChange) {
+                onChange(selfChange, null);
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                // A single product URI such as "content://com.example.android.inventory/products/3"
+                // means that only that product changed. Anything else is a bulk change.
+                List<String> segments = uri == null ? null : uri.getPathSegments();
+                if (segments != null && segments.size() == 2
+                        && TextUtils.isDigitsOnly(segments.get(1))) {
+                    reloadRow(ContentUris.parseId(uri));
+                } else {
+                    reloadOpenPages();
+                }
+            }
+        };
+    }
+
+    /**
+     * Start observing the products and load the first page.
+     */
+    public void start() {
+        mContext.getContentResolver().registerContentObserver(ProductEntry.CONTENT_URI, true,
+                mObserver);
+        loadNextPage();
+    }
+
+    /**
+     * Stop observing the products, cancel the pending queries and close all pages.
+     */
+    public void release() {
+        mReleased = true;
+        mContext.getContentResolver().unregisterContentObserver(mObserver);
+        mQueryHandler.cancelOperation(TOKEN_NEXT_PAGE);
+        mQueryHandler.cancelOperation(TOKEN_RELOAD_PAGE);
+        mQueryHandler.cancelOperation(TOKEN_ROW);
+        for (Page page : mPages) {
+            closePage(page);
+        }
+    }
+
+    /**
+     * Called when ViewHolders are created to fill a RecyclerView.
+     *
+     * @return A new ProductViewHolder that holds the view for each product
+     */
+    @NonNull
+    @Override
+    public ProductViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View v = LayoutInflater.from(mContext).inflate(R.layout.card_item, parent, false);
+        return new ProductViewHolder(v);
+    }
+
+    /**
+     * Called by the RecyclerView to display the product at the specified position. If the page of
+     * the product is not open, the views are cleared until the page has been loaded again.
+     *
+     * @param viewHolder The ViewHolder to bind the product data to
+     * @param position The position of the product in the list
+     */
+    @Override
+    public void onBindViewHolder(@NonNull ProductViewHolder viewHolder, int position) {
+        // Find the page of the position and the offset of the position in that page
+        int pageIndex = 0;
+        int offset = position;
+        while (offset >= mPages.get(pageIndex).count) {
+            offset -= mPages.get(pageIndex).count;
+            pageIndex++;
+        }
+
+        Page page = mPages.get(pageIndex);
+        if (page.cursor != null) {
+            page.cursor.moveToPosition(offset); // Get to the right location in the page
+            // Prefer the row that was read again after the product changed
+            long id = page.cursor.getLong(page.cursor.getColumnIndex(ProductEntry._ID));
+            Cursor row = page.rows.get(id);
+            viewHolder.bind(row != null ? row : page.cursor);
+        } else {
+            viewHolder.clear();
+            reloadPage(page);
+        }
+
+        // Load the next page before the user reaches the end of the list
+        if (mHasMore && position >= mItemCount - PREFETCH_DISTANCE) {
+            loadNextPage();
+        }
+
+        // Close the pages that are far away from the displayed position
+        dropFarPages(pageIndex);
+    }
+
+    /**
+     * Returns the number of items to display
+     */
+    @Override
+    public int getItemCount() {
+        return mItemCount;
+    }
+
+    /**
+     * Query the page of products that follows the last known page. Waits for the reload of the
+     * last page if it is in flight, since the last ID may still move.
+     */
+    private void loadNextPage() {
+        if (mLoadingNextPage) {
+            return;
+        }
+        if (!mPages.isEmpty() && mPages.get(mPages.size() - 1).loading) {
+            mNextPageQueued = true;
+            return;
+        }
+        mLoadingNextPage = true;
+        long afterId = mPages.isEmpty() ? 0 : mPages.get(mPages.size() - 1).lastId;
+        mQueryHandler.startQuery(TOKEN_NEXT_PAGE, new Page(afterId),
+                ProductEntry.buildPageUri(afterId, PAGE_SIZE), PROJECTION, null, null, null);
+    }
+
+    /**
+     * Append the loaded page to the end of the list, unless the list no longer ends where the page
+     * starts.
+     */
+    private void onNextPageLoaded(Page page, Cursor cursor) {
+        mLoadingNextPage = false;
+        long afterId = mPages.isEmpty() ? 0 : mPages.get(mPages.size() - 1).lastId;
+        if (cursor != null && page.afterId != afterId) {
+            // The pages it follows were dropped by a bulk change, so load it from the new end
+            cursor.close();
+            runQueuedLastPageReload();
+            loadNextPage();
+            return;
+        }
+        if (cursor == null) {
+            runQueuedLastPageReload();
+            return;
+        }
+        int count = cursor.getCount();
+        mHasMore = count == PAGE_SIZE;
+        if (count == 0) {
+            cursor.close();
+            runQueuedLastPageReload();
+            return;
+        }
+        page.cursor = cursor;
+        page.count = count;
+        cursor.moveToLast();
+        page.lastId = cursor.getLong(cursor.getColumnIndex(ProductEntry._ID));
+
+        int positionStart = mItemCount;
+        mPages.add(page);
+        mItemCount += count;
+        notifyItemRangeInserted(positionStart, count);
+        runQueuedLastPageReload();
+    }
+
+    /**
+     * Reload the last page if a reload was asked for while the next page was being loaded. The
+     * page that is last now is reloaded, since it holds the products after the old last page.
+     */
+    private void runQueuedLastPageReload() {
+        if (mLastPageReloadQueued && !mPages.isEmpty()) {
+            mLastPageReloadQueued = false;
+            reloadPage(mPages.get(mPages.size() - 1));
+        }
+    }
+
+    /**
+     * Query the products of a known page again. The last page is queried by its limit instead of
+     * its last ID, so it picks up the products that were added after it. That reload waits for
+     * the load of the next page if it is in flight, which reads the same products.
+     */
+    private void reloadPage(Page page) {
+        if (page.loading) {
+            return;
+        }
+        boolean lastPage = page == mPages.get(mPages.size() - 1);
+        if (lastPage && mLoadingNextPage) {
+            mLastPageReloadQueued = true;
+            return;
+        }
+        page.loading = true;
+        if (lastPage) {
+            mQueryHandler.startQuery(TOKEN_RELOAD_PAGE, page,
+                    ProductEntry.buildPageUri(page.afterId, PAGE_SIZE), PROJECTION, null, null, null);
+        } else {
+            mQueryHandler.startQuery(TOKEN_RELOAD_PAGE, page, ProductEntry.CONTENT_URI, PROJECTION,
+                    PAGE_SELECTION, new String[] {String.valueOf(page.afterId),
+                            String.valueOf(page.lastId)}, PAGE_SORT_ORDER);
+        }
+    }
+
+    /**
+     * Replace the products of the reloaded page and update the list.
+     */
+    private void onPageReloaded(Page page, Cursor cursor) {
+        page.loading = false;
+        int pageIndex = mPages.indexOf(page);
+        if (pageIndex < 0 || cursor == null) {
+            if (cursor != null) {
+                cursor.close();
+            }
+            runQueuedNextPageLoad();
+            return;
+        }
+        closePage(page);
+        page.cursor = cursor;
+
+        int oldCount = page.count;
+        page.count = cursor.getCount();
+        mItemCount += page.count - oldCount;
+        if (pageIndex == mPages.size() - 1) {
+            // The last page may have grown with new products
+            mHasMore = page.count == PAGE_SIZE;
+            if (cursor.moveToLast()) {
+                page.lastId = cursor.getLong(cursor.getColumnIndex(ProductEntry._ID));
+            }
+        }
+
+        if (page.count == oldCount) {
+            int positionStart = 0;
+            for (int i = 0; i < pageIndex; i++) {
+                positionStart += mPages.get(i).count;
+            }
+            notifyItemRangeChanged(positionStart, page.count);
+        } else {
+            notifyDataSetChanged();
+        }
+        runQueuedNextPageLoad();
+    }
+
+    /**
+     * Load the next page if it was asked for while the last page was being reloaded, and the
+     * reloaded last page is full.
+     */
+    private void runQueuedNextPageLoad() {
+        if (mNextPageQueued && !mPages.isEmpty() && !mPages.get(mPages.size() - 1).loading) {
+            mNextPageQueued = false;
+            if (mHasMore) {
+                loadNextPage();
+            }
+        }
+    }
+
+    /**
+     * Close the pages that are more than {@link #RETAINED_PAGES} pages away from the given page.
+     */
+    private void dropFarPages(int pageIndex) {
+        for (int i = 0; i < mPages.size(); i++) {
+            Page page = mPages.get(i);
+            if (Math.abs(i - pageIndex) > RETAINED_PAGES && page.cursor != null && !page.loading) {
+                closePage(page);
+            }
+        }
+    }
+
+    /**
+     * Reload the pages after a bulk change of the products. A page that is not open would keep the
+     * count it had before the change, even if its products were deleted, so the list is cut at the
+     * first page that is not open. The open pages before it are reloaded, and the products after
+     * them are loaded again as next pages when they are displayed.
+     */
+    private void reloadOpenPages() {
+        int keptPages = 0;
+        while (keptPages < mPages.size() && mPages.get(keptPages).cursor != null) {
+            keptPages++;
+        }
+        if (keptPages < mPages.size()) {
+            List<Page> droppedPages = mPages.subList(keptPages, mPages.size());
+            for (Page page : droppedPages) {
+                closePage(page);
+            }
+            droppedPages.clear();
+            mItemCount = 0;
+            for (Page page : mPages) {
+                mItemCount += page.count;
+            }
+            notifyDataSetChanged();
+        }
+
+        mHasMore = true;
+        if (mPages.isEmpty()) {
+            loadNextPage();
+            return;
+        }
+        for (Page page : mPages) {
+            reloadPage(page);
+        }
+    }
+
+    /**
+     * Read the product with the given ID again after it changed, if its page is open. A product
+     * after the last page is new, so the last page is reloaded to pick it up.
+     */
+    private void reloadRow(long id) {
+        if (mPages.isEmpty()) {
+            loadNextPage();
+            return;
+        }
+        Page lastPage = mPages.get(mPages.size() - 1);
+        if (id > lastPage.lastId) {
+            mHasMore = true;
+            reloadPage(lastPage);
+            return;
+        }
+        Page page = findPage(id);
+        if (page != null && page.cursor != null && !page.loading) {
+            mQueryHandler.startQuery(TOKEN_ROW, id,
+                    ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id), PROJECTION,
+                    null, null, null);
+        }
+    }
+
+    /**
+     * Patch the changed product into its page and update only its position in the list. If the
+     * product was deleted, its page is reloaded so the following positions move up.
+     */
+    private void onRowLoaded(long id, Cursor cursor) {
+        Page page = findPage(id);
+        if (page == null || page.cursor == null || cursor == null) {
+            if (cursor != null) {
+                cursor.close();
+            }
+            return;
+        }
+        if (!cursor.moveToFirst()) {
+            cursor.close();
+            reloadPage(page);
+            return;
+        }
+
+        // Find the position of the product in the list
+        int position = 0;
+        for (Page other : mPages) {
+            if (other == page) {
+                break;
+            }
+            position += other.count;
+        }
+        int idColumnIndex = page.cursor.getColumnIndex(ProductEntry._ID);
+        for (page.cursor.moveToFirst(); !page.cursor.isAfterLast(); page.cursor.moveToNext()) {
+            if (page.cursor.getLong(idColumnIndex) == id) {
+                Cursor oldRow = page.rows.put(id, cursor);
+                if (oldRow != null) {
+                    oldRow.close();
+                }
+                notifyItemChanged(position + page.cursor.getPosition());
+                return;
+            }
+        }
+
+        // The product is not in the loaded page yet, so read the whole page again
+        cursor.close();
+        reloadPage(page);
+    }
+
+    /**
+     * Returns the known page that contains the product with the given ID, or null if there is none.
+     */
+    private Page findPage(long id) {
+        for (Page page : mPages) {
+            if (id > page.afterId && id <= page.lastId) {
+                return page;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Close the cursor of the given page and the rows that were read again for it.
+     */
+    private static void closePage(Page page) {
+        if (page.cursor != null) {
+            page.cursor.close();
+            page.cursor = null;
+        }
+        for (Cursor row : page.rows.values()) {
+            row.close();
+        }
+        page.rows.clear();
+    }
+}
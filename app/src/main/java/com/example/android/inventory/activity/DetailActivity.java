@@ -3,6 +3,7 @@ package com.example.android.inventory.activity;
 import android.Manifest;
 import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
@@ -196,58 +197,37 @@ public class DetailActivity extends AppCompatActivity implements LoaderManager.L
     }
 
     /**
-     * Increment the available quantity displayed by 1.
+     * Increment the available quantity by 1.
      */
     private void increment() {
-        // Read from text fields
-        String quantityString = mQuantityTextView.getText().toString().trim();
-
-        // Parse the string into an Integer value.
-        int quantity = Integer.parseInt(quantityString);
-        quantity = quantity + 1;
-
-        // Create a ContentValues object where column names are the keys,
-        // and product attributes from the textView fields are the values.
-        ContentValues values = new ContentValues();
-        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
-
-        // Update the product with content URI: mCurrentProductUri
-        // and pass in the new ContentValues. Pass in null for the selection and selection args
-        // because mCurrentProductUri will already identify the correct row in the database that
-        // we want to modify.
-        int rowsAffected = getContentResolver().update(mCurrentProductUri, values,
-                null, null);
+        adjustQuantity(1);
     }
 
     /**
-     * Decrement the available quantity displayed by 1 and check that no negative quantities display.
+     * Decrement the available quantity by 1 and check that no negative quantities display.
      */
     private void decrement() {
-        // Read from text fields
-        String quantityString = mQuantityTextView.getText().toString().trim();
-
-        // Parse the string into an Integer value.
-        int quantity = Integer.parseInt(quantityString);
-        // If the quantity is more than 0, decrement the quantity by 1.
-        // If quantity is 0, show a toast message.
-        if (quantity > 0) {
-            quantity = quantity - 1;
-        } else if (quantity == 0) {
+        // If the quantity is already 0, nothing is updated, so show a toast message.
+        if (adjustQuantity(-1) == 0) {
             Toast.makeText(DetailActivity.this, getString(R.string.detail_update_zero_quantity),
                     Toast.LENGTH_SHORT).show();
         }
+    }
 
-        // Create a ContentValues object where column names are the keys,
-        // and product attributes from the textView fields are the values.
+    /**
+     * Add the given delta to the stored quantity of the current product. The provider applies the
+     * change in a single statement, so there is no need to read the displayed quantity first.
+     * Returns the number of rows affected, which is 0 if the quantity would become negative.
+     */
+    private int adjustQuantity(int delta) {
+        // Create a ContentValues object with the amount to add to the quantity
         ContentValues values = new ContentValues();
-        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
-
-        // Update the product with content URI: mCurrentProductUri
-        // and pass in the new ContentValues. Pass in null for the selection and selection args
-        // because mCurrentProductUri will already identify the correct row in the database that
-        // we want to modify.
-        int rowsAffected = getContentResolver().update(mCurrentProductUri, values,
-                null, null);
+        values.put(ProductEntry.KEY_QUANTITY_DELTA, delta);
+
+        // Update the adjust URI of the current product. Pass in null for the selection and
+        // selection args because the URI already identifies the correct row in the database.
+        Uri adjustUri = ProductEntry.buildAdjustUri(ContentUris.parseId(mCurrentProductUri));
+        return getContentResolver().update(adjustUri, values, null, null);
     }
 
     /**
@@ -401,8 +381,12 @@ public class DetailActivity extends AppCompatActivity implements LoaderManager.L
                 ProductEntry.COLUMN_SUPPLIER_PHONE};
 
         // This loader will execute the ContentProvider's query method on a background thread
+        // The supplier details are in their own table, so query the product joined with its supplier
+        Uri productWithSupplierUri =
+                ProductEntry.buildWithSupplierUri(ContentUris.parseId(mCurrentProductUri));
+
         return new CursorLoader(this,   // Parent activity context
-                mCurrentProductUri,             // Query the content URI for the current product
+                productWithSupplierUri,         // Query the content URI for the current product
                 projection,                        // Columns to include in the resulting Cursor
                 null,                   // No selection clause
                 null,               // No selection arguments
@@ -4,6 +4,7 @@ import android.Manifest;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.CursorLoader;
@@ -507,8 +508,12 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                 ProductEntry.COLUMN_SUPPLIER_PHONE};
 
         // This loader will execute the ContentProvider's query method on a background thread
+        // The supplier details are in their own table, so query the product joined with its supplier
+        Uri productWithSupplierUri =
+                ProductEntry.buildWithSupplierUri(ContentUris.parseId(mCurrentProductUri));
+
         return new CursorLoader(this,   // Parent activity context
-                mCurrentProductUri,             // Query the content URI for the current product
+                productWithSupplierUri,         // Query the content URI for the current product
                 projection,                        // Columns to include in the resulting Cursor
                 null,                   // No selection clause
                 null,               // No selection arguments
@@ -47,8 +47,9 @@ public class IsbnActivity extends AppCompatActivity implements LoaderManager.Loa
         // Bind the view using ButterKnife
         ButterKnife.bind(this);
 
-        // Check for network connectivity and initialize the loader
-        initializeLoader(isConnected());
+        // Initialize the loader. Without network connectivity, a book that was looked up before
+        // is still found in the cache of the responses.
+        initializeLoader();
 
         // Navigate with the app icon in the app bar
         getSupportActionBar().setDisplayHomeAsUpEnabled(true);
@@ -70,13 +71,13 @@ public class IsbnActivity extends AppCompatActivity implements LoaderManager.Loa
         String isbnStringFromDialog = intent.getStringExtra(getString(R.string.isbn_in_a_dialog));
 
         // To query a book by ISBN, use "isbn:"
-        isbnStringFromDialog = getString(R.string.query_isbn) + isbnStringFromDialog;
+        String query = getString(R.string.query_isbn) + isbnStringFromDialog;
 
         // Append query parameter and its value. (e.g. the 'q=isbn:9780553902808')
-        uriBuilder.appendQueryParameter(getString(R.string.q), isbnStringFromDialog);
+        uriBuilder.appendQueryParameter(getString(R.string.q), query);
 
-        // Create a new loader for the given URL
-        return new BookLoader(this,  uriBuilder.toString());
+        // Create a new loader for the given URL, which first checks the books looked up before
+        return new BookLoader(this,  uriBuilder.toString(), isbnStringFromDialog);
     }
 
     @Override
@@ -106,6 +107,13 @@ public class IsbnActivity extends AppCompatActivity implements LoaderManager.Loa
             intent.putExtra(getString(R.string.publisher), publisher);
             // start the new activity
             startActivity(intent);
+        } else if (booksData == null && !isConnected()) {
+            // The book was not in the cache, so display the no connection error
+            showNoConnectionError();
+        } else if (booksData == null) {
+            // The lookup failed after its retries: it does not mean that there is no such book
+            mEmptyTextView.setText(getString(R.string.book_service_unavailable));
+            mEmptyTextView.setTextColor(getResources().getColor(R.color.color_grey_text));
         } else {
             // Set empty text to display "No matches found.
             // An ISBN is usually found on the back cover, near the barcode."
@@ -135,28 +143,28 @@ public class IsbnActivity extends AppCompatActivity implements LoaderManager.Loa
 
 
     /**
-     * If there is internet connectivity, initialize the loader as usual.
-     * Otherwise, hide loading indicator and set empty state TextView to display
+     * Initialize the loader, which looks the book up in the cache of the responses or on the
+     * network.
+     */
+    private void initializeLoader() {
+        // Get a reference to the LoaderManager, in order to interact with loaders.
+        LoaderManager loaderManager = this.getLoaderManager();
+        // Initialize the loader with the BOOK_LOADER_ID
+        loaderManager.initLoader(BOOK_LOADER_ID, null, this);
+    }
+
+    /**
+     * Hide loading indicator and set empty state TextView to display
      * "You are offline. Please check your Internet connection."
-     *
-     * @param isConnected internet connection is available or not
      */
-    private void initializeLoader(boolean isConnected) {
-        if (isConnected) {
-            // Get a reference to the LoaderManager, in order to interact with loaders.
-            LoaderManager loaderManager = this.getLoaderManager();
-            // Initialize the loader with the BOOK_LOADER_ID
-            loaderManager.initLoader(BOOK_LOADER_ID, null, this);
-        } else {
-            // Otherwise, display error.
-            // First, hide loading indicator so error message will be visible
-            mLoadingIndicator.setVisibility(View.GONE);
-            // Set empty text to display no connection error message
-            mEmptyTextView.setText(getString(R.string.no_internet_connection));
-            mEmptyTextView.setTextColor(getResources().getColor(R.color.color_grey_text));
-            mEmptyTextView.setCompoundDrawablesWithIntrinsicBounds(Constants.DEFAULT_NUMBER,
-                    R.drawable.ic_network_check,Constants.DEFAULT_NUMBER,Constants.DEFAULT_NUMBER);
-        }
+    private void showNoConnectionError() {
+        // First, hide loading indicator so error message will be visible
+        mLoadingIndicator.setVisibility(View.GONE);
+        // Set empty text to display no connection error message
+        mEmptyTextView.setText(getString(R.string.no_internet_connection));
+        mEmptyTextView.setTextColor(getResources().getColor(R.color.color_grey_text));
+        mEmptyTextView.setCompoundDrawablesWithIntrinsicBounds(Constants.DEFAULT_NUMBER,
+                R.drawable.ic_network_check,Constants.DEFAULT_NUMBER,Constants.DEFAULT_NUMBER);
     }
 
     // Go back to the MainActivity when up button in app bar is clicked on.
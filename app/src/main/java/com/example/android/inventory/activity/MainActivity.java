@@ -2,16 +2,21 @@ package com.example.android.inventory.activity;
 
 import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.ContentResolver;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -21,9 +26,12 @@ import android.widget.EditText;
 import android.widget.RelativeLayout;
 import android.widget.Toast;
 
+import com.example.android.inventory.BuildConfig;
 import com.example.android.inventory.ProductCursorAdapter;
 import com.example.android.inventory.EmptyRecyclerView;
+import com.example.android.inventory.ProductPagingAdapter;
 import com.example.android.inventory.R;
+import com.example.android.inventory.data.CatalogGenerator;
 import com.example.android.inventory.data.ProductContract.ProductEntry;
 
 /**
@@ -34,9 +42,24 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
     /** Identifier for the product data loader */
     private static final int PRODUCT_LOADER = 0;
 
-    /** Adapter for the RecyclerView */
+    /** Seed of the synthetic catalog of the debug menu, so every run generates the same books */
+    private static final long DEBUG_CATALOG_SEED = 42;
+
+    /** Number of products in the synthetic catalog of the debug menu */
+    private static final int DEBUG_CATALOG_SIZE = 100000;
+
+    /** RecyclerView that displays the list of products */
+    private EmptyRecyclerView mRecyclerView;
+
+    /** Adapter for the RecyclerView that reads all products one page at a time */
+    private ProductPagingAdapter mPagingAdapter;
+
+    /** Adapter for the RecyclerView that displays the search results */
     private ProductCursorAdapter mCursorAdapter;
 
+    /** Text typed in the search box, or null to show all products */
+    private String mSearchQuery;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -44,24 +67,32 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
 
         // Find a reference to the {@link RecyclerView} in the layout
         // Replaced RecyclerView with EmptyRecyclerView
-        EmptyRecyclerView recyclerView = findViewById(R.id.recycler_view);
+        mRecyclerView = findViewById(R.id.recycler_view);
         LinearLayoutManager layoutManager = new LinearLayoutManager(this);
-        recyclerView.setHasFixedSize(true);
+        mRecyclerView.setHasFixedSize(true);
 
         // Set the layoutManager on the {@link RecyclerView}
-        recyclerView.setLayoutManager(layoutManager);
+        mRecyclerView.setLayoutManager(layoutManager);
 
         // Find the empty layout and set it on the new recycler view
         RelativeLayout mEmptyLayout = findViewById(R.id.empty_view);
-        recyclerView.setEmptyLayout(mEmptyLayout);
+        mRecyclerView.setEmptyLayout(mEmptyLayout);
 
-        // Setup a ProductCursorAdapter to create a card item for each row of product data in the Cursor.
+        // Setup a ProductCursorAdapter to create a card item for each row of the search results.
         mCursorAdapter = new ProductCursorAdapter(this);
-        // Set the adapter on the {@link recyclerView}
-        recyclerView.setAdapter(mCursorAdapter);
 
-        // Kick off the loader
-        getLoaderManager().initLoader(PRODUCT_LOADER, null, this);
+        // Setup a ProductPagingAdapter to create a card item for each product, reading the
+        // products one page at a time. Set it on the {@link recyclerView} and load the first page.
+        mPagingAdapter = new ProductPagingAdapter(this);
+        mRecyclerView.setAdapter(mPagingAdapter);
+        mPagingAdapter.start();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Close the pages of the list and stop observing the products
+        mPagingAdapter.release();
     }
 
     /**
@@ -88,6 +119,32 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         Uri newUri = getContentResolver().insert(ProductEntry.CONTENT_URI, values);
     }
 
+    /**
+     * Inserts the products of the synthetic catalog into the provider on a background thread, and
+     * shows how many were inserted. For debugging and load testing only.
+     */
+    private static class GenerateCatalogTask extends AsyncTask<Void, Void, Integer> {
+
+        /** Application context, which outlives the activity that started the task */
+        private final Context mContext;
+
+        GenerateCatalogTask(Context context) {
+            mContext = context.getApplicationContext();
+        }
+
+        @Override
+        protected Integer doInBackground(Void... voids) {
+            ContentResolver resolver = mContext.getContentResolver();
+            return new CatalogGenerator(DEBUG_CATALOG_SEED).insert(resolver, DEBUG_CATALOG_SIZE);
+        }
+
+        @Override
+        protected void onPostExecute(Integer rowsInserted) {
+            Toast.makeText(mContext, mContext.getString(R.string.catalog_generated, rowsInserted),
+                    Toast.LENGTH_SHORT).show();
+        }
+    }
+
     /**
      * Helper method to delete all products in the database.
      */
@@ -101,6 +158,38 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+
+        // The synthetic catalog is only offered in debug builds
+        menu.findItem(R.id.action_generate_catalog).setVisible(BuildConfig.DEBUG);
+
+        // Restart the loader with the search URI every time the text in the search box changes
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                mSearchQuery = newText;
+                if (TextUtils.isEmpty(mSearchQuery)) {
+                    // Go back to the paged list of all products
+                    getLoaderManager().destroyLoader(PRODUCT_LOADER);
+                    if (mRecyclerView.getAdapter() != mPagingAdapter) {
+                        mRecyclerView.setAdapter(mPagingAdapter);
+                    }
+                } else {
+                    // Load the search results and display them instead of the paged list
+                    getLoaderManager().restartLoader(PRODUCT_LOADER, null, MainActivity.this);
+                    if (mRecyclerView.getAdapter() != mCursorAdapter) {
+                        mRecyclerView.setAdapter(mCursorAdapter);
+                    }
+                }
+                return true;
+            }
+        });
         return true;
     }
 
@@ -112,6 +201,10 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
             case R.id.action_insert_dummy_data:
                 insertDummyProduct();
                 return true;
+            // Respond to a click on the "Generate catalog" debug menu option
+            case R.id.action_generate_catalog:
+                new GenerateCatalogTask(this).execute();
+                return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
                 // Pop up confirmation dialog for deletion
@@ -132,9 +225,13 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
                 ProductEntry.COLUMN_PRODUCT_QUANTITY,
                 ProductEntry.COLUMN_PRODUCT_IMAGE};
 
+        // The loader is only used while searching, so query the search URI to get the matching
+        // products ranked by relevance. The list of all products is paged by ProductPagingAdapter.
+        Uri uri = ProductEntry.buildSearchUri(mSearchQuery);
+
         // This loader will execute the ContentProvider's query method on a background thread
         return new CursorLoader(this, // Parent activity context
-                ProductEntry.CONTENT_URI,       // Provider content URI to query
+                uri,                            // Provider content URI to query
                 projection,                       // Columns to include in the resulting Cursor
                 null,                  // No selection clause
                 null,              // No selection arguments
@@ -0,0 +1,287 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+import com.example.android.inventory.data.ProductContract.SupplierEntry;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Deterministic generator of a synthetic book catalog for load testing. The same seed always
+ * generates the same products in the same order, so every performance investigation can start
+ * from the same large store. The distributions follow a real store: a few prolific authors,
+ * publishers and suppliers account for most of the titles, prices are log-normal around $14,
+ * and most books are in stock in small quantities. Every product gets a distinct valid ISBN-13.
+ */
+public final class CatalogGenerator {
+
+    /** Number of products written in each transaction */
+    static final int BATCH_SIZE = 500;
+
+    /** Number of distinct authors in the catalog */
+    static final int AUTHOR_COUNT = 5000;
+
+    /** Number of distinct suppliers in the catalog */
+    static final int SUPPLIER_COUNT = 25;
+
+    /** Fraction of the products that are out of stock */
+    static final double OUT_OF_STOCK_FRACTION = 0.08;
+
+    /** Lowest and highest generated price */
+    static final double MIN_PRICE = 1.99;
+    static final double MAX_PRICE = 199.99;
+
+    /** Median and spread of the log-normal prices */
+    private static final double PRICE_MEDIAN = 14.0;
+    private static final double PRICE_SIGMA = 0.55;
+
+    /** Mean and highest quantity of the products in stock */
+    private static final double MEAN_QUANTITY = 15.0;
+    private static final int MAX_QUANTITY = 500;
+
+    /** Number of distinct 9 digit ISBN bodies */
+    private static final long ISBN_BODIES = 1000000000L;
+
+    /**
+     * Step between the ISBN bodies of consecutive products. It is coprime with
+     * {@link #ISBN_BODIES}, so no body repeats before a billion products.
+     */
+    private static final long ISBN_STRIDE = 7919;
+
+    private static final String[] ADJECTIVES = {
+            "Silent", "Hidden", "Last", "Broken", "Golden", "Lost", "Secret", "Distant",
+            "Burning", "Quiet", "Forgotten", "Wild", "Endless", "Crimson", "Winter", "Little"};
+
+    private static final String[] NOUNS = {
+            "River", "Garden", "Kingdom", "Letter", "Harbor", "Orchard", "Mountain", "Library",
+            "Storm", "Promise", "Island", "Journey", "Shadow", "Bridge", "Prince", "Lighthouse",
+            "Empire", "Summer", "Station", "Machine"};
+
+    private static final String[] PLACES = {
+            "Paris", "the North", "the Sea", "Tomorrow", "Glass", "the Valley", "Stars", "Ash",
+            "the Desert", "Rome"};
+
+    private static final String[] FIRST_NAMES = {
+            "Anna", "James", "Maria", "David", "Sofia", "Daniel", "Elena", "Thomas", "Laura",
+            "Michael", "Clara", "Samuel", "Hannah", "Lucas", "Irene", "Noah", "Julia", "Peter",
+            "Amelia", "Victor", "Rosa", "Oliver", "Nadia", "Hugo", "Alice"};
+
+    private static final String[] LAST_NAMES = {
+            "Smith", "Garcia", "Novak", "Kim", "Rossi", "Müller", "Silva", "Dubois", "Tanaka",
+            "Cohen", "Larsen", "Okafor", "Ivanova", "Brennan", "Haddad", "Costa", "Nakamura",
+            "Fischer", "Moreau", "Andersen"};
+
+    private static final String[] PUBLISHERS = {
+            "Penguin Random House", "HarperCollins", "Simon & Schuster", "Hachette",
+            "Macmillan", "Scholastic", "Houghton Mifflin Harcourt", "Bloomsbury", "Vintage",
+            "Faber & Faber", "Orbit", "Tor Books", "Little, Brown", "Knopf", "Graywolf Press"};
+
+    /** Source of all random choices */
+    private final Random mRandom;
+
+    /** ISBN body of the first product */
+    private final long mIsbnOffset;
+
+    /** Number of products generated so far */
+    private long mCount;
+
+    /** IDs of the suppliers inserted by {@link #insert(SQLiteDatabase, int)}, by name */
+    private final Map<String, Long> mSupplierIds = new HashMap<>();
+
+    /**
+     * Constructs a new {@link CatalogGenerator}.
+     * @param seed the seed of the catalog, the same seed generates the same catalog
+     */
+    public CatalogGenerator(long seed) {
+        mRandom = new Random(seed);
+        mIsbnOffset = (mRandom.nextLong() & Long.MAX_VALUE) % ISBN_BODIES;
+    }
+
+    /**
+     * Returns the next product of the catalog, with its supplier details, as accepted by
+     * {@link ProductEntry#CONTENT_URI}.
+     */
+    public ContentValues next() {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, nextTitle());
+        values.put(ProductEntry.COLUMN_PRODUCT_AUTHOR, author(skewedIndex(AUTHOR_COUNT)));
+        values.put(ProductEntry.COLUMN_PRODUCT_PUBLISHER,
+                PUBLISHERS[skewedIndex(PUBLISHERS.length)]);
+        values.put(ProductEntry.COLUMN_PRODUCT_ISBN, isbn(mCount));
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, nextPrice());
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, nextQuantity());
+
+        int supplier = skewedIndex(SUPPLIER_COUNT);
+        values.put(ProductEntry.COLUMN_SUPPLIER_NAME, supplierName(supplier));
+        values.put(ProductEntry.COLUMN_SUPPLIER_EMAIL, supplierEmail(supplier));
+        values.put(ProductEntry.COLUMN_SUPPLIER_PHONE, supplierPhone(supplier));
+
+        mCount++;
+        return values;
+    }
+
+    /**
+     * Insert the next given number of products through the provider, {@link #BATCH_SIZE} at a
+     * time. Each batch is one {@link ContentResolver#bulkInsert} call, so it is written in a
+     * single transaction and only a batch is held in memory. Returns the number of rows inserted.
+     * Do not call this on the main thread.
+     */
+    public int insert(ContentResolver resolver, int count) {
+        int rowsInserted = 0;
+        while (count > 0) {
+            ContentValues[] batch = new ContentValues[Math.min(count, BATCH_SIZE)];
+            for (int i = 0; i < batch.length; i++) {
+                batch[i] = next();
+            }
+            rowsInserted += resolver.bulkInsert(ProductEntry.CONTENT_URI, batch);
+            count -= batch.length;
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Insert the next given number of products directly into the given database, one transaction
+     * per {@link #BATCH_SIZE} products, inserting their suppliers as they first appear. This is
+     * for tests that work on a {@link ProductDbHelper} of their own instead of the provider.
+     * Returns the number of rows inserted.
+     */
+    int insert(SQLiteDatabase db, int count) {
+        int rowsInserted = 0;
+        while (count > 0) {
+            int batchSize = Math.min(count, BATCH_SIZE);
+            db.beginTransaction();
+            try {
+                for (int i = 0; i < batchSize; i++) {
+                    db.insertOrThrow(ProductEntry.TABLE_NAME, null, withSupplierId(db, next()));
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            rowsInserted += batchSize;
+            count -= batchSize;
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Returns a copy of the given product values where the supplier details are replaced with
+     * the ID of the supplier, which is inserted the first time it is seen.
+     */
+    private ContentValues withSupplierId(SQLiteDatabase db, ContentValues values) {
+        String name = values.getAsString(ProductEntry.COLUMN_SUPPLIER_NAME);
+        Long supplierId = mSupplierIds.get(name);
+        if (supplierId == null) {
+            ContentValues supplier = new ContentValues();
+            supplier.put(SupplierEntry.COLUMN_SUPPLIER_NAME, name);
+            supplier.put(SupplierEntry.COLUMN_SUPPLIER_EMAIL,
+                    values.getAsString(ProductEntry.COLUMN_SUPPLIER_EMAIL));
+            supplier.put(SupplierEntry.COLUMN_SUPPLIER_PHONE,
+                    values.getAsString(ProductEntry.COLUMN_SUPPLIER_PHONE));
+            supplierId = db.insertOrThrow(SupplierEntry.TABLE_NAME, null, supplier);
+            mSupplierIds.put(name, supplierId);
+        }
+
+        ContentValues product = new ContentValues(values);
+        product.remove(ProductEntry.COLUMN_SUPPLIER_NAME);
+        product.remove(ProductEntry.COLUMN_SUPPLIER_EMAIL);
+        product.remove(ProductEntry.COLUMN_SUPPLIER_PHONE);
+        product.put(ProductEntry.COLUMN_SUPPLIER_ID, supplierId);
+        return product;
+    }
+
+    /**
+     * Returns a random index below the given bound, where low indexes are much more likely than
+     * high ones, so a few items account for most of the picks.
+     */
+    private int skewedIndex(int bound) {
+        double u = mRandom.nextDouble();
+        return (int) (bound * u * u * u);
+    }
+
+    private String nextTitle() {
+        String adjective = ADJECTIVES[mRandom.nextInt(ADJECTIVES.length)];
+        String noun = NOUNS[mRandom.nextInt(NOUNS.length)];
+        switch (mRandom.nextInt(4)) {
+            case 0:
+                return "The " + adjective + " " + noun;
+            case 1:
+                return noun + " of " + PLACES[mRandom.nextInt(PLACES.length)];
+            case 2:
+                return "The " + noun + " and the " + NOUNS[mRandom.nextInt(NOUNS.length)];
+            default:
+                return adjective + " " + noun + ": A Novel";
+        }
+    }
+
+    /** Returns a log-normal price in dollars and cents, ending in .99 like most list prices */
+    private double nextPrice() {
+        double price = PRICE_MEDIAN * Math.exp(PRICE_SIGMA * mRandom.nextGaussian());
+        price = Math.floor(price) + 0.99;
+        return Math.max(MIN_PRICE, Math.min(MAX_PRICE, price));
+    }
+
+    /** Returns 0 for the out of stock products, otherwise an exponentially distributed quantity */
+    private int nextQuantity() {
+        if (mRandom.nextDouble() < OUT_OF_STOCK_FRACTION) {
+            return 0;
+        }
+        int quantity = 1 + (int) (-MEAN_QUANTITY * Math.log(1 - mRandom.nextDouble()));
+        return Math.min(MAX_QUANTITY, quantity);
+    }
+
+    /** Returns the name of the author with the given index */
+    private static String author(int index) {
+        int first = index % FIRST_NAMES.length;
+        int last = (index / FIRST_NAMES.length) % LAST_NAMES.length;
+        // There are more authors than name combinations, so number the namesakes
+        int namesake = index / (FIRST_NAMES.length * LAST_NAMES.length);
+        String name = FIRST_NAMES[first] + " " + LAST_NAMES[last];
+        return namesake == 0 ? name : name + " " + toRoman(namesake + 1);
+    }
+
+    private static String toRoman(int number) {
+        String[] numerals = {"", "I", "II", "III", "IV", "V", "VI", "VII", "VIII", "IX", "X"};
+        return number < numerals.length ? numerals[number] : String.valueOf(number);
+    }
+
+    private static String supplierName(int index) {
+        return LAST_NAMES[index % LAST_NAMES.length] + " Book Distribution " + (index + 1);
+    }
+
+    private static String supplierEmail(int index) {
+        return "orders" + (index + 1) + "@" + LAST_NAMES[index % LAST_NAMES.length]
+                .toLowerCase(Locale.US).replace("ü", "u") + "books.example.com";
+    }
+
+    private static String supplierPhone(int index) {
+        return String.format(Locale.US, "(200) 555-%04d", index + 1);
+    }
+
+    /**
+     * Returns the ISBN-13 of the product with the given position in the catalog.
+     */
+    private String isbn(long position) {
+        long body = (mIsbnOffset + position * ISBN_STRIDE) % ISBN_BODIES;
+        String digits = String.format(Locale.US, "978%09d", body);
+        return digits + isbn13CheckDigit(digits);
+    }
+
+    /**
+     * Returns the check digit of the given first 12 digits of an ISBN-13.
+     */
+    static int isbn13CheckDigit(String digits) {
+        int sum = 0;
+        for (int i = 0; i < 12; i++) {
+            int digit = digits.charAt(i) - '0';
+            sum += (i % 2 == 0) ? digit : 3 * digit;
+        }
+        return (10 - sum % 10) % 10;
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Gathers the change notifications of {@link ProductProvider} over a short window and sends one
+ * notification per distinct URI when the window closes, so a burst of writes makes the listeners
+ * re-query once instead of once per write.
+ */
+final class CoalescingNotifier {
+
+    private final ContentResolver mResolver;
+
+    /** Handler that sends the gathered notifications when the window closes */
+    private final Handler mHandler;
+
+    /** Root URI of the provider. While it is pending, notifications for its descendants are redundant. */
+    private final Uri mRootUri;
+
+    /** Length of the window in milliseconds. 0 sends every notification right away. */
+    private volatile long mWindowMillis;
+
+    /** URIs gathered in the current window, in the order they first changed */
+    private final Set<Uri> mPending = new LinkedHashSet<>();
+
+    /** Number of notifications requested by the provider */
+    private final AtomicLong mRequestedCount = new AtomicLong();
+
+    /** Number of notifications sent to the content resolver */
+    private final AtomicLong mSentCount = new AtomicLong();
+
+    /** Runs {@link #flush()} when the window closes */
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * Constructs a new {@link CoalescingNotifier}.
+     * @param resolver to send the notifications to
+     * @param rootUri URI whose notification also covers all the URIs below it
+     * @param windowMillis length of the window in milliseconds
+     */
+    CoalescingNotifier(ContentResolver resolver, Uri rootUri, long windowMillis) {
+        mResolver = resolver;
+        mRootUri = rootUri;
+        mWindowMillis = windowMillis;
+        mHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Set the length of the window in milliseconds. 0 sends every notification right away.
+     */
+    void setWindowMillis(long windowMillis) {
+        mWindowMillis = windowMillis;
+    }
+
+    /**
+     * Request a change notification for the given URI. The notification is sent when the current
+     * window closes, unless the same URI or the root URI is already pending.
+     */
+    void notifyChange(Uri uri) {
+        mRequestedCount.incrementAndGet();
+        boolean startWindow;
+        synchronized (mPending) {
+            startWindow = mPending.isEmpty();
+            mPending.add(uri);
+        }
+        if (mWindowMillis <= 0) {
+            flush();
+        } else if (startWindow) {
+            mHandler.postDelayed(mFlushRunnable, mWindowMillis);
+        }
+    }
+
+    /**
+     * Send the pending notifications right away, for example when a transaction has ended.
+     */
+    void flush() {
+        mHandler.removeCallbacks(mFlushRunnable);
+        List<Uri> uris;
+        synchronized (mPending) {
+            if (mPending.contains(mRootUri)) {
+                // Listeners of every product URI are notified by the root URI as well
+                mPending.clear();
+                mPending.add(mRootUri);
+            }
+            uris = new ArrayList<>(mPending);
+            mPending.clear();
+        }
+        for (Uri uri : uris) {
+            mResolver.notifyChange(uri, null);
+            mSentCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the number of notifications requested by the provider.
+     */
+    long getRequestedCount() {
+        return mRequestedCount.get();
+    }
+
+    /**
+     * Returns the number of notifications sent to the content resolver.
+     */
+    long getSentCount() {
+        return mSentCount.get();
+    }
+
+    /**
+     * Returns the number of requested notifications that were merged into another one. Pending
+     * notifications are not counted until they are sent.
+     */
+    long getSuppressedCount() {
+        int pending;
+        synchronized (mPending) {
+            pending = mPending.size();
+        }
+        return mRequestedCount.get() - mSentCount.get() - pending;
+    }
+}
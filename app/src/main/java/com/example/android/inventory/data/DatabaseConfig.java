@@ -0,0 +1,41 @@
+package com.example.android.inventory.data;
+
+/**
+ * Connection settings applied by {@link ProductDbHelper} every time the inventory database is
+ * opened.
+ */
+final class DatabaseConfig {
+
+    /** Default settings: write-ahead logging, NORMAL sync, 2 MB page cache and 32 MB mmap */
+    static final DatabaseConfig DEFAULT = new DatabaseConfig(true, "NORMAL", 2048, 32L * 1024 * 1024);
+
+    /**
+     * Whether write-ahead logging is enabled. With WAL, readers keep reading the last committed
+     * data while a write transaction is in progress instead of waiting for it.
+     */
+    final boolean writeAheadLogging;
+
+    /** Value of PRAGMA synchronous, for example "FULL", "NORMAL" or "OFF" */
+    final String synchronous;
+
+    /** Size of the page cache in KiB per connection. PRAGMA cache_size takes it as a negative number. */
+    final int cacheSizeKib;
+
+    /** Maximum number of bytes of the database file to memory-map, or 0 to disable mmap */
+    final long mmapSizeBytes;
+
+    /**
+     * Constructs a new {@link DatabaseConfig}.
+     * @param writeAheadLogging whether write-ahead logging is enabled
+     * @param synchronous value of PRAGMA synchronous
+     * @param cacheSizeKib size of the page cache in KiB
+     * @param mmapSizeBytes maximum number of bytes to memory-map
+     */
+    DatabaseConfig(boolean writeAheadLogging, String synchronous, int cacheSizeKib,
+                   long mmapSizeBytes) {
+        this.writeAheadLogging = writeAheadLogging;
+        this.synchronous = synchronous;
+        this.cacheSizeKib = cacheSizeKib;
+        this.mmapSizeBytes = mmapSizeBytes;
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.android.inventory.data;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies over fixed buckets. Recording a latency is a few atomic
+ * increments, so it can be done on every provider call. Percentiles are estimated as the upper
+ * bound of the bucket that holds them, which is accurate to the bucket resolution.
+ */
+final class LatencyHistogram {
+
+    /** Upper bounds of the buckets in microseconds. The last bucket holds everything above. */
+    private static final long[] BUCKET_BOUNDS_MICROS = {
+            100, 250, 500,
+            1000, 2500, 5000,
+            10000, 25000, 50000,
+            100000, 250000, 500000,
+            1000000};
+
+    /** Number of latencies in each bucket */
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_BOUNDS_MICROS.length + 1);
+
+    /** Number of recorded latencies */
+    private final AtomicLong mCount = new AtomicLong();
+
+    /** Sum of the recorded latencies in microseconds */
+    private final AtomicLong mSumMicros = new AtomicLong();
+
+    /** Largest recorded latency in microseconds */
+    private final AtomicLong mMaxMicros = new AtomicLong();
+
+    /**
+     * Record a latency in microseconds.
+     */
+    void record(long micros) {
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_MICROS.length && micros > BUCKET_BOUNDS_MICROS[bucket]) {
+            bucket++;
+        }
+        mBuckets.incrementAndGet(bucket);
+        mCount.incrementAndGet();
+        mSumMicros.addAndGet(micros);
+
+        long max = mMaxMicros.get();
+        while (micros > max && !mMaxMicros.compareAndSet(max, micros)) {
+            max = mMaxMicros.get();
+        }
+    }
+
+    /** Returns the number of recorded latencies */
+    long getCount() {
+        return mCount.get();
+    }
+
+    /** Returns the mean recorded latency in microseconds, or 0 if there is none */
+    long getMeanMicros() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mSumMicros.get() / count;
+    }
+
+    /** Returns the largest recorded latency in microseconds */
+    long getMaxMicros() {
+        return mMaxMicros.get();
+    }
+
+    /**
+     * Returns the estimated latency in microseconds below which the given fraction of the
+     * recorded latencies fall, for example 0.95 for the 95th percentile. Returns 0 if no latency
+     * was recorded. Concurrent recording may make the estimate lag behind by a few latencies.
+     */
+    long getPercentileMicros(double fraction) {
+        long[] buckets = new long[mBuckets.length()];
+        long count = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = mBuckets.get(i);
+            count += buckets[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        // The rank of the percentile, starting at 1
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_BOUNDS_MICROS.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return BUCKET_BOUNDS_MICROS[i];
+            }
+        }
+        // The percentile is in the last, unbounded bucket
+        return mMaxMicros.get();
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.android.inventory.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * A single step of the database schema migration. Each {@link Migration} upgrades the database
+ * from the version right before {@link #version} to {@link #version}.
+ */
+abstract class Migration {
+
+    /** Database version that this migration upgrades the schema to */
+    final int version;
+
+    /**
+     * Constructs a new {@link Migration}.
+     * @param version the database version after this migration has run
+     */
+    Migration(int version) {
+        this.version = version;
+    }
+
+    /**
+     * Apply the schema changes of this step to the given database. This is called inside a
+     * transaction, so it must not begin or end transactions itself.
+     */
+    abstract void migrate(SQLiteDatabase db);
+}
@@ -1,6 +1,8 @@
 package com.example.android.inventory.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
@@ -37,6 +39,66 @@ public final class ProductContract {
      */
     static final String PATH_PRODUCT = "products";
 
+    /**
+     * Path for the products joined with their supplier.
+     * For instance, content://com.example.android.inventory/products_with_supplier/3
+     */
+    static final String PATH_PRODUCT_WITH_SUPPLIER = "products_with_supplier";
+
+    /**
+     * Path for the suppliers of the products.
+     * For instance, content://com.example.android.inventory/suppliers/2
+     */
+    static final String PATH_SUPPLIER = "suppliers";
+
+    /**
+     * Path appended to a single product URI to atomically adjust its quantity.
+     * For instance, content://com.example.android.inventory/products/3/adjust
+     */
+    static final String PATH_ADJUST = "adjust";
+
+    /**
+     * Path appended to the products URI to search the products by title, author and publisher.
+     * For instance, content://com.example.android.inventory/products/search?q=little
+     */
+    static final String PATH_SEARCH = "search";
+
+    /**
+     * Path appended to a single product URI to read the history of its stock movements.
+     * For instance, content://com.example.android.inventory/products/3/movements
+     */
+    static final String PATH_MOVEMENTS = "movements";
+
+    /**
+     * Path appended to the products URI to read the inventory totals.
+     * For instance, content://com.example.android.inventory/products/stats
+     */
+    static final String PATH_STATS = "stats";
+
+    /**
+     * Path appended to the products URI to read the operation metrics of the provider.
+     * For instance, content://com.example.android.inventory/products/_metrics
+     */
+    static final String PATH_METRICS = "_metrics";
+
+    /**
+     * Path for the book metadata looked up by ISBN.
+     * For instance, content://com.example.android.inventory/isbn_metadata/9780156012195
+     */
+    static final String PATH_ISBN_METADATA = "isbn_metadata";
+
+    /** Query parameter of the search URI that holds the text to search for */
+    static final String QUERY_PARAMETER_SEARCH = "q";
+
+    /**
+     * Query parameter of the products URI to return only the products with an _id greater than
+     * the given one, in _id order. Used for keyset pagination of the list of products.
+     */
+    static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+
+    /** Query parameter of the products URI that limits the number of products returned */
+    static final String QUERY_PARAMETER_LIMIT = "limit";
+
 
     /**
      *  Inner class that defines constant values for the products database table.
@@ -47,6 +109,13 @@ public final class ProductContract {
         /** The content URI to access the product data in the provider */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PRODUCT);
 
+        /**
+         * The content URI to read the product data together with the name, email and phone number
+         * of the supplier of each product. This URI is read-only; write to {@link #CONTENT_URI}.
+         */
+        public static final Uri CONTENT_WITH_SUPPLIER_URI =
+                Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PRODUCT_WITH_SUPPLIER);
+
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of products.
          */
@@ -62,6 +131,15 @@ public final class ProductContract {
         /** Name of database table for products */
         static final String TABLE_NAME = "products";
 
+        /**
+         * Name of the full-text search table over the title, author and publisher of the products.
+         * Rows are kept in sync with the products table by triggers, and its docid is the product _id.
+         */
+        static final String FTS_TABLE_NAME = "products_fts";
+
+        /** Name of the database view that joins the products with their supplier */
+        static final String VIEW_WITH_SUPPLIER_NAME = "products_with_supplier";
+
         /** Name of the product. Type: TEXT */
         public static final String COLUMN_PRODUCT_NAME = "product_name";
 
@@ -74,14 +152,22 @@ public final class ProductContract {
         /** Image of the product.  */
         public static final String COLUMN_PRODUCT_IMAGE = "product_image";
 
-        /** Supplier name. Type: TEXT */
-        public static final String COLUMN_SUPPLIER_NAME = "supplier_name";
+        /** ID of the supplier of the product in the suppliers table. Type: INTEGER */
+        public static final String COLUMN_SUPPLIER_ID = "supplier_id";
 
-        /** Supplier email. Type: TEXT */
-        public static final String COLUMN_SUPPLIER_EMAIL = "supplier_email";
+        /**
+         * Supplier name. Type: TEXT
+         * Stored in the suppliers table. It can be read from {@link #CONTENT_WITH_SUPPLIER_URI},
+         * and written with the supplier email and phone number to link the product to the
+         * matching supplier, which is created if it does not exist yet.
+         */
+        public static final String COLUMN_SUPPLIER_NAME = SupplierEntry.COLUMN_SUPPLIER_NAME;
 
-        /** Supplier phone number. Type: TEXT */
-        public static final String COLUMN_SUPPLIER_PHONE= "supplier_phone";
+        /** Supplier email. Type: TEXT. Stored in the suppliers table, like the supplier name. */
+        public static final String COLUMN_SUPPLIER_EMAIL = SupplierEntry.COLUMN_SUPPLIER_EMAIL;
+
+        /** Supplier phone number. Type: TEXT. Stored in the suppliers table, like the supplier name. */
+        public static final String COLUMN_SUPPLIER_PHONE= SupplierEntry.COLUMN_SUPPLIER_PHONE;
 
         /** Author of the product. Type: TEXT */
         public static final String COLUMN_PRODUCT_AUTHOR = "author";
@@ -91,5 +177,299 @@ public final class ProductContract {
 
         /** ISBN of the product. Type: Text */
         public static final String COLUMN_PRODUCT_ISBN = "isbn";
+
+        /**
+         * Key of the amount to add to the quantity when updating an adjust URI. A negative value
+         * removes stock. This is not a column of the products table. Type: INTEGER
+         */
+        public static final String KEY_QUANTITY_DELTA = "quantity_delta";
+
+        /**
+         * Name of the {@link ContentResolver#call} method that finds a product by ISBN. Pass the
+         * ISBN as the argument. The result holds the {@link #_ID} of the first product with that
+         * ISBN, or is null if there is none.
+         */
+        public static final String METHOD_FIND_BY_ISBN = "find_by_isbn";
+
+        /**
+         * Name of the {@link ContentResolver#call} method that inserts products like
+         * {@link ContentResolver#bulkInsert}, and reports the rows that failed. Pass the products
+         * in the extras as a {@link ContentValues} array under {@link #KEY_VALUES}. The result
+         * holds {@link #KEY_ROWS_INSERTED} and {@link #KEY_FAILED_ROWS}.
+         */
+        public static final String METHOD_BULK_INSERT = "bulk_insert";
+
+        /** Key of the products to insert with {@link #METHOD_BULK_INSERT}. Type: ContentValues[] */
+        public static final String KEY_VALUES = "values";
+
+        /** Key of the number of products inserted by {@link #METHOD_BULK_INSERT}. Type: int */
+        public static final String KEY_ROWS_INSERTED = "rows_inserted";
+
+        /**
+         * Key of the indexes of the products that {@link #METHOD_BULK_INSERT} did not insert, in
+         * increasing order. Type: int[]
+         */
+        public static final String KEY_FAILED_ROWS = "failed_rows";
+
+        /**
+         * Returns the content URI to read the product with the given ID together with its supplier.
+         */
+        public static Uri buildWithSupplierUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_WITH_SUPPLIER_URI, id);
+        }
+
+        /**
+         * Returns the content URI for the page of at most the given number of products that
+         * directly follows the product with the given ID, in _id order. Use 0 for the first page.
+         */
+        public static Uri buildPageUri(long afterId, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit)).build();
+        }
+
+        /**
+         * Returns the content URI to search the products for the given text. Each word of the text
+         * matches as a prefix of a word in the title, author or publisher, and the results are
+         * ranked by the number of matches.
+         */
+        public static Uri buildSearchUri(String query) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_SEARCH)
+                    .appendQueryParameter(QUERY_PARAMETER_SEARCH, query).build();
+        }
+
+        /**
+         * Returns the content URI to atomically adjust the quantity of the product with the given ID.
+         * Updating this URI with {@link #KEY_QUANTITY_DELTA} adds the delta to the stored quantity
+         * in a single statement, and updates nothing if the quantity would drop below 0.
+         */
+        public static Uri buildAdjustUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendPath(PATH_ADJUST).build();
+        }
+    }
+
+    /**
+     *  Inner class that defines constant values for the suppliers database table.
+     *  Each entry in the table represents a single supplier, shared by all of its products.
+     */
+    public static final class SupplierEntry implements BaseColumns {
+
+        /** The content URI to access the supplier data in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SUPPLIER);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of suppliers.
+         */
+        static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIER;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single supplier.
+         */
+        static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIER;
+
+        /** Name of database table for suppliers */
+        static final String TABLE_NAME = "suppliers";
+
+        /** Supplier name. Type: TEXT */
+        public static final String COLUMN_SUPPLIER_NAME = "supplier_name";
+
+        /** Supplier email. Type: TEXT */
+        public static final String COLUMN_SUPPLIER_EMAIL = "supplier_email";
+
+        /** Supplier phone number. Type: TEXT */
+        public static final String COLUMN_SUPPLIER_PHONE = "supplier_phone";
+    }
+
+    /**
+     *  Inner class that defines constant values for the inventory stats database table.
+     *  The table has a single row with the totals over all products, kept up to date by triggers
+     *  on the products table, so the totals are read without going through the products.
+     */
+    public static final class StatsEntry implements BaseColumns {
+
+        /** The content URI to read the inventory totals in the provider. This URI is read-only. */
+        public static final Uri CONTENT_URI =
+                ProductEntry.CONTENT_URI.buildUpon().appendPath(PATH_STATS).build();
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the single row of totals.
+         */
+        static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/"
+                + CONTENT_AUTHORITY + "/" + PATH_PRODUCT + "/" + PATH_STATS;
+
+        /** Name of database table for the inventory stats */
+        static final String TABLE_NAME = "inventory_stats";
+
+        /** _id of the only row of the stats table */
+        static final long ROW_ID = 1;
+
+        /** Number of products (SKUs) in the inventory. Type: INTEGER */
+        public static final String COLUMN_PRODUCT_COUNT = "product_count";
+
+        /** Total quantity of all products. Type: INTEGER */
+        public static final String COLUMN_TOTAL_QUANTITY = "total_quantity";
+
+        /** Total stock value, the sum of price times quantity of all products. Type: REAL */
+        public static final String COLUMN_TOTAL_VALUE = "total_value";
+
+        /** Number of products with a quantity of 0. Type: INTEGER */
+        public static final String COLUMN_OUT_OF_STOCK_COUNT = "out_of_stock_count";
+    }
+
+    /**
+     *  Inner class that defines constant values for the stock movements database table.
+     *  Each entry in the table is a change of the quantity of a product, written by a trigger in
+     *  the same transaction as the change. Old movements are folded into one snapshot entry per
+     *  product and day by the {@link StockMovementCompactor}.
+     */
+    public static final class StockMovementEntry implements BaseColumns {
+
+        /**
+         * The MIME type of the history of stock movements of a product.
+         */
+        static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/"
+                + CONTENT_AUTHORITY + "/" + PATH_PRODUCT + "/" + PATH_MOVEMENTS;
+
+        /** Name of database table for stock movements */
+        static final String TABLE_NAME = "stock_movements";
+
+        /** ID of the product whose quantity changed. Type: INTEGER */
+        public static final String COLUMN_PRODUCT_ID = "product_id";
+
+        /** Amount added to the quantity, negative when stock was removed. Type: INTEGER */
+        public static final String COLUMN_DELTA = "delta";
+
+        /** Quantity of the product after the movement. Type: INTEGER */
+        public static final String COLUMN_QUANTITY = "quantity";
+
+        /** Time of the movement, in milliseconds since the epoch. Type: INTEGER */
+        public static final String COLUMN_TIMESTAMP = "timestamp";
+
+        /**
+         * Number of movements in this entry. It is 1 for a single movement, and the number of
+         * folded movements for a snapshot, whose delta is their sum. Type: INTEGER
+         */
+        public static final String COLUMN_MOVEMENT_COUNT = "movement_count";
+
+        /**
+         * Returns the content URI to read the stock movements of the product with the given ID,
+         * oldest first. This URI is read-only.
+         */
+        public static Uri buildHistoryUri(long productId) {
+            return ContentUris.withAppendedId(ProductEntry.CONTENT_URI, productId).buildUpon()
+                    .appendPath(PATH_MOVEMENTS).build();
+        }
+    }
+
+    /**
+     *  Inner class that defines the columns of the operation metrics of the provider. The metrics
+     *  are not stored in the database. There is one row for every operation and URI pattern, with
+     *  its latency percentiles, and one row for every counter, with only a name and a count.
+     */
+    public static final class MetricsEntry {
+
+        /** The content URI to read the metrics. This URI is read-only. */
+        public static final Uri CONTENT_URI =
+                ProductEntry.CONTENT_URI.buildUpon().appendPath(PATH_METRICS).build();
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the list of metrics.
+         */
+        static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/"
+                + CONTENT_AUTHORITY + "/" + PATH_PRODUCT + "/" + PATH_METRICS;
+
+        /**
+         * Name of the metric: an operation and URI pattern such as "query products/#", or a
+         * counter such as "notifications.sent". Type: TEXT
+         */
+        public static final String COLUMN_NAME = "name";
+
+        /** Number of calls, or the value of a counter. Type: INTEGER */
+        public static final String COLUMN_COUNT = "count";
+
+        /** Number of calls that failed. Type: INTEGER */
+        public static final String COLUMN_ERRORS = "errors";
+
+        /** Number of rows returned or changed by the calls. Type: INTEGER */
+        public static final String COLUMN_ROWS = "rows";
+
+        /** Mean latency of the calls in microseconds. Type: INTEGER */
+        public static final String COLUMN_MEAN_MICROS = "mean_us";
+
+        /** Median latency of the calls in microseconds. Type: INTEGER */
+        public static final String COLUMN_P50_MICROS = "p50_us";
+
+        /** 95th percentile latency of the calls in microseconds. Type: INTEGER */
+        public static final String COLUMN_P95_MICROS = "p95_us";
+
+        /** 99th percentile latency of the calls in microseconds. Type: INTEGER */
+        public static final String COLUMN_P99_MICROS = "p99_us";
+
+        /** Largest latency of the calls in microseconds. Type: INTEGER */
+        public static final String COLUMN_MAX_MICROS = "max_us";
+    }
+
+    /**
+     *  Inner class that defines constant values for the ISBN metadata database table. Each entry
+     *  holds the book found on the network for an ISBN, so a repeated lookup of the ISBN does not
+     *  need the network. An entry with a null title records that no book was found.
+     */
+    public static final class IsbnMetadataEntry implements BaseColumns {
+
+        /**
+         * The content URI to write the metadata of an ISBN, replacing the previous metadata of
+         * that ISBN. Read the metadata of an ISBN with {@link #buildIsbnUri}.
+         */
+        public static final Uri CONTENT_URI =
+                Uri.withAppendedPath(BASE_CONTENT_URI, PATH_ISBN_METADATA);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of ISBN metadata.
+         */
+        static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/"
+                + CONTENT_AUTHORITY + "/" + PATH_ISBN_METADATA;
+
+        /**
+         * The MIME type of the metadata of a single ISBN.
+         */
+        static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/"
+                + CONTENT_AUTHORITY + "/" + PATH_ISBN_METADATA;
+
+        /** Name of database table for ISBN metadata */
+        static final String TABLE_NAME = "isbn_metadata";
+
+        /** Time after which found metadata is refreshed from the network: 30 days */
+        public static final long TTL_MILLIS = 30L * 24 * 60 * 60 * 1000;
+
+        /** Time after which an ISBN with no book found is looked up again: 1 hour */
+        public static final long NEGATIVE_TTL_MILLIS = 60L * 60 * 1000;
+
+        /** The ISBN that was looked up. Unique. Type: TEXT */
+        public static final String COLUMN_ISBN = "isbn";
+
+        /** Title of the book, or null if no book was found. Type: TEXT */
+        public static final String COLUMN_TITLE = "title";
+
+        /** First author of the book. Type: TEXT */
+        public static final String COLUMN_AUTHOR = "author";
+
+        /** Publisher of the book. Type: TEXT */
+        public static final String COLUMN_PUBLISHER = "publisher";
+
+        /**
+         * Time of the lookup, in milliseconds since the epoch. Set to the current time when it is
+         * not given. Type: INTEGER
+         */
+        public static final String COLUMN_FETCHED_AT = "fetched_at";
+
+        /**
+         * Returns the content URI to read the metadata of the given ISBN. This URI is read-only.
+         */
+        public static Uri buildIsbnUri(String isbn) {
+            return CONTENT_URI.buildUpon().appendPath(isbn).build();
+        }
     }
 }
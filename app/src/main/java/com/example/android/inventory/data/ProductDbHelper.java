@@ -1,10 +1,21 @@
 package com.example.android.inventory.data;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
 
+import com.example.android.inventory.data.ProductContract.IsbnMetadataEntry;
 import com.example.android.inventory.data.ProductContract.ProductEntry;
+import com.example.android.inventory.data.ProductContract.StatsEntry;
+import com.example.android.inventory.data.ProductContract.StockMovementEntry;
+import com.example.android.inventory.data.ProductContract.SupplierEntry;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Database helper for Inventory app. Manages database creation and version management.
@@ -14,15 +25,168 @@ public class ProductDbHelper extends SQLiteOpenHelper {
     /** Name of the database file */
     private static final String DATABASE_NAME = "inventory.db";
 
-    /** Database version. If you change the database schema, you must increment the database version. */
-    private static final int DATABASE_VERSION = 1;
+    /**
+     * Database version. If you change the database schema, you must increment the database version
+     * and add a {@link Migration} for the new version to {@link #MIGRATIONS}.
+     */
+    private static final int DATABASE_VERSION = 7;
+
+    /** Name of the index on the ISBN of the products */
+    static final String INDEX_PRODUCT_ISBN = "index_products_isbn";
+
+    /** Name of the index on the name of the products */
+    static final String INDEX_PRODUCT_NAME = "index_products_product_name";
+
+    /** Name of the index on the author of the products */
+    static final String INDEX_PRODUCT_AUTHOR = "index_products_author";
+
+    /** Name of the index on the supplier name of the products, until version 4 */
+    static final String INDEX_SUPPLIER_NAME = "index_products_supplier_name";
+
+    /** Name of the index on the supplier ID of the products */
+    static final String INDEX_PRODUCT_SUPPLIER_ID = "index_products_supplier_id";
+
+    /** Name of the index to look up a supplier by name */
+    static final String INDEX_SUPPLIER_LOOKUP = "index_suppliers_supplier_name";
+
+    /** Name of the index on the product and time of the stock movements */
+    static final String INDEX_MOVEMENT_PRODUCT = "index_stock_movements_product_id";
+
+    /** SQL expression for the current time in milliseconds since the epoch */
+    static final String SQL_NOW_MILLIS =
+            "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+
+    /**
+     * Ordered schema migrations, one step per database version. The first version of the schema
+     * is created by {@link #onCreate(SQLiteDatabase)} and every later version is reached by
+     * running these steps in order.
+     */
+    @VisibleForTesting
+    static final Migration[] MIGRATIONS = {
+            // Version 2: add indexes for the lookups by ISBN, name, author and supplier
+            new Migration(2) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL(createIndex(INDEX_PRODUCT_ISBN, ProductEntry.COLUMN_PRODUCT_ISBN));
+                    db.execSQL(createIndex(INDEX_PRODUCT_NAME, ProductEntry.COLUMN_PRODUCT_NAME));
+                    db.execSQL(createIndex(INDEX_PRODUCT_AUTHOR, ProductEntry.COLUMN_PRODUCT_AUTHOR));
+                    db.execSQL(createIndex(INDEX_SUPPLIER_NAME, ProductEntry.COLUMN_SUPPLIER_NAME));
+                }
+            },
+            // Version 3: add the full-text search table over title, author and publisher
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    createFtsTable(db);
+                }
+            },
+            // Version 4: move the supplier details of the products into a suppliers table
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    normalizeSuppliers(db);
+                }
+            },
+            // Version 5: add the inventory stats table that is maintained by triggers
+            new Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    createStatsTable(db);
+                }
+            },
+            // Version 6: add the ledger of stock movements that is written by triggers
+            new Migration(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    createStockMovementsTable(db);
+                }
+            },
+            // Version 7: add the table of book metadata looked up by ISBN
+            new Migration(7) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    createIsbnMetadataTable(db);
+                }
+            }
+    };
+
+    /**
+     * Maximum difference between the stored and the recomputed total stock value, since adding
+     * and subtracting prices one product at a time rounds differently than a single sum.
+     */
+    private static final double STATS_VALUE_TOLERANCE = 0.005;
+
+    /** The columns of the stats table with a total, in the order of {@link #SQL_COMPUTE_STATS} */
+    private static final String STATS_COLUMNS = StatsEntry.COLUMN_PRODUCT_COUNT + ", "
+            + StatsEntry.COLUMN_TOTAL_QUANTITY + ", "
+            + StatsEntry.COLUMN_TOTAL_VALUE + ", "
+            + StatsEntry.COLUMN_OUT_OF_STOCK_COUNT;
+
+    /** Query that computes the stats row from all products, in the order of {@link #STATS_COLUMNS} */
+    private static final String SQL_COMPUTE_STATS = "SELECT " + StatsEntry.ROW_ID + " AS "
+            + StatsEntry._ID + ", COUNT(*) AS " + StatsEntry.COLUMN_PRODUCT_COUNT + ", "
+            + "IFNULL(SUM(" + ProductEntry.COLUMN_PRODUCT_QUANTITY + "), 0) AS "
+            + StatsEntry.COLUMN_TOTAL_QUANTITY + ", "
+            + "TOTAL(" + ProductEntry.COLUMN_PRODUCT_PRICE + " * "
+            + ProductEntry.COLUMN_PRODUCT_QUANTITY + ") AS " + StatsEntry.COLUMN_TOTAL_VALUE + ", "
+            + "IFNULL(SUM(" + ProductEntry.COLUMN_PRODUCT_QUANTITY + " <= 0), 0) AS "
+            + StatsEntry.COLUMN_OUT_OF_STOCK_COUNT + " "
+            + "FROM " + ProductEntry.TABLE_NAME;
+
+    /** Connection settings applied in {@link #onConfigure(SQLiteDatabase)} */
+    private final DatabaseConfig mConfig;
+
+    /** Compiled statements of the provider, released whenever the schema changes */
+    private final StatementCache mStatementCache = new StatementCache();
 
     /**
      * Constructs a new instance of {@link ProductDbHelper}.
      * @param context of the app
      */
     ProductDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, DatabaseConfig.DEFAULT);
+    }
+
+    /**
+     * Constructs a new instance of {@link ProductDbHelper} for the given database file.
+     * @param context of the app
+     * @param name of the database file, or null for an in-memory database
+     */
+    @VisibleForTesting
+    ProductDbHelper(Context context, String name) {
+        this(context, name, DatabaseConfig.DEFAULT);
+    }
+
+    /**
+     * Constructs a new instance of {@link ProductDbHelper} with the given connection settings.
+     * @param context of the app
+     * @param name of the database file, or null for an in-memory database
+     * @param config connection settings applied every time the database is opened
+     */
+    @VisibleForTesting
+    ProductDbHelper(Context context, String name, DatabaseConfig config) {
+        super(context, name, null, DATABASE_VERSION);
+        mConfig = config;
+        setWriteAheadLoggingEnabled(config.writeAheadLogging);
+    }
+
+    /**
+     * This is called when the database connection is being configured, before the database is
+     * created, upgraded or opened. Apply the connection settings from the {@link DatabaseConfig}.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // Products must always point to an existing supplier
+        db.setForeignKeyConstraintsEnabled(true);
+        db.execSQL("PRAGMA synchronous = " + mConfig.synchronous + ";");
+        db.execSQL("PRAGMA cache_size = " + (-mConfig.cacheSizeKib) + ";");
+        // PRAGMA mmap_size returns the new value, so it has to be run as a query
+        Cursor cursor = db.rawQuery("PRAGMA mmap_size = " + mConfig.mmapSizeBytes + ";", null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     /**
@@ -46,13 +210,379 @@ public class ProductDbHelper extends SQLiteOpenHelper {
 
         // Execute the SQL statement
         db.execSQL(SQL_CREATE_PRODUCTS_TABLE);
+
+        // Bring the version 1 schema up to date, so new and upgraded databases share one path
+        migrate(db, 1, DATABASE_VERSION);
     }
 
     /**
      * This is called when the database needs to be upgraded.
      */
     @Override
-    public void onUpgrade(SQLiteDatabase db, int i, int i1) {
-        // The database is still at version 1, so there's nothing to do be done here.
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        migrate(db, oldVersion, newVersion);
+        // Statements compiled before the migration refer to the old schema
+        mStatementCache.clear();
+    }
+
+    /**
+     * Release the cached statements before closing the database.
+     */
+    @Override
+    public synchronized void close() {
+        mStatementCache.clear();
+        super.close();
+    }
+
+    /**
+     * Returns the cache of compiled statements for this database.
+     */
+    StatementCache getStatementCache() {
+        return mStatementCache;
+    }
+
+    /**
+     * Run every {@link Migration} after the old version up to and including the new version, in
+     * order. Each step runs in its own (nested) transaction.
+     */
+    @VisibleForTesting
+    static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        int version = oldVersion;
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version <= oldVersion || migration.version > newVersion) {
+                continue;
+            }
+            // Migrations must be contiguous, otherwise a schema change would be skipped
+            if (migration.version != version + 1) {
+                throw new IllegalStateException("Missing migration to version " + (version + 1));
+            }
+            db.beginTransaction();
+            try {
+                migration.migrate(db);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            version = migration.version;
+        }
+        if (version != newVersion) {
+            throw new IllegalStateException("Missing migration to version " + newVersion);
+        }
+    }
+
+    /**
+     * Returns the SQL statement to create an index with the given name on the given column of
+     * the products table.
+     */
+    private static String createIndex(String indexName, String column) {
+        return "CREATE INDEX IF NOT EXISTS " + indexName + " ON " + ProductEntry.TABLE_NAME
+                + " (" + column + ");";
+    }
+
+    /**
+     * Create the external content FTS4 table for the products, the triggers that keep it in sync
+     * with the products table, and index the products that already exist.
+     */
+    private static void createFtsTable(SQLiteDatabase db) {
+        String ftsColumns = ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                + ProductEntry.COLUMN_PRODUCT_AUTHOR + ", "
+                + ProductEntry.COLUMN_PRODUCT_PUBLISHER;
+
+        // The FTS table only stores the full-text index, and reads the text from the products table
+        db.execSQL("CREATE VIRTUAL TABLE " + ProductEntry.FTS_TABLE_NAME + " USING fts4("
+                + "content=\"" + ProductEntry.TABLE_NAME + "\", " + ftsColumns + ");");
+
+        createFtsTriggers(db);
+
+        // Index the products that were stored before the FTS table existed
+        db.execSQL("INSERT INTO " + ProductEntry.FTS_TABLE_NAME + " (" + ProductEntry.FTS_TABLE_NAME
+                + ") VALUES ('rebuild');");
+    }
+
+    /**
+     * Create the triggers that keep the FTS table in sync with the products table.
+     */
+    private static void createFtsTriggers(SQLiteDatabase db) {
+        String ftsColumns = ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                + ProductEntry.COLUMN_PRODUCT_AUTHOR + ", "
+                + ProductEntry.COLUMN_PRODUCT_PUBLISHER;
+        String newValues = "new." + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                + "new." + ProductEntry.COLUMN_PRODUCT_AUTHOR + ", "
+                + "new." + ProductEntry.COLUMN_PRODUCT_PUBLISHER;
+
+        // Remove the old text from the index before a product is updated or deleted, and add
+        // the new text after a product is inserted or updated. Only changes of the indexed
+        // columns reindex a product, so quantity and price updates skip the update triggers.
+        String updateOfFtsColumns = "UPDATE OF " + ftsColumns + " ON " + ProductEntry.TABLE_NAME;
+        String deleteOld = "DELETE FROM " + ProductEntry.FTS_TABLE_NAME
+                + " WHERE docid = old." + ProductEntry._ID + ";";
+        String insertNew = "INSERT INTO " + ProductEntry.FTS_TABLE_NAME + " (docid, " + ftsColumns
+                + ") VALUES (new." + ProductEntry._ID + ", " + newValues + ");";
+        db.execSQL("CREATE TRIGGER products_fts_before_update BEFORE " + updateOfFtsColumns
+                + " BEGIN " + deleteOld + " END;");
+        db.execSQL("CREATE TRIGGER products_fts_before_delete BEFORE DELETE ON "
+                + ProductEntry.TABLE_NAME + " BEGIN " + deleteOld + " END;");
+        db.execSQL("CREATE TRIGGER products_fts_after_update AFTER " + updateOfFtsColumns
+                + " BEGIN " + insertNew + " END;");
+        db.execSQL("CREATE TRIGGER products_fts_after_insert AFTER INSERT ON "
+                + ProductEntry.TABLE_NAME + " BEGIN " + insertNew + " END;");
+    }
+
+    /**
+     * Move the supplier name, email and phone number of the products into a suppliers table with
+     * one row per distinct supplier, and replace them in the products table with a supplier_id
+     * foreign key. SQLite cannot drop columns, so the products table is rebuilt, keeping the
+     * product IDs, and its indexes and FTS triggers are created again. Finally, create the view
+     * that joins the products with their supplier.
+     */
+    private static void normalizeSuppliers(SQLiteDatabase db) {
+        String supplierColumns = SupplierEntry.COLUMN_SUPPLIER_NAME + ", "
+                + SupplierEntry.COLUMN_SUPPLIER_EMAIL + ", "
+                + SupplierEntry.COLUMN_SUPPLIER_PHONE;
+        String productColumns = ProductEntry._ID + ", "
+                + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                + ProductEntry.COLUMN_PRODUCT_AUTHOR + ", "
+                + ProductEntry.COLUMN_PRODUCT_PUBLISHER + ", "
+                + ProductEntry.COLUMN_PRODUCT_ISBN + ", "
+                + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+                + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", "
+                + ProductEntry.COLUMN_PRODUCT_IMAGE;
+        String newTable = ProductEntry.TABLE_NAME + "_new";
+
+        // Create the suppliers table with one row for each distinct supplier of the products
+        db.execSQL("CREATE TABLE " + SupplierEntry.TABLE_NAME + " ("
+                + SupplierEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + SupplierEntry.COLUMN_SUPPLIER_NAME + " TEXT NOT NULL, "
+                + SupplierEntry.COLUMN_SUPPLIER_EMAIL + " TEXT, "
+                + SupplierEntry.COLUMN_SUPPLIER_PHONE + " TEXT NOT NULL);");
+        db.execSQL("INSERT INTO " + SupplierEntry.TABLE_NAME + " (" + supplierColumns + ") "
+                + "SELECT DISTINCT " + supplierColumns + " FROM " + ProductEntry.TABLE_NAME + ";");
+
+        // Copy the products into a new table that refers to the suppliers by ID
+        db.execSQL("CREATE TABLE " + newTable + " ("
+                + ProductEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + ProductEntry.COLUMN_PRODUCT_NAME + " TEXT NOT NULL, "
+                + ProductEntry.COLUMN_PRODUCT_AUTHOR + " TEXT NOT NULL, "
+                + ProductEntry.COLUMN_PRODUCT_PUBLISHER + " TEXT, "
+                + ProductEntry.COLUMN_PRODUCT_ISBN + " TEXT NOT NULL, "
+                + ProductEntry.COLUMN_PRODUCT_PRICE + " REAL NOT NULL DEFAULT 0.0, "
+                + ProductEntry.COLUMN_PRODUCT_QUANTITY + " INTEGER NOT NULL DEFAULT 0, "
+                + ProductEntry.COLUMN_PRODUCT_IMAGE + " TEXT, "
+                + ProductEntry.COLUMN_SUPPLIER_ID + " INTEGER NOT NULL REFERENCES "
+                + SupplierEntry.TABLE_NAME + "(" + SupplierEntry._ID + "));");
+        db.execSQL("INSERT INTO " + newTable + " (" + productColumns + ", "
+                + ProductEntry.COLUMN_SUPPLIER_ID + ") "
+                + "SELECT p." + productColumns.replace(", ", ", p.") + ", s." + SupplierEntry._ID
+                + " FROM " + ProductEntry.TABLE_NAME + " p JOIN " + SupplierEntry.TABLE_NAME + " s"
+                + " ON s." + SupplierEntry.COLUMN_SUPPLIER_NAME + " = p." + ProductEntry.COLUMN_SUPPLIER_NAME
+                + " AND s." + SupplierEntry.COLUMN_SUPPLIER_PHONE + " = p." + ProductEntry.COLUMN_SUPPLIER_PHONE
+                + " AND s." + SupplierEntry.COLUMN_SUPPLIER_EMAIL + " IS p." + ProductEntry.COLUMN_SUPPLIER_EMAIL
+                + ";");
+
+        // Replace the old products table, which also drops its indexes and triggers
+        db.execSQL("DROP TABLE " + ProductEntry.TABLE_NAME + ";");
+        db.execSQL("ALTER TABLE " + newTable + " RENAME TO " + ProductEntry.TABLE_NAME + ";");
+
+        db.execSQL(createIndex(INDEX_PRODUCT_ISBN, ProductEntry.COLUMN_PRODUCT_ISBN));
+        db.execSQL(createIndex(INDEX_PRODUCT_NAME, ProductEntry.COLUMN_PRODUCT_NAME));
+        db.execSQL(createIndex(INDEX_PRODUCT_AUTHOR, ProductEntry.COLUMN_PRODUCT_AUTHOR));
+        db.execSQL(createIndex(INDEX_PRODUCT_SUPPLIER_ID, ProductEntry.COLUMN_SUPPLIER_ID));
+        db.execSQL("CREATE INDEX " + INDEX_SUPPLIER_LOOKUP + " ON " + SupplierEntry.TABLE_NAME
+                + " (" + SupplierEntry.COLUMN_SUPPLIER_NAME + ");");
+
+        // The FTS table is untouched because the product IDs did not change
+        createFtsTriggers(db);
+
+        // Join every product with the name, email and phone number of its supplier
+        db.execSQL("CREATE VIEW " + ProductEntry.VIEW_WITH_SUPPLIER_NAME + " AS SELECT "
+                + ProductEntry.TABLE_NAME + ".*, " + supplierColumns
+                + " FROM " + ProductEntry.TABLE_NAME + " JOIN " + SupplierEntry.TABLE_NAME
+                + " ON " + ProductEntry.TABLE_NAME + "." + ProductEntry.COLUMN_SUPPLIER_ID
+                + " = " + SupplierEntry.TABLE_NAME + "." + SupplierEntry._ID + ";");
+    }
+
+    /**
+     * Create the single row inventory stats table with the totals of the existing products, and
+     * the triggers that apply the change of every product insert, update and delete to the totals.
+     * The totals are updated in the same transaction as the products, so they are always current.
+     */
+    private static void createStatsTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + StatsEntry.TABLE_NAME + " ("
+                + StatsEntry._ID + " INTEGER PRIMARY KEY CHECK (" + StatsEntry._ID + " = "
+                + StatsEntry.ROW_ID + "), "
+                + StatsEntry.COLUMN_PRODUCT_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + StatsEntry.COLUMN_TOTAL_QUANTITY + " INTEGER NOT NULL DEFAULT 0, "
+                + StatsEntry.COLUMN_TOTAL_VALUE + " REAL NOT NULL DEFAULT 0.0, "
+                + StatsEntry.COLUMN_OUT_OF_STOCK_COUNT + " INTEGER NOT NULL DEFAULT 0);");
+        db.execSQL("INSERT INTO " + StatsEntry.TABLE_NAME + " (" + StatsEntry._ID + ", "
+                + STATS_COLUMNS + ") " + SQL_COMPUTE_STATS + ";");
+
+        db.execSQL("CREATE TRIGGER inventory_stats_after_insert AFTER INSERT ON "
+                + ProductEntry.TABLE_NAME + " BEGIN " + updateStats("+ 1", "new", "+") + " END;");
+        db.execSQL("CREATE TRIGGER inventory_stats_after_delete AFTER DELETE ON "
+                + ProductEntry.TABLE_NAME + " BEGIN " + updateStats("- 1", "old", "-") + " END;");
+        // Only price and quantity changes affect the totals, so other updates skip the trigger
+        db.execSQL("CREATE TRIGGER inventory_stats_after_update AFTER UPDATE OF "
+                + ProductEntry.COLUMN_PRODUCT_PRICE + ", " + ProductEntry.COLUMN_PRODUCT_QUANTITY
+                + " ON " + ProductEntry.TABLE_NAME + " BEGIN "
+                + updateStats("", "old", "-") + updateStats("", "new", "+") + " END;");
+    }
+
+    /**
+     * Returns the statement of a stats trigger that adds (operator "+") or subtracts (operator "-")
+     * the given row ("new" or "old") of the products table to or from the totals, and changes the
+     * product count by the given amount.
+     */
+    private static String updateStats(String countChange, String row, String operator) {
+        String quantity = row + "." + ProductEntry.COLUMN_PRODUCT_QUANTITY;
+        String price = row + "." + ProductEntry.COLUMN_PRODUCT_PRICE;
+        return "UPDATE " + StatsEntry.TABLE_NAME + " SET "
+                + StatsEntry.COLUMN_PRODUCT_COUNT + " = "
+                + StatsEntry.COLUMN_PRODUCT_COUNT + " " + countChange + ", "
+                + StatsEntry.COLUMN_TOTAL_QUANTITY + " = "
+                + StatsEntry.COLUMN_TOTAL_QUANTITY + " " + operator + " " + quantity + ", "
+                + StatsEntry.COLUMN_TOTAL_VALUE + " = "
+                + StatsEntry.COLUMN_TOTAL_VALUE + " " + operator + " " + price + " * " + quantity + ", "
+                + StatsEntry.COLUMN_OUT_OF_STOCK_COUNT + " = "
+                + StatsEntry.COLUMN_OUT_OF_STOCK_COUNT + " " + operator + " (" + quantity + " <= 0)"
+                + " WHERE " + StatsEntry._ID + " = " + StatsEntry.ROW_ID + ";";
+    }
+
+    /**
+     * Create the stock movements table, with an opening movement for the quantity of every
+     * existing product, and the triggers that log a movement for every new product, every
+     * change of the quantity of a product and every deleted product. The triggers run in the
+     * transaction of the change, so the ledger can not miss a change, whichever screen or URI
+     * made it. The movements of a deleted product stay in the ledger, so its past sales can still
+     * be reconstructed. Product IDs are never reused, so they are never mixed with the movements
+     * of a new product.
+     */
+    private static void createStockMovementsTable(SQLiteDatabase db) {
+        String movementColumns = StockMovementEntry.COLUMN_PRODUCT_ID + ", "
+                + StockMovementEntry.COLUMN_DELTA + ", "
+                + StockMovementEntry.COLUMN_QUANTITY + ", "
+                + StockMovementEntry.COLUMN_TIMESTAMP + ", "
+                + StockMovementEntry.COLUMN_MOVEMENT_COUNT;
+
+        db.execSQL("CREATE TABLE " + StockMovementEntry.TABLE_NAME + " ("
+                + StockMovementEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + StockMovementEntry.COLUMN_PRODUCT_ID + " INTEGER NOT NULL, "
+                + StockMovementEntry.COLUMN_DELTA + " INTEGER NOT NULL, "
+                + StockMovementEntry.COLUMN_QUANTITY + " INTEGER NOT NULL, "
+                + StockMovementEntry.COLUMN_TIMESTAMP + " INTEGER NOT NULL, "
+                + StockMovementEntry.COLUMN_MOVEMENT_COUNT + " INTEGER NOT NULL DEFAULT 1);");
+        db.execSQL("CREATE INDEX " + INDEX_MOVEMENT_PRODUCT + " ON " + StockMovementEntry.TABLE_NAME
+                + " (" + StockMovementEntry.COLUMN_PRODUCT_ID + ", "
+                + StockMovementEntry.COLUMN_TIMESTAMP + ");");
+
+        // The quantity of the existing products is their opening balance
+        db.execSQL("INSERT INTO " + StockMovementEntry.TABLE_NAME + " (" + movementColumns + ") "
+                + "SELECT " + ProductEntry._ID + ", " + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", "
+                + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", " + SQL_NOW_MILLIS + ", 1 FROM "
+                + ProductEntry.TABLE_NAME + ";");
+
+        String quantity = ProductEntry.COLUMN_PRODUCT_QUANTITY;
+        db.execSQL("CREATE TRIGGER stock_movements_after_insert AFTER INSERT ON "
+                + ProductEntry.TABLE_NAME + " BEGIN "
+                + "INSERT INTO " + StockMovementEntry.TABLE_NAME + " (" + movementColumns + ") "
+                + "VALUES (new." + ProductEntry._ID + ", new." + quantity + ", new." + quantity
+                + ", " + SQL_NOW_MILLIS + ", 1); END;");
+        db.execSQL("CREATE TRIGGER stock_movements_after_update AFTER UPDATE OF " + quantity
+                + " ON " + ProductEntry.TABLE_NAME
+                + " WHEN new." + quantity + " <> old." + quantity + " BEGIN "
+                + "INSERT INTO " + StockMovementEntry.TABLE_NAME + " (" + movementColumns + ") "
+                + "VALUES (new." + ProductEntry._ID + ", new." + quantity + " - old." + quantity
+                + ", new." + quantity + ", " + SQL_NOW_MILLIS + ", 1); END;");
+        // The stock that leaves with a deleted product is a final movement to a quantity of 0
+        db.execSQL("CREATE TRIGGER stock_movements_after_delete AFTER DELETE ON "
+                + ProductEntry.TABLE_NAME + " BEGIN "
+                + "INSERT INTO " + StockMovementEntry.TABLE_NAME + " (" + movementColumns + ") "
+                + "VALUES (old." + ProductEntry._ID + ", -old." + quantity + ", 0, "
+                + SQL_NOW_MILLIS + ", 1); END;");
+    }
+
+    /**
+     * Create the ISBN metadata table. The ISBN is unique, so a new lookup of an ISBN replaces
+     * the previous one, and the unique index serves the lookups by ISBN.
+     */
+    private static void createIsbnMetadataTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + IsbnMetadataEntry.TABLE_NAME + " ("
+                + IsbnMetadataEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + IsbnMetadataEntry.COLUMN_ISBN + " TEXT NOT NULL UNIQUE, "
+                + IsbnMetadataEntry.COLUMN_TITLE + " TEXT, "
+                + IsbnMetadataEntry.COLUMN_AUTHOR + " TEXT, "
+                + IsbnMetadataEntry.COLUMN_PUBLISHER + " TEXT, "
+                + IsbnMetadataEntry.COLUMN_FETCHED_AT + " INTEGER NOT NULL);");
+    }
+
+    /**
+     * Consistency check of the inventory stats table. Recompute the totals from all products,
+     * compare them with the totals maintained by the triggers, and replace the stored totals with
+     * the recomputed ones. This reads every product, so it is meant for diagnostics and tests.
+     *
+     * @return true if the stored totals matched the products
+     */
+    static boolean rebuildStats(SQLiteDatabase db) {
+        String compare = "SELECT s." + StatsEntry.COLUMN_PRODUCT_COUNT
+                + " = c." + StatsEntry.COLUMN_PRODUCT_COUNT
+                + " AND s." + StatsEntry.COLUMN_TOTAL_QUANTITY
+                + " = c." + StatsEntry.COLUMN_TOTAL_QUANTITY
+                + " AND ABS(s." + StatsEntry.COLUMN_TOTAL_VALUE
+                + " - c." + StatsEntry.COLUMN_TOTAL_VALUE + ") <= " + STATS_VALUE_TOLERANCE
+                + " AND s." + StatsEntry.COLUMN_OUT_OF_STOCK_COUNT
+                + " = c." + StatsEntry.COLUMN_OUT_OF_STOCK_COUNT
+                + " FROM " + StatsEntry.TABLE_NAME + " s, (" + SQL_COMPUTE_STATS + ") c";
+        db.beginTransaction();
+        try {
+            // A missing stats row is not consistent either
+            boolean consistent = DatabaseUtils.longForQuery(db,
+                    "SELECT IFNULL((" + compare + "), 0)", null) == 1;
+            db.execSQL("INSERT OR REPLACE INTO " + StatsEntry.TABLE_NAME + " ("
+                    + StatsEntry._ID + ", " + STATS_COLUMNS + ") " + SQL_COMPUTE_STATS + ";");
+            db.setTransactionSuccessful();
+            return consistent;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Run EXPLAIN QUERY PLAN for the given query and return the detail of every step of the plan,
+     * for example "SEARCH TABLE products USING INDEX index_products_isbn (isbn=?)".
+     */
+    @VisibleForTesting
+    static List<String> explainQueryPlan(SQLiteDatabase db, String sql, String[] selectionArgs) {
+        List<String> plan = new ArrayList<>();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        try {
+            int detailColumnIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detailColumnIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan;
+    }
+
+    /**
+     * Returns true if the given query plan scans the whole products table instead of using an
+     * index or the primary key.
+     */
+    @VisibleForTesting
+    static boolean isFullTableScan(List<String> plan) {
+        for (String detail : plan) {
+            if (detail.startsWith("SCAN") && !detail.contains("USING")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a readable form of the given query plan, one step per line.
+     */
+    static String describeQueryPlan(List<String> plan) {
+        return TextUtils.join("\n", plan);
     }
 }
@@ -1,16 +1,47 @@
 package com.example.android.inventory.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.Parcelable;
 import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
 import android.util.Log;
 
+import com.example.android.inventory.data.ProductContract.MetricsEntry;
+import com.example.android.inventory.data.ProductContract.IsbnMetadataEntry;
 import com.example.android.inventory.data.ProductContract.ProductEntry;
+import com.example.android.inventory.data.ProductContract.StatsEntry;
+import com.example.android.inventory.data.ProductContract.StockMovementEntry;
+import com.example.android.inventory.data.ProductContract.SupplierEntry;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * {@link ContentProvider} for Inventory app.
@@ -23,6 +54,39 @@ public class ProductProvider extends ContentProvider{
     /** URI matcher code for the content URI for a single product in the products table */
     private static final int PRODUCT_ID = 101;
 
+    /** URI matcher code for the content URI to adjust the quantity of a single product */
+    private static final int PRODUCT_ADJUST = 102;
+
+    /** URI matcher code for the content URI to search the products table */
+    private static final int PRODUCT_SEARCH = 103;
+
+    /** URI matcher code for the content URI for the products joined with their supplier */
+    private static final int PRODUCTS_WITH_SUPPLIER = 104;
+
+    /** URI matcher code for the content URI for a single product joined with its supplier */
+    private static final int PRODUCT_WITH_SUPPLIER_ID = 105;
+
+    /** URI matcher code for the content URI for the inventory totals */
+    private static final int PRODUCT_STATS = 106;
+
+    /** URI matcher code for the content URI for the stock movements of a single product */
+    private static final int PRODUCT_MOVEMENTS = 107;
+
+    /** URI matcher code for the content URI for the operation metrics */
+    private static final int PRODUCT_METRICS = 108;
+
+    /** URI matcher code for the content URI for the suppliers table */
+    private static final int SUPPLIERS = 200;
+
+    /** URI matcher code for the content URI for a single supplier in the suppliers table */
+    private static final int SUPPLIER_ID = 201;
+
+    /** URI matcher code for the content URI for the ISBN metadata table */
+    private static final int ISBN_METADATA = 300;
+
+    /** URI matcher code for the content URI for the metadata of a single ISBN */
+    private static final int ISBN_METADATA_ISBN = 301;
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -38,30 +102,243 @@ public class ProductProvider extends ContentProvider{
         sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_PRODUCT, PRODUCTS);
         sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
                 ProductContract.PATH_PRODUCT + "/#", PRODUCT_ID);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCT + "/#/" + ProductContract.PATH_ADJUST, PRODUCT_ADJUST);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCT + "/#/" + ProductContract.PATH_MOVEMENTS,
+                PRODUCT_MOVEMENTS);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCT + "/" + ProductContract.PATH_SEARCH, PRODUCT_SEARCH);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCT + "/" + ProductContract.PATH_STATS, PRODUCT_STATS);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCT + "/" + ProductContract.PATH_METRICS, PRODUCT_METRICS);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCT_WITH_SUPPLIER, PRODUCTS_WITH_SUPPLIER);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCT_WITH_SUPPLIER + "/#", PRODUCT_WITH_SUPPLIER_ID);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_SUPPLIER, SUPPLIERS);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_SUPPLIER + "/#", SUPPLIER_ID);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_ISBN_METADATA, ISBN_METADATA);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_ISBN_METADATA + "/*", ISBN_METADATA_ISBN);
     }
 
     /** Tag for the log messages */
     private static final String LOG_TAG = ProductProvider.class.getSimpleName();
 
+    /** Columns written by the compiled insert statement used for bulk inserts */
+    private static final String[] INSERT_COLUMNS = {
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_AUTHOR,
+            ProductEntry.COLUMN_PRODUCT_PUBLISHER,
+            ProductEntry.COLUMN_PRODUCT_ISBN,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_IMAGE,
+            ProductEntry.COLUMN_SUPPLIER_ID};
+
+    /** All columns of the products table, returned for products/# when there is no projection */
+    private static final String[] PRODUCT_COLUMNS = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_AUTHOR,
+            ProductEntry.COLUMN_PRODUCT_PUBLISHER,
+            ProductEntry.COLUMN_PRODUCT_ISBN,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_IMAGE,
+            ProductEntry.COLUMN_SUPPLIER_ID};
+
+    /** SQL statement to insert a single product, kept compiled in the {@link StatementCache} */
+    private static final String SQL_INSERT_PRODUCT = "INSERT INTO " + ProductEntry.TABLE_NAME
+            + " (" + TextUtils.join(", ", INSERT_COLUMNS) + ") VALUES ("
+            + TextUtils.join(", ", Collections.nCopies(INSERT_COLUMNS.length, "?")) + ");";
+
+    /**
+     * SQL statement to add a delta to the quantity of a single product. The row is left untouched
+     * if the new quantity would be negative.
+     */
+    private static final String SQL_ADJUST_QUANTITY = "UPDATE " + ProductEntry.TABLE_NAME
+            + " SET " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " = "
+            + ProductEntry.COLUMN_PRODUCT_QUANTITY + " + ?"
+            + " WHERE " + ProductEntry._ID + " = ?"
+            + " AND " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " + ? >= 0;";
+
+    /** SQL statement to set the quantity of a single product */
+    private static final String SQL_UPDATE_QUANTITY = "UPDATE " + ProductEntry.TABLE_NAME
+            + " SET " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " = ?"
+            + " WHERE " + ProductEntry._ID + " = ?;";
+
+    /** SQL statement to delete a single product */
+    private static final String SQL_DELETE_PRODUCT = "DELETE FROM " + ProductEntry.TABLE_NAME
+            + " WHERE " + ProductEntry._ID + " = ?;";
+
+    /** SQL query for the ID of the first product with a given ISBN */
+    private static final String SQL_FIND_BY_ISBN = "SELECT " + ProductEntry._ID + " FROM "
+            + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry.COLUMN_PRODUCT_ISBN + " = ?"
+            + " ORDER BY " + ProductEntry._ID + " LIMIT 1;";
+
+    /**
+     * Tables of the search query: the products joined with their full-text matches. The matches
+     * are ranked by their number of matching terms, which is the number of integers in the
+     * offsets() of the match divided by 4.
+     */
+    private static final String SEARCH_TABLES = ProductEntry.TABLE_NAME + " JOIN (SELECT docid, "
+            + "(length(offsets(" + ProductEntry.FTS_TABLE_NAME + ")) - length(replace(offsets("
+            + ProductEntry.FTS_TABLE_NAME + "), ' ', '')) + 1) / 4 AS rank FROM "
+            + ProductEntry.FTS_TABLE_NAME + " WHERE " + ProductEntry.FTS_TABLE_NAME
+            + " MATCH ?) AS matches ON " + ProductEntry.TABLE_NAME + "." + ProductEntry._ID
+            + " = matches.docid";
+
+    /** Default sort order of the search results, the best matches first */
+    private static final String SEARCH_SORT_ORDER = "matches.rank DESC, "
+            + ProductEntry.COLUMN_PRODUCT_NAME;
+
+    /**
+     * Maximum number of changed URIs notified one by one after a batch. Larger batches notify
+     * the products URI once, so listeners reload everything instead of row by row.
+     */
+    private static final int MAX_ROW_NOTIFICATIONS = 20;
+
+    /**
+     * Default length of the window in which change notifications are gathered before they are
+     * sent, in milliseconds.
+     */
+    private static final long NOTIFICATION_WINDOW_MILLIS = 100;
+
+    /** Maximum number of product rows kept in the {@link ProductRowCache} */
+    private static final int ROW_CACHE_SIZE = 64;
+
+    /**
+     * Time between the creation of the provider and the first stock movement compaction, so it
+     * does not compete with the first queries of the app.
+     */
+    private static final long COMPACTION_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Argument prefix of {@link #dump} to set the threshold of the slow query log in milliseconds,
+     * for example "--slow-queries=50", or to disable it with "--slow-queries=off".
+     */
+    private static final String DUMP_ARG_SLOW_QUERIES = "--slow-queries=";
+
+    /** Argument of {@link #dump} to check the inventory stats against the products */
+    private static final String DUMP_ARG_CHECK_STATS = "--check-stats";
+
     /** Database helper object */
     private ProductDbHelper mDbHelper;
 
+    /** Opt-in log of the slow provider calls with their query plans */
+    private final SlowQueryLog mSlowQueryLog = new SlowQueryLog();
+
+    /** Latency and row counts of every provider call, exposed through {@link MetricsEntry} */
+    private final ProviderMetrics mMetrics = new ProviderMetrics();
+
+    /** Recently read single product rows, so opening a product again does not read the database */
+    private ProductRowCache mRowCache;
+
+    /**
+     * URIs whose change notifications are deferred until the batch running on the current thread
+     * is committed. Null when no batch is in progress.
+     */
+    private final ThreadLocal<Set<Uri>> mPendingNotifications = new ThreadLocal<>();
+
+    /** Sends one change notification per distinct URI for each burst of writes */
+    private CoalescingNotifier mNotifier;
+
+    /** True if the provider folds the old stock movements periodically */
+    private final boolean mCompactStockMovements;
+
+    /** Runs the stock movement compaction, null if it does not run */
+    private ScheduledExecutorService mCompactionExecutor;
+
+    /**
+     * Constructs the provider of the app database, as the system does.
+     */
+    public ProductProvider() {
+        mCompactStockMovements = true;
+    }
+
+    /**
+     * Constructs a provider of the database of the given helper, so tests and benchmarks can run
+     * the provider on a database of their own. Attach it with {@link #attachInfo}. The provider
+     * does not fold the stock movements, so nothing touches the database in the background while
+     * a test closes or deletes it.
+     */
+    @VisibleForTesting
+    ProductProvider(ProductDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+        mCompactStockMovements = false;
+    }
+
     /**
      * Initialize the provider and the database helper object.
      */
     @Override
     public boolean onCreate() {
-        // Create and initialize a ProductDbHelper object to gain access to the products database.
-        mDbHelper = new ProductDbHelper(getContext());
+        // Create and initialize a ProductDbHelper object to gain access to the products database,
+        // unless a test gave the provider a database of its own.
+        if (mDbHelper == null) {
+            mDbHelper = new ProductDbHelper(getContext());
+        }
+        mNotifier = new CoalescingNotifier(getContext().getContentResolver(),
+                ProductEntry.CONTENT_URI, NOTIFICATION_WINDOW_MILLIS);
+        mRowCache = new ProductRowCache(ROW_CACHE_SIZE);
+        if (mCompactStockMovements) {
+            // Fold the old stock movements away from the main thread, soon after the start and
+            // then once a day, since the process of the provider may live for days
+            mCompactionExecutor = Executors.newSingleThreadScheduledExecutor();
+            mCompactionExecutor.scheduleWithFixedDelay(new StockMovementCompactor(mDbHelper),
+                    COMPACTION_DELAY_MILLIS, StockMovementCompactor.PERIOD_MILLIS,
+                    TimeUnit.MILLISECONDS);
+        }
         return true;
     }
 
+    /**
+     * Stop the stock movement compaction. Only called by tests, the system never shuts down a
+     * provider.
+     */
+    @Override
+    public void shutdown() {
+        if (mCompactionExecutor != null) {
+            mCompactionExecutor.shutdownNow();
+            mCompactionExecutor = null;
+        }
+        super.shutdown();
+    }
+
     /**
      * Perform the query for the given URI. Use the given projection, selection, selection arguments, and sort order.
      */
     @Override
     public Cursor query(@NonNull Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        long start = System.nanoTime();
+        int rowCount = -1;
+        try {
+            Cursor cursor = queryUri(uri, projection, selection, selectionArgs, sortOrder);
+            // Count the rows now, which runs the query, so the time includes it. The caller would
+            // count them right away anyway.
+            rowCount = cursor.getCount();
+            if (mSlowQueryLog.isEnabled()) {
+                mSlowQueryLog.record(mDbHelper.getReadableDatabase(), "query",
+                        sUriMatcher.match(uri), uri, selection, rowCount, start);
+            }
+            return cursor;
+        } finally {
+            mMetrics.record("query", matchName(sUriMatcher.match(uri)), start, rowCount);
+            mSlowQueryLog.clearStatement();
+        }
+    }
+
+    /**
+     * Perform the query for the given URI, without timing it.
+     */
+    private Cursor queryUri(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                            String sortOrder) {
         // Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
@@ -75,9 +352,25 @@ public class ProductProvider extends ContentProvider{
                 // For the PRODUCTS code, query the products table directly with the given
                 // projection, selection, selection arguments, and sort order. The cursor
                 // could contain multiple rows of the products table.
+                // If the URI has an "after_id" query parameter, only return the products after
+                // that _id in _id order, so the list can be read one page at a time.
+                String afterId = uri.getQueryParameter(ProductContract.QUERY_PARAMETER_AFTER_ID);
+                if (afterId != null) {
+                    selection = DatabaseUtils.concatenateWhere(selection, ProductEntry._ID + ">?");
+                    selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                            new String[] { String.valueOf(Long.parseLong(afterId)) });
+                    if (sortOrder == null) {
+                        sortOrder = ProductEntry._ID + " ASC";
+                    }
+                }
+                // If the URI has a "limit" query parameter, return at most that many products
+                String limit = uri.getQueryParameter(ProductContract.QUERY_PARAMETER_LIMIT);
+                if (limit != null) {
+                    limit = String.valueOf(Integer.parseInt(limit));
+                }
                 // Perform database query on products table
-                cursor = database.query(ProductEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                cursor = queryTable(database, ProductEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, sortOrder, limit);
                 break;
             case PRODUCT_ID:
                 // For the PRODUCT_ID code, extract out the ID from the URI.
@@ -88,13 +381,75 @@ public class ProductProvider extends ContentProvider{
                 // For every "?" in the selection, we need to have an element in the selection
                 // arguments that will fill in the "?". Since we have 1 question mark in the
                 // selection, we have 1 String in the selection arguments' String array.
-                selection = ProductEntry._ID + "=?";
+                //
+                // The row is served from the row cache when possible.
+                cursor = queryProductRow(database, ProductEntry.TABLE_NAME, ContentUris.parseId(uri),
+                        projection == null ? PRODUCT_COLUMNS : projection);
+                break;
+            case PRODUCT_SEARCH:
+                cursor = searchProducts(database, uri, projection, selection, selectionArgs,
+                        sortOrder);
+                // Search results change whenever any product changes, so listen to all products
+                uri = ProductEntry.CONTENT_URI;
+                break;
+            case PRODUCTS_WITH_SUPPLIER:
+                // Query the view that joins every product with its supplier
+                cursor = queryTable(database, ProductEntry.VIEW_WITH_SUPPLIER_NAME, projection,
+                        selection, selectionArgs, sortOrder, null);
+                // The rows change whenever any product changes, so listen to all products
+                uri = ProductEntry.CONTENT_URI;
+                break;
+            case PRODUCT_WITH_SUPPLIER_ID:
+                // Query the view for a single product, as for the PRODUCT_ID code
+                long productId = ContentUris.parseId(uri);
+                cursor = queryProductRow(database, ProductEntry.VIEW_WITH_SUPPLIER_NAME, productId,
+                        projection);
+                // The row changes whenever the product changes, so listen to the product URI
+                uri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, productId);
+                break;
+            case PRODUCT_STATS:
+                // Read the single row of totals, which the triggers keep up to date
+                cursor = queryTable(database, StatsEntry.TABLE_NAME, projection, null, null,
+                        null, null);
+                // The totals change whenever any product changes, so listen to all products
+                uri = ProductEntry.CONTENT_URI;
+                break;
+            case PRODUCT_METRICS:
+                // The metrics are kept in memory, so there is nothing to read from the database
+                cursor = mMetrics.toCursor(getCounters());
+                break;
+            case PRODUCT_MOVEMENTS:
+                // Read the stock movements of the product with the ID in the URI, oldest first
+                long movementsProductId = Long.parseLong(uri.getPathSegments().get(1));
+                selection = DatabaseUtils.concatenateWhere(selection,
+                        StockMovementEntry.COLUMN_PRODUCT_ID + "=?");
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                        new String[] { String.valueOf(movementsProductId) });
+                if (TextUtils.isEmpty(sortOrder)) {
+                    sortOrder = StockMovementEntry.COLUMN_TIMESTAMP + " ASC, "
+                            + StockMovementEntry._ID + " ASC";
+                }
+                cursor = queryTable(database, StockMovementEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, sortOrder, null);
+                // Movements are written with the quantity changes, so listen to the product URI
+                uri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, movementsProductId);
+                break;
+            case SUPPLIERS:
+                cursor = queryTable(database, SupplierEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, sortOrder, null);
+                break;
+            case SUPPLIER_ID:
+                selection = SupplierEntry._ID + "=?";
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-
-                // This will perform a query on the products table where the _id equals 3 to
-                // return a Cursor containing that row of the table.
-                cursor = database.query(ProductEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                cursor = queryTable(database, SupplierEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, sortOrder, null);
+                break;
+            case ISBN_METADATA_ISBN:
+                // Read the metadata of the ISBN in the URI, using the unique index on the ISBN
+                selection = IsbnMetadataEntry.COLUMN_ISBN + "=?";
+                selectionArgs = new String[] { uri.getLastPathSegment() };
+                cursor = queryTable(database, IsbnMetadataEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, sortOrder, null);
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
@@ -109,6 +464,206 @@ public class ProductProvider extends ContentProvider{
         return cursor;
     }
 
+    /**
+     * Apply the given operations inside a single transaction on the writable database. The
+     * operations either all succeed or all fail, except that an operation marked with
+     * {@link ContentProviderOperation#isYieldAllowed()} lets other threads use the database
+     * between operations. Change notifications raised by the operations are merged into one set
+     * of unique URIs and sent once the transaction is committed.
+     *
+     * A yield commits the operations before it, so the URIs they changed are sent at the yield:
+     * if a later operation fails, only the operations after the last yield are rolled back, and
+     * the listeners of the committed ones are not left stale.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        // Get writable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // Collect the changed URIs instead of notifying for every operation
+        Set<Uri> pendingNotifications = new LinkedHashSet<>();
+        mPendingNotifications.set(pendingNotifications);
+
+        final int numOperations = operations.size();
+        final ContentProviderResult[] results = new ContentProviderResult[numOperations];
+        boolean committed = false;
+        long start = System.nanoTime();
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < numOperations; i++) {
+                ContentProviderOperation operation = operations.get(i);
+                // Give other threads a chance to use the database at the yield points
+                if (i > 0 && operation.isYieldAllowed() && database.yieldIfContendedSafely()) {
+                    // The operations so far were committed by the yield
+                    sendNotifications(pendingNotifications);
+                }
+                results[i] = operation.apply(this, results, i);
+            }
+            database.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            database.endTransaction();
+            mPendingNotifications.remove();
+            // Rows read inside a rolled back batch may have been cached with its changes
+            if (!committed) {
+                mRowCache.invalidateAll();
+            }
+            mMetrics.recordTransaction(committed);
+            mMetrics.record("applyBatch", "batch", start, committed ? numOperations : -1);
+        }
+
+        // The batch has been committed, so notify all listeners once for each changed URI.
+        sendNotifications(pendingNotifications);
+
+        return results;
+    }
+
+    /**
+     * Send the given change notifications of committed operations of a batch, and clear them.
+     * If too many rows changed, a single notification for all products is cheaper for the
+     * listeners than reading every changed row.
+     */
+    private void sendNotifications(Set<Uri> pendingNotifications) {
+        if (pendingNotifications.size() > MAX_ROW_NOTIFICATIONS) {
+            invalidateCachedRows(ProductEntry.CONTENT_URI);
+            mNotifier.notifyChange(ProductEntry.CONTENT_URI);
+        } else {
+            for (Uri uri : pendingNotifications) {
+                invalidateCachedRows(uri);
+                mNotifier.notifyChange(uri);
+            }
+        }
+        pendingNotifications.clear();
+        // The changes are committed, so there is no reason to wait for the window to close
+        mNotifier.flush();
+    }
+
+    /**
+     * Return the given columns of the product with the given ID. The row is served from the
+     * {@link ProductRowCache} if it is cached. Otherwise the whole row, joined with its supplier,
+     * is read and cached, so the next query for this product does not read the database.
+     *
+     * @param table to read the columns from if they are not all in the cached row
+     */
+    private Cursor queryProductRow(SQLiteDatabase database, String table, long id,
+                                   String[] projection) {
+        Cursor cursor = mRowCache.get(id, projection);
+        if (cursor != null) {
+            return cursor;
+        }
+
+        String selection = ProductEntry._ID + "=?";
+        String[] selectionArgs = { String.valueOf(id) };
+
+        // Read the generation before the row, so a write during the read is not cached
+        long generation = mRowCache.getGeneration();
+        Cursor row = queryTable(database, ProductEntry.VIEW_WITH_SUPPLIER_NAME, null, selection,
+                selectionArgs, null, null);
+        try {
+            cursor = mRowCache.load(id, row, generation, projection);
+        } finally {
+            row.close();
+        }
+
+        if (cursor == null) {
+            // The product does not exist, or the projection has a column that is not in the row,
+            // so answer from the database as usual
+            cursor = queryTable(database, table, projection, selection, selectionArgs, null, null);
+        }
+        return cursor;
+    }
+
+    /**
+     * Search the products for the text in the "q" query parameter of the given URI, using the
+     * full-text search table. Each word of the text matches as a prefix, so "lit pri" finds
+     * "The Little Prince". If there is no text to search for, all products are returned.
+     */
+    private Cursor searchProducts(SQLiteDatabase database, Uri uri, String[] projection,
+                                  String selection, String[] selectionArgs, String sortOrder) {
+        String matchQuery = buildMatchQuery(
+                uri.getQueryParameter(ProductContract.QUERY_PARAMETER_SEARCH));
+        if (matchQuery == null) {
+            return queryTable(database, ProductEntry.TABLE_NAME, projection, selection,
+                    selectionArgs, sortOrder, null);
+        }
+
+        // The MATCH argument comes first, because the tables come before the selection
+        String[] searchArgs;
+        if (selectionArgs == null) {
+            searchArgs = new String[] { matchQuery };
+        } else {
+            searchArgs = new String[selectionArgs.length + 1];
+            searchArgs[0] = matchQuery;
+            System.arraycopy(selectionArgs, 0, searchArgs, 1, selectionArgs.length);
+        }
+
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(SEARCH_TABLES);
+        projection = qualify(projection);
+        if (sortOrder == null) {
+            sortOrder = SEARCH_SORT_ORDER;
+        }
+        if (mSlowQueryLog.isEnabled()) {
+            mSlowQueryLog.setStatement(builder.buildQuery(projection, selection, null, null,
+                    sortOrder, null), searchArgs);
+        }
+        return builder.query(database, projection, selection, searchArgs, null, null, sortOrder);
+    }
+
+    /**
+     * Query the given table or view, like {@link SQLiteDatabase#query}. While the slow query log
+     * is enabled, the SQL of the query is kept for its query plan.
+     */
+    private Cursor queryTable(SQLiteDatabase database, String table, String[] projection,
+                              String selection, String[] selectionArgs, String sortOrder,
+                              String limit) {
+        if (mSlowQueryLog.isEnabled()) {
+            mSlowQueryLog.setStatement(SQLiteQueryBuilder.buildQueryString(false, table, projection,
+                    selection, null, null, sortOrder, limit), selectionArgs);
+        }
+        return database.query(table, projection, selection, selectionArgs, null, null, sortOrder,
+                limit);
+    }
+
+    /**
+     * Build the FTS MATCH expression for the given search text, where each word is a prefix
+     * query. Returns null if the text contains no words.
+     */
+    private static String buildMatchQuery(String text) {
+        if (text == null) {
+            return null;
+        }
+        StringBuilder matchQuery = new StringBuilder();
+        // Keep only letters and digits, so the text cannot inject FTS operators or syntax errors
+        for (String word : text.split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (matchQuery.length() > 0) {
+                matchQuery.append(' ');
+            }
+            matchQuery.append(word).append('*');
+        }
+        return matchQuery.length() == 0 ? null : matchQuery.toString();
+    }
+
+    /**
+     * Qualify the given projection with the products table name, so columns of the search
+     * table cannot be ambiguous. Returns null for a null projection, which selects all columns.
+     */
+    private static String[] qualify(String[] projection) {
+        if (projection == null) {
+            return new String[] { ProductEntry.TABLE_NAME + ".*" };
+        }
+        String[] qualified = new String[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            qualified[i] = ProductEntry.TABLE_NAME + "." + projection[i] + " AS " + projection[i];
+        }
+        return qualified;
+    }
+
     /**
      * Returns the MIME type of data for the content URI.
      */
@@ -117,9 +672,27 @@ public class ProductProvider extends ContentProvider{
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PRODUCTS:
+            case PRODUCT_SEARCH:
+            case PRODUCTS_WITH_SUPPLIER:
                 return ProductEntry.CONTENT_LIST_TYPE;
             case PRODUCT_ID:
+            case PRODUCT_ADJUST:
+            case PRODUCT_WITH_SUPPLIER_ID:
                 return ProductEntry.CONTENT_ITEM_TYPE;
+            case PRODUCT_STATS:
+                return StatsEntry.CONTENT_ITEM_TYPE;
+            case PRODUCT_MOVEMENTS:
+                return StockMovementEntry.CONTENT_LIST_TYPE;
+            case PRODUCT_METRICS:
+                return MetricsEntry.CONTENT_LIST_TYPE;
+            case SUPPLIERS:
+                return SupplierEntry.CONTENT_LIST_TYPE;
+            case SUPPLIER_ID:
+                return SupplierEntry.CONTENT_ITEM_TYPE;
+            case ISBN_METADATA:
+                return IsbnMetadataEntry.CONTENT_LIST_TYPE;
+            case ISBN_METADATA_ISBN:
+                return IsbnMetadataEntry.CONTENT_ITEM_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
@@ -131,10 +704,34 @@ public class ProductProvider extends ContentProvider{
      */
     @Override
     public Uri insert(@NonNull Uri uri, ContentValues contentValues) {
+        long start = System.nanoTime();
+        int rowCount = -1;
+        try {
+            Uri newUri = insertUri(uri, contentValues);
+            rowCount = newUri == null ? 0 : 1;
+            if (mSlowQueryLog.isEnabled()) {
+                mSlowQueryLog.record(mDbHelper.getWritableDatabase(), "insert",
+                        sUriMatcher.match(uri), uri, null, rowCount, start);
+            }
+            return newUri;
+        } finally {
+            mMetrics.record("insert", matchName(sUriMatcher.match(uri)), start, rowCount);
+            mSlowQueryLog.clearStatement();
+        }
+    }
+
+    /**
+     * Insert new data into the provider with the given ContentValues, without timing it.
+     */
+    private Uri insertUri(Uri uri, ContentValues contentValues) {
         final int match = sUriMatcher.match(uri);
         switch(match) {
             case PRODUCTS:
                 return insertProduct(uri, contentValues);
+            case SUPPLIERS:
+                return insertSupplier(uri, contentValues);
+            case ISBN_METADATA:
+                return insertIsbnMetadata(uri, contentValues);
             default:
                 throw new IllegalArgumentException("Insertion is not supported for " + uri);
         }
@@ -145,6 +742,180 @@ public class ProductProvider extends ContentProvider{
      * for that specific row in the database.
      */
     private Uri insertProduct(Uri uri, ContentValues values) {
+        // Check that the product values are valid
+        validateProduct(values);
+
+        // Get writable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // The supplier and the product are written together, and notified once committed
+        Set<Uri> deferredNotifications = beginDeferredNotifications();
+        boolean committed = false;
+        database.beginTransaction();
+        try {
+            // Link the product to the supplier with the given details
+            values = resolveSupplier(database, values, null, null);
+
+            // Insert the new product with the given values, using the cached compiled statement
+            SQLiteStatement statement =
+                    mDbHelper.getStatementCache().get(database, SQL_INSERT_PRODUCT);
+            long id;
+            try {
+                synchronized (statement) {
+                    bindProduct(statement, values);
+                    id = statement.executeInsert();
+                }
+            } catch (SQLException e) {
+                // The insertion failed. Log an error and return null, which rolls back the
+                // supplier inserted for the product.
+                Log.e(LOG_TAG, "Failed to insert row for " + uri, e);
+                return null;
+            }
+
+            // Return the new URI with the ID (of the newly inserted row) append at the end
+            Uri newUri = ContentUris.withAppendedId(uri, id);
+
+            // Notify all listeners that the data has changed for the new product content URI, so
+            // they can read only that row
+            // newUri: content://com.example.android.inventory/products/3
+            notifyChange(newUri);
+
+            database.setTransactionSuccessful();
+            committed = true;
+            return newUri;
+        } finally {
+            database.endTransaction();
+            mMetrics.recordTransaction(committed);
+            endDeferredNotifications(deferredNotifications, committed);
+        }
+    }
+
+    /**
+     * Insert a batch of products in a single transaction. Every row is validated and bound to one
+     * reused compiled INSERT statement, and listeners are notified once after the batch is
+     * committed. A row that fails validation or cannot be written is logged and skipped, so it
+     * does not abort the rest of the batch. Returns the number of rows that were inserted. Use
+     * {@link ProductEntry#METHOD_BULK_INSERT} to also learn which rows failed.
+     */
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        final int match = sUriMatcher.match(uri);
+        if (match != PRODUCTS) {
+            throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+
+        long start = System.nanoTime();
+        int rowsInserted = -1;
+        try {
+            rowsInserted = bulkInsertProducts(uri, values, null);
+            return rowsInserted;
+        } finally {
+            mMetrics.record("bulkInsert", matchName(match), start, rowsInserted);
+        }
+    }
+
+    /**
+     * Insert the given products into the database using one transaction and the cached compiled
+     * statement. A row that fails takes back the supplier that was inserted for it.
+     *
+     * @param failedRows receives the indexes of the rows that were not inserted, or null
+     */
+    private int bulkInsertProducts(Uri uri, ContentValues[] values, List<Integer> failedRows) {
+        // Get writable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // Track the number of rows that were inserted
+        int rowsInserted = 0;
+
+        // IDs of the suppliers already resolved in this batch, by supplier details
+        Map<String, Long> supplierIds = new HashMap<>();
+
+        // The suppliers inserted for the batch are notified once it is committed
+        Set<Uri> deferredNotifications = beginDeferredNotifications();
+        boolean committed = false;
+        database.beginTransaction();
+        try {
+            SQLiteStatement statement =
+                    mDbHelper.getStatementCache().get(database, SQL_INSERT_PRODUCT);
+            // The suppliers inserted for the current row
+            List<Long> insertedSupplierIds = new ArrayList<>(1);
+            for (int i = 0; i < values.length; i++) {
+                insertedSupplierIds.clear();
+                try {
+                    validateProduct(values[i]);
+                    ContentValues row = resolveSupplier(database, values[i], supplierIds,
+                            insertedSupplierIds);
+                    // Only bind and execute under the statement lock, not the supplier lookups
+                    synchronized (statement) {
+                        bindProduct(statement, row);
+                        statement.executeInsert();
+                    }
+                    rowsInserted++;
+                } catch (IllegalArgumentException | SQLException e) {
+                    // Report the failed row and carry on with the rest of the batch
+                    Log.e(LOG_TAG, "Failed to insert row " + i + " for " + uri, e);
+                    if (failedRows != null) {
+                        failedRows.add(i);
+                    }
+                    // SQLiteDatabase has no savepoints, since a failed nested transaction fails
+                    // the whole batch, so the supplier of the row is deleted by hand instead
+                    if (!insertedSupplierIds.isEmpty()) {
+                        supplierIds.values().removeAll(insertedSupplierIds);
+                        deleteUnusedSuppliers(database, insertedSupplierIds);
+                    }
+                }
+            }
+            database.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            database.endTransaction();
+            mMetrics.recordTransaction(committed);
+            endDeferredNotifications(deferredNotifications, committed);
+        }
+
+        // If 1 or more rows were inserted, notify all listeners once for the whole batch.
+        // The transaction has ended, so there is no reason to wait for the window to close.
+        if (rowsInserted != 0) {
+            notifyChange(uri);
+            mNotifier.flush();
+        }
+
+        // Return the number of rows inserted
+        return rowsInserted;
+    }
+
+    /**
+     * Bind the given product values to the compiled {@link #SQL_INSERT_PRODUCT} statement.
+     * Columns that are missing from the values are bound as NULL or their table default.
+     */
+    private static void bindProduct(SQLiteStatement statement, ContentValues values) {
+        statement.clearBindings();
+        for (int i = 0; i < INSERT_COLUMNS.length; i++) {
+            // Bind arguments are 1-indexed
+            int index = i + 1;
+            Object value = values.get(INSERT_COLUMNS[i]);
+            if (value == null) {
+                if (INSERT_COLUMNS[i].equals(ProductEntry.COLUMN_PRODUCT_QUANTITY)) {
+                    // Keep the same default as the products table
+                    statement.bindLong(index, 0);
+                } else {
+                    statement.bindNull(index);
+                }
+            } else if (value instanceof Integer || value instanceof Long) {
+                statement.bindLong(index, ((Number) value).longValue());
+            } else if (value instanceof Float || value instanceof Double) {
+                statement.bindDouble(index, ((Number) value).doubleValue());
+            } else {
+                statement.bindString(index, value.toString());
+            }
+        }
+    }
+
+    /**
+     * Check that the given content values describe a valid product. Throws an
+     * {@link IllegalArgumentException} naming the first invalid attribute.
+     */
+    private static void validateProduct(ContentValues values) {
         // Check that the product name is not null
         String name = values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME);
         if (name == null) {
@@ -174,7 +945,15 @@ public class ProductProvider extends ContentProvider{
         }
         // No need to check the image, any value is valid
 
-        // Check that the supplier name is valid
+        // If the supplier ID is provided, check that it's not null
+        if (values.containsKey(ProductEntry.COLUMN_SUPPLIER_ID)) {
+            if (values.getAsLong(ProductEntry.COLUMN_SUPPLIER_ID) == null) {
+                throw new IllegalArgumentException("Product requires a valid supplier");
+            }
+            return;
+        }
+
+        // Otherwise, check that the supplier name is valid
         String supplierName = values.getAsString(ProductEntry.COLUMN_SUPPLIER_NAME);
         if (supplierName == null) {
             throw new IllegalArgumentException("Product requires a supplier name");
@@ -186,12 +965,145 @@ public class ProductProvider extends ContentProvider{
         if (supplierPhone == null) {
             throw new IllegalArgumentException("Product requires supplier phone number");
         }
+    }
+
+    /**
+     * If the given product values contain supplier details, return a copy of the values where the
+     * details are replaced with the ID of the matching supplier. The supplier is inserted if there
+     * is no match yet. The supplier name and phone number are required together, since they
+     * identify the supplier. Returns the values unchanged if there are no supplier details.
+     *
+     * @param cache of the supplier IDs already resolved, by supplier details, or null
+     * @param insertedIds receives the ID of the supplier if it was inserted, or null
+     */
+    private ContentValues resolveSupplier(SQLiteDatabase database, ContentValues values,
+                                          Map<String, Long> cache, List<Long> insertedIds) {
+        if (!values.containsKey(ProductEntry.COLUMN_SUPPLIER_NAME)
+                && !values.containsKey(ProductEntry.COLUMN_SUPPLIER_EMAIL)
+                && !values.containsKey(ProductEntry.COLUMN_SUPPLIER_PHONE)) {
+            return values;
+        }
+
+        String name = values.getAsString(ProductEntry.COLUMN_SUPPLIER_NAME);
+        if (name == null) {
+            throw new IllegalArgumentException("Product requires a supplier name");
+        }
+        String phone = values.getAsString(ProductEntry.COLUMN_SUPPLIER_PHONE);
+        if (phone == null) {
+            throw new IllegalArgumentException("Product requires supplier phone number");
+        }
+        String email = values.getAsString(ProductEntry.COLUMN_SUPPLIER_EMAIL);
+
+        String key = name + '\u0000' + phone + '\u0000' + (email == null ? "" : '\u0000' + email);
+        Long supplierId = cache == null ? null : cache.get(key);
+        if (supplierId == null) {
+            supplierId = findOrInsertSupplier(database, name, email, phone, insertedIds);
+            if (cache != null) {
+                cache.put(key, supplierId);
+            }
+        }
+
+        ContentValues resolved = new ContentValues(values);
+        resolved.remove(ProductEntry.COLUMN_SUPPLIER_NAME);
+        resolved.remove(ProductEntry.COLUMN_SUPPLIER_EMAIL);
+        resolved.remove(ProductEntry.COLUMN_SUPPLIER_PHONE);
+        resolved.put(ProductEntry.COLUMN_SUPPLIER_ID, supplierId);
+        return resolved;
+    }
+
+    /**
+     * Return the ID of the supplier with exactly the given details, inserting the supplier if it
+     * does not exist yet. Called in the transaction of the product write, whose notifications are
+     * deferred until it is committed.
+     *
+     * @param insertedIds receives the ID of the supplier if it was inserted, or null
+     */
+    private long findOrInsertSupplier(SQLiteDatabase database, String name, String email,
+                                      String phone, List<Long> insertedIds) {
+        String selection = SupplierEntry.COLUMN_SUPPLIER_NAME + "=? AND "
+                + SupplierEntry.COLUMN_SUPPLIER_PHONE + "=? AND "
+                + SupplierEntry.COLUMN_SUPPLIER_EMAIL;
+        String[] selectionArgs;
+        if (email == null) {
+            selection += " IS NULL";
+            selectionArgs = new String[] { name, phone };
+        } else {
+            selection += "=?";
+            selectionArgs = new String[] { name, phone, email };
+        }
+
+        Cursor cursor = database.query(SupplierEntry.TABLE_NAME, new String[] { SupplierEntry._ID },
+                selection, selectionArgs, null, null, null, "1");
+        try {
+            if (cursor.moveToFirst()) {
+                return cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        ContentValues supplier = new ContentValues();
+        supplier.put(SupplierEntry.COLUMN_SUPPLIER_NAME, name);
+        supplier.put(SupplierEntry.COLUMN_SUPPLIER_EMAIL, email);
+        supplier.put(SupplierEntry.COLUMN_SUPPLIER_PHONE, phone);
+        long id = database.insertOrThrow(SupplierEntry.TABLE_NAME, null, supplier);
+        notifyChange(ContentUris.withAppendedId(SupplierEntry.CONTENT_URI, id));
+        if (insertedIds != null) {
+            insertedIds.add(id);
+        }
+        return id;
+    }
+
+    /**
+     * Return the distinct supplier IDs of the products matching the given selection.
+     */
+    private static List<Long> querySupplierIds(SQLiteDatabase database, String selection,
+                                               String[] selectionArgs) {
+        Cursor cursor = database.query(true, ProductEntry.TABLE_NAME,
+                new String[] { ProductEntry.COLUMN_SUPPLIER_ID }, selection, selectionArgs,
+                null, null, null, null);
+        try {
+            List<Long> supplierIds = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                if (!cursor.isNull(0)) {
+                    supplierIds.add(cursor.getLong(0));
+                }
+            }
+            return supplierIds;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Delete the suppliers with the given IDs that no product references anymore, so editing the
+     * supplier details of a product does not leave the previous supplier behind.
+     */
+    private void deleteUnusedSuppliers(SQLiteDatabase database, List<Long> supplierIds) {
+        for (long supplierId : supplierIds) {
+            String id = String.valueOf(supplierId);
+            int rowsDeleted = database.delete(SupplierEntry.TABLE_NAME, SupplierEntry._ID
+                    + "=? AND NOT EXISTS (SELECT 1 FROM " + ProductEntry.TABLE_NAME + " WHERE "
+                    + ProductEntry.COLUMN_SUPPLIER_ID + "=?)", new String[] { id, id });
+            if (rowsDeleted != 0) {
+                notifyChange(ContentUris.withAppendedId(SupplierEntry.CONTENT_URI, supplierId));
+            }
+        }
+    }
+
+    /**
+     * Insert a supplier into the database with the given content values. Return the new content URI
+     * for that specific row in the database.
+     */
+    private Uri insertSupplier(Uri uri, ContentValues values) {
+        // Check that the supplier name and phone number are valid
+        validateSupplier(values, true);
 
         // Get writable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        // Insert the new product with the given values
-        long id = database.insert(ProductEntry.TABLE_NAME, null, values);
+        // Insert the new supplier with the given values
+        long id = database.insert(SupplierEntry.TABLE_NAME, null, values);
 
         // If the ID is -1, then the insertion failed. Log an error and return null.
         if (id == -1) {
@@ -199,12 +1111,89 @@ public class ProductProvider extends ContentProvider{
             return null;
         }
 
-        // Notify all listeners that the data has changed for the product content URI
-        // uri: content://com.example.android.inventory/products
-        getContext().getContentResolver().notifyChange(uri, null);
+        Uri newUri = ContentUris.withAppendedId(uri, id);
+        notifyChange(newUri);
+        return newUri;
+    }
+
+    /**
+     * Insert the metadata of an ISBN into the database with the given content values, replacing
+     * the previous metadata of that ISBN. Return the content URI to read it.
+     */
+    private Uri insertIsbnMetadata(Uri uri, ContentValues values) {
+        // Check that the ISBN is valid
+        String isbn = values.getAsString(IsbnMetadataEntry.COLUMN_ISBN);
+        if (TextUtils.isEmpty(isbn)) {
+            throw new IllegalArgumentException("ISBN metadata requires an ISBN");
+        }
+        // The metadata was fetched now, unless told otherwise
+        if (values.getAsLong(IsbnMetadataEntry.COLUMN_FETCHED_AT) == null) {
+            values = new ContentValues(values);
+            values.put(IsbnMetadataEntry.COLUMN_FETCHED_AT, System.currentTimeMillis());
+        }
+
+        // Get writable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // Replace the previous metadata of the ISBN, if any
+        long id = database.insertWithOnConflict(IsbnMetadataEntry.TABLE_NAME, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE);
 
-        // Return the new URI with the ID (of the newly inserted row) append at the end
-        return ContentUris.withAppendedId(uri, id);
+        // If the ID is -1, then the insertion failed. Log an error and return null.
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        // The metadata is a cache of the lookups, which nothing observes, so no listener is
+        // notified.
+        return IsbnMetadataEntry.buildIsbnUri(isbn);
+    }
+
+    /**
+     * Check the supplier name and phone number in the given values. If required is false, only
+     * the values that are present are checked.
+     */
+    private static void validateSupplier(ContentValues values, boolean required) {
+        if (required || values.containsKey(SupplierEntry.COLUMN_SUPPLIER_NAME)) {
+            if (values.getAsString(SupplierEntry.COLUMN_SUPPLIER_NAME) == null) {
+                throw new IllegalArgumentException("Supplier requires a name");
+            }
+        }
+        // No need to check the email, any value is valid (including null).
+        if (required || values.containsKey(SupplierEntry.COLUMN_SUPPLIER_PHONE)) {
+            if (values.getAsString(SupplierEntry.COLUMN_SUPPLIER_PHONE) == null) {
+                throw new IllegalArgumentException("Supplier requires a phone number");
+            }
+        }
+    }
+
+    /**
+     * Update the suppliers specified in the selection and selection arguments. Renaming a supplier
+     * is a single row write, which all of its products see through the supplier join.
+     * Return the number of rows that were successfully updated.
+     */
+    private int updateSupplier(Uri uri, ContentValues values, String selection,
+                               String[] selectionArgs) {
+        // Check that the values that are present are valid
+        validateSupplier(values, false);
+
+        // If there are no values to update, then don't try to update the database
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        // Get writable database to update the data
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        mSlowQueryLog.setWhere(SupplierEntry.TABLE_NAME, selection, selectionArgs);
+        int rowsUpdated = database.update(SupplierEntry.TABLE_NAME, values, selection, selectionArgs);
+
+        // The joined product data changed as well, so notify the listeners of the products too
+        if (rowsUpdated != 0) {
+            notifyChange(uri);
+            notifyChange(ProductEntry.CONTENT_URI);
+        }
+        return rowsUpdated;
     }
 
     /**
@@ -212,6 +1201,25 @@ public class ProductProvider extends ContentProvider{
      */
     @Override
     public int delete(@NonNull Uri uri, String selection, String[] selectionArgs) {
+        long start = System.nanoTime();
+        int rowsDeleted = -1;
+        try {
+            rowsDeleted = deleteUri(uri, selection, selectionArgs);
+            if (mSlowQueryLog.isEnabled()) {
+                mSlowQueryLog.record(mDbHelper.getWritableDatabase(), "delete",
+                        sUriMatcher.match(uri), uri, selection, rowsDeleted, start);
+            }
+            return rowsDeleted;
+        } finally {
+            mMetrics.record("delete", matchName(sUriMatcher.match(uri)), start, rowsDeleted);
+            mSlowQueryLog.clearStatement();
+        }
+    }
+
+    /**
+     * Delete the data at the given selection and selection arguments, without timing it.
+     */
+    private int deleteUri(Uri uri, String selection, String[] selectionArgs) {
        // Get writable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
@@ -222,13 +1230,42 @@ public class ProductProvider extends ContentProvider{
         switch (match) {
             case PRODUCTS:
                 // Delete all rows that match the selection and selection args
+                mSlowQueryLog.setWhere(ProductEntry.TABLE_NAME, selection, selectionArgs);
                 rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             case PRODUCT_ID:
-                // Delete a single row given by the ID in the URI
-                selection = ProductEntry._ID + "=?";
+                // Delete a single row given by the ID in the URI, using the cached statement
+                SQLiteStatement statement =
+                        mDbHelper.getStatementCache().get(database, SQL_DELETE_PRODUCT);
+                long deleteId = ContentUris.parseId(uri);
+                if (mSlowQueryLog.isEnabled()) {
+                    mSlowQueryLog.setStatement(SQL_DELETE_PRODUCT, String.valueOf(deleteId));
+                }
+                // Hold the connection before the statement lock, see StatementCache
+                boolean deleted = false;
+                database.beginTransaction();
+                try {
+                    synchronized (statement) {
+                        statement.bindLong(1, deleteId);
+                        rowsDeleted = statement.executeUpdateDelete();
+                    }
+                    database.setTransactionSuccessful();
+                    deleted = true;
+                } finally {
+                    database.endTransaction();
+                    mMetrics.recordTransaction(deleted);
+                }
+                break;
+            case SUPPLIERS:
+                // Suppliers that still have products cannot be deleted, because of the foreign key
+                mSlowQueryLog.setWhere(SupplierEntry.TABLE_NAME, selection, selectionArgs);
+                rowsDeleted = database.delete(SupplierEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case SUPPLIER_ID:
+                selection = SupplierEntry._ID + "=?";
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
+                mSlowQueryLog.setWhere(SupplierEntry.TABLE_NAME, selection, selectionArgs);
+                rowsDeleted = database.delete(SupplierEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
@@ -237,7 +1274,7 @@ public class ProductProvider extends ContentProvider{
         // If 1 or more rows were deleted, then notify all listeners that the data at the given URI
         // has changed.
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
 
         // Return the number of rows deleted
@@ -250,6 +1287,26 @@ public class ProductProvider extends ContentProvider{
     @Override
     public int update(@NonNull Uri uri, ContentValues contentValues, String selection,
                       String[] selectionArgs) {
+        long start = System.nanoTime();
+        int rowsUpdated = -1;
+        try {
+            rowsUpdated = updateUri(uri, contentValues, selection, selectionArgs);
+            if (mSlowQueryLog.isEnabled()) {
+                mSlowQueryLog.record(mDbHelper.getWritableDatabase(), "update",
+                        sUriMatcher.match(uri), uri, selection, rowsUpdated, start);
+            }
+            return rowsUpdated;
+        } finally {
+            mMetrics.record("update", matchName(sUriMatcher.match(uri)), start, rowsUpdated);
+            mSlowQueryLog.clearStatement();
+        }
+    }
+
+    /**
+     * Updates the data at the given selection and selection arguments, without timing it.
+     */
+    private int updateUri(Uri uri, ContentValues contentValues, String selection,
+                          String[] selectionArgs) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PRODUCTS:
@@ -258,14 +1315,187 @@ public class ProductProvider extends ContentProvider{
                 // For the PRODUCT_ID code, extract out the ID from the URI,
                 // so we know which row to update. Selection will be "_id=?" and selection
                 // arguments will be a String array containing the actual ID.
+                long productId = ContentUris.parseId(uri);
+                // Quantity only updates, the most frequent ones, skip building the SQL
+                if (contentValues.size() == 1) {
+                    Integer quantity =
+                            contentValues.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+                    if (quantity != null && quantity >= 0) {
+                        return updateQuantity(productId, quantity);
+                    }
+                }
                 selection = ProductEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                selectionArgs = new String[] { String.valueOf(productId) };
                 return updateProduct(uri, contentValues, selection, selectionArgs);
+            case PRODUCT_ADJUST:
+                // For the PRODUCT_ADJUST code, the ID is the second path segment of a URI such as
+                // "content://com.example.android.inventory/products/3/adjust".
+                long id = Long.parseLong(uri.getPathSegments().get(1));
+                return adjustQuantity(id, contentValues);
+            case SUPPLIERS:
+                return updateSupplier(uri, contentValues, selection, selectionArgs);
+            case SUPPLIER_ID:
+                selection = SupplierEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                return updateSupplier(uri, contentValues, selection, selectionArgs);
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
     }
 
+    /**
+     * Add the {@link ProductEntry#KEY_QUANTITY_DELTA} in the given values to the quantity of the
+     * product with the given ID. The read and the write happen in a single statement, so concurrent
+     * adjustments are never lost. Return 1 if the quantity was changed, or 0 if the product does
+     * not exist or the quantity would become negative.
+     */
+    private int adjustQuantity(long id, ContentValues values) {
+        // Check that the delta is provided
+        Integer delta = values == null ? null : values.getAsInteger(ProductEntry.KEY_QUANTITY_DELTA);
+        if (delta == null) {
+            throw new IllegalArgumentException("Adjustment requires a quantity delta");
+        }
+
+        // Get writable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // Perform the adjustment with the cached statement and get the number of rows affected
+        SQLiteStatement statement = mDbHelper.getStatementCache().get(database, SQL_ADJUST_QUANTITY);
+        if (mSlowQueryLog.isEnabled()) {
+            mSlowQueryLog.setStatement(SQL_ADJUST_QUANTITY, String.valueOf(delta),
+                    String.valueOf(id), String.valueOf(delta));
+        }
+        int rowsUpdated;
+        // Hold the connection before the statement lock, see StatementCache
+        boolean committed = false;
+        database.beginTransaction();
+        try {
+            synchronized (statement) {
+                statement.bindLong(1, delta);
+                statement.bindLong(2, id);
+                statement.bindLong(3, delta);
+                rowsUpdated = statement.executeUpdateDelete();
+            }
+            database.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            database.endTransaction();
+            mMetrics.recordTransaction(committed);
+        }
+
+        // If the row was updated, notify all listeners that the data of the product has changed
+        if (rowsUpdated != 0) {
+            notifyChange(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id));
+        }
+
+        // Return the number of rows updated
+        return rowsUpdated;
+    }
+
+    /**
+     * Set the quantity of the product with the given ID to the given valid quantity, using the
+     * cached compiled statement. Return the number of rows that were updated.
+     */
+    private int updateQuantity(long id, int quantity) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        SQLiteStatement statement = mDbHelper.getStatementCache().get(database, SQL_UPDATE_QUANTITY);
+        if (mSlowQueryLog.isEnabled()) {
+            mSlowQueryLog.setStatement(SQL_UPDATE_QUANTITY, String.valueOf(quantity),
+                    String.valueOf(id));
+        }
+        int rowsUpdated;
+        // Hold the connection before the statement lock, see StatementCache
+        boolean committed = false;
+        database.beginTransaction();
+        try {
+            synchronized (statement) {
+                statement.bindLong(1, quantity);
+                statement.bindLong(2, id);
+                rowsUpdated = statement.executeUpdateDelete();
+            }
+            database.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            database.endTransaction();
+            mMetrics.recordTransaction(committed);
+        }
+
+        // If the row was updated, notify all listeners that the data of the product has changed
+        if (rowsUpdated != 0) {
+            notifyChange(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id));
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Handle the {@link ProductEntry#METHOD_FIND_BY_ISBN} method: return the ID of the first
+     * product with the ISBN given as argument, or null if there is none. Handle the
+     * {@link ProductEntry#METHOD_BULK_INSERT} method, see {@link #callBulkInsert(Bundle)}.
+     */
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        if (ProductEntry.METHOD_BULK_INSERT.equals(method)) {
+            return callBulkInsert(extras);
+        }
+        if (!ProductEntry.METHOD_FIND_BY_ISBN.equals(method)) {
+            return super.call(method, arg, extras);
+        }
+        if (arg == null) {
+            throw new IllegalArgumentException("Finding a product requires an ISBN");
+        }
+
+        // A read must not wait for a connection while it holds the lock of a shared statement,
+        // and it cannot take the write lock first, so it is compiled for this call only. The
+        // connection keeps its own cache of prepared statements, so it is not compiled again.
+        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        long id;
+        try {
+            id = DatabaseUtils.longForQuery(database, SQL_FIND_BY_ISBN, new String[] { arg });
+        } catch (SQLiteDoneException e) {
+            // No product has this ISBN
+            return null;
+        }
+
+        Bundle result = new Bundle();
+        result.putLong(ProductEntry._ID, id);
+        return result;
+    }
+
+    /**
+     * Insert the products of the {@link ProductEntry#KEY_VALUES} extra like {@link #bulkInsert},
+     * and return the number of rows that were inserted and the indexes of the rows that failed.
+     */
+    private Bundle callBulkInsert(Bundle extras) {
+        Parcelable[] parcels = extras == null ? null
+                : extras.getParcelableArray(ProductEntry.KEY_VALUES);
+        if (parcels == null) {
+            throw new IllegalArgumentException("Bulk insert requires the product values");
+        }
+        // The array is read back from a parcel as a Parcelable array
+        ContentValues[] values = new ContentValues[parcels.length];
+        for (int i = 0; i < parcels.length; i++) {
+            values[i] = (ContentValues) parcels[i];
+        }
+
+        long start = System.nanoTime();
+        int rowsInserted = -1;
+        List<Integer> failedRows = new ArrayList<>();
+        try {
+            rowsInserted = bulkInsertProducts(ProductEntry.CONTENT_URI, values, failedRows);
+        } finally {
+            mMetrics.record("bulkInsert", matchName(PRODUCTS), start, rowsInserted);
+        }
+
+        int[] failedIndexes = new int[failedRows.size()];
+        for (int i = 0; i < failedIndexes.length; i++) {
+            failedIndexes[i] = failedRows.get(i);
+        }
+        Bundle result = new Bundle();
+        result.putInt(ProductEntry.KEY_ROWS_INSERTED, rowsInserted);
+        result.putIntArray(ProductEntry.KEY_FAILED_ROWS, failedIndexes);
+        return result;
+    }
+
     /**
      * Update products in the database with the given content values. Apply the changes to the rows
      * specified in the selection ans selection arguments (which could be 0 or 1 or more products).
@@ -344,16 +1574,226 @@ public class ProductProvider extends ContentProvider{
         // Otherwise, get writable database to update the data
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = database.update(ProductEntry.TABLE_NAME, values, selection, selectionArgs);
+        // The suppliers and the products are written together, and notified once committed
+        Set<Uri> deferredNotifications = beginDeferredNotifications();
+        boolean committed = false;
+        database.beginTransaction();
+        try {
+            // Link the products to the supplier with the given details, if any
+            values = resolveSupplier(database, values, null, null);
+
+            // The suppliers the products had, which may be left without products
+            List<Long> previousSupplierIds = values.containsKey(ProductEntry.COLUMN_SUPPLIER_ID)
+                    ? querySupplierIds(database, selection, selectionArgs) : null;
+
+            // Perform the update on the database and get the number of rows affected
+            mSlowQueryLog.setWhere(ProductEntry.TABLE_NAME, selection, selectionArgs);
+            int rowsUpdated = database.update(ProductEntry.TABLE_NAME, values, selection,
+                    selectionArgs);
+
+            // If 1 or more rows were updated, then notify all listeners that the data at the
+            // given URI has changed
+            if (rowsUpdated != 0 ) {
+                notifyChange(uri);
+                if (previousSupplierIds != null) {
+                    deleteUnusedSuppliers(database, previousSupplierIds);
+                }
+            }
 
-        // If 1 or more rows were updated, then notify all listeners that the data at the given URI
-        // has changed
-        if (rowsUpdated != 0 ) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            database.setTransactionSuccessful();
+            committed = true;
+
+            // Return the number of rows updated
+            return rowsUpdated;
+        } finally {
+            database.endTransaction();
+            mMetrics.recordTransaction(committed);
+            endDeferredNotifications(deferredNotifications, committed);
         }
+    }
 
-        // Return the number of rows updated
-        return rowsUpdated;
+    /**
+     * Notify all listeners that the data at the given URI has changed. If a batch is being applied
+     * on the current thread, the notification is deferred until the batch is committed. Otherwise
+     * it is gathered with the other notifications of the current window.
+     */
+    private void notifyChange(Uri uri) {
+        Set<Uri> pendingNotifications = mPendingNotifications.get();
+        if (pendingNotifications != null) {
+            pendingNotifications.add(uri);
+        } else {
+            invalidateCachedRows(uri);
+            mNotifier.notifyChange(uri);
+        }
+    }
+
+    /**
+     * Defer the change notifications of the current thread until the transaction it is about to
+     * begin is committed, unless a batch already defers them. Returns the set the notifications
+     * are collected in, to pass to {@link #endDeferredNotifications}, or null if the batch sends
+     * them.
+     */
+    private Set<Uri> beginDeferredNotifications() {
+        if (mPendingNotifications.get() != null) {
+            return null;
+        }
+        Set<Uri> deferredNotifications = new LinkedHashSet<>();
+        mPendingNotifications.set(deferredNotifications);
+        return deferredNotifications;
+    }
+
+    /**
+     * Stop deferring the change notifications of the current thread once its transaction has
+     * ended. The deferred notifications are gathered with the others of the current window if
+     * the transaction was committed, and dropped if it was rolled back.
+     *
+     * @param deferredNotifications returned by {@link #beginDeferredNotifications}
+     */
+    private void endDeferredNotifications(Set<Uri> deferredNotifications, boolean committed) {
+        if (deferredNotifications == null) {
+            return;
+        }
+        mPendingNotifications.remove();
+        if (!committed) {
+            // Rows read inside the rolled back transaction may have been cached with its changes
+            mRowCache.invalidateAll();
+            return;
+        }
+        for (Uri uri : deferredNotifications) {
+            invalidateCachedRows(uri);
+            mNotifier.notifyChange(uri);
+        }
+    }
+
+    /**
+     * Remove the product rows that changed with the given URI from the row cache. Every write
+     * notifies the URI it changed once it is committed, so this is where the cache is invalidated:
+     * products/# removes that product, and the products URI removes all of them.
+     */
+    private void invalidateCachedRows(Uri uri) {
+        if (uri.equals(ProductEntry.CONTENT_URI)) {
+            mRowCache.invalidateAll();
+        } else if (sUriMatcher.match(uri) == PRODUCT_ID) {
+            mRowCache.invalidate(ContentUris.parseId(uri));
+        }
+    }
+
+    /**
+     * Set the length of the window in which change notifications are gathered, in milliseconds.
+     * 0 sends every notification right away.
+     */
+    @VisibleForTesting
+    void setNotificationWindow(long windowMillis) {
+        mNotifier.setWindowMillis(windowMillis);
+    }
+
+    /**
+     * Start recording the provider calls that take at least the given number of milliseconds,
+     * with their query plans. Use a negative threshold to stop recording.
+     */
+    @VisibleForTesting
+    void setSlowQueryThreshold(long thresholdMillis) {
+        if (thresholdMillis < 0) {
+            mSlowQueryLog.disable();
+        } else {
+            mSlowQueryLog.enable(thresholdMillis);
+        }
+    }
+
+    /**
+     * Returns the counters of the change notifications, the row cache and the statement cache,
+     * by metric name.
+     */
+    private Map<String, Long> getCounters() {
+        Map<String, Long> counters = new HashMap<>();
+        counters.put("notifications.requested", mNotifier.getRequestedCount());
+        counters.put("notifications.sent", mNotifier.getSentCount());
+        counters.put("notifications.suppressed", mNotifier.getSuppressedCount());
+        counters.put("row_cache.hits", mRowCache.getHitCount());
+        counters.put("row_cache.misses", mRowCache.getMissCount());
+        StatementCache statementCache = mDbHelper.getStatementCache();
+        counters.put("statement_cache.compiled", statementCache.getCompileCount());
+        counters.put("statement_cache.hits", statementCache.getHitCount());
+        return counters;
+    }
+
+    /**
+     * Returns the path pattern of the given URI matcher code, to name the metrics of a call.
+     */
+    private static String matchName(int match) {
+        switch (match) {
+            case PRODUCTS:
+                return ProductContract.PATH_PRODUCT;
+            case PRODUCT_ID:
+                return ProductContract.PATH_PRODUCT + "/#";
+            case PRODUCT_ADJUST:
+                return ProductContract.PATH_PRODUCT + "/#/" + ProductContract.PATH_ADJUST;
+            case PRODUCT_SEARCH:
+                return ProductContract.PATH_PRODUCT + "/" + ProductContract.PATH_SEARCH;
+            case PRODUCTS_WITH_SUPPLIER:
+                return ProductContract.PATH_PRODUCT_WITH_SUPPLIER;
+            case PRODUCT_WITH_SUPPLIER_ID:
+                return ProductContract.PATH_PRODUCT_WITH_SUPPLIER + "/#";
+            case PRODUCT_STATS:
+                return ProductContract.PATH_PRODUCT + "/" + ProductContract.PATH_STATS;
+            case PRODUCT_MOVEMENTS:
+                return ProductContract.PATH_PRODUCT + "/#/" + ProductContract.PATH_MOVEMENTS;
+            case PRODUCT_METRICS:
+                return ProductContract.PATH_PRODUCT + "/" + ProductContract.PATH_METRICS;
+            case SUPPLIERS:
+                return ProductContract.PATH_SUPPLIER;
+            case SUPPLIER_ID:
+                return ProductContract.PATH_SUPPLIER + "/#";
+            case ISBN_METADATA:
+                return ProductContract.PATH_ISBN_METADATA;
+            case ISBN_METADATA_ISBN:
+                return ProductContract.PATH_ISBN_METADATA + "/*";
+            default:
+                return "unknown";
+        }
+    }
+
+    /**
+     * Print the change notification, row cache and statement cache counters of the provider, and
+     * the recorded slow calls, for
+     * "adb shell dumpsys activity provider com.example.android.inventory". Add "--check-stats"
+     * to also recompute the inventory stats from the products and report whether they matched.
+     * Add "--slow-queries=&lt;ms&gt;" to start recording the calls that take at least that long,
+     * or "--slow-queries=off" to stop.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        if (args != null) {
+            for (String arg : args) {
+                if (arg.startsWith(DUMP_ARG_SLOW_QUERIES)) {
+                    String threshold = arg.substring(DUMP_ARG_SLOW_QUERIES.length());
+                    try {
+                        setSlowQueryThreshold(
+                                "off".equals(threshold) ? -1 : Long.parseLong(threshold));
+                    } catch (NumberFormatException e) {
+                        writer.println("Invalid argument: " + arg);
+                    }
+                }
+            }
+        }
+
+        writer.println("Change notifications:");
+        writer.println("  requested=" + mNotifier.getRequestedCount()
+                + " sent=" + mNotifier.getSentCount()
+                + " suppressed=" + mNotifier.getSuppressedCount());
+        writer.println("Row cache:");
+        writer.println("  hits=" + mRowCache.getHitCount() + " misses=" + mRowCache.getMissCount());
+        StatementCache statementCache = mDbHelper.getStatementCache();
+        writer.println("Statement cache:");
+        writer.println("  compiled=" + statementCache.getCompileCount()
+                + " hits=" + statementCache.getHitCount());
+
+        // Checking the stats reads every product, so only do it when asked for
+        if (args != null && Arrays.asList(args).contains(DUMP_ARG_CHECK_STATS)) {
+            boolean consistent = ProductDbHelper.rebuildStats(mDbHelper.getWritableDatabase());
+            writer.println("Inventory stats: " + (consistent ? "consistent" : "rebuilt"));
+        }
+
+        mSlowQueryLog.dump(writer);
     }
 }
@@ -0,0 +1,173 @@
+package com.example.android.inventory.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.LruCache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of single product rows of {@link ProductProvider}, keyed by _id. A row holds
+ * every column of the product joined with its supplier, so it can answer queries for products/#
+ * and products_with_supplier/# with any projection, as a {@link MatrixCursor}.
+ * The provider invalidates a row whenever that product is updated or deleted.
+ */
+final class ProductRowCache {
+
+    /** A materialized product row: its column names and their values */
+    private static final class Row {
+        final String[] columns;
+        final Object[] values;
+
+        Row(String[] columns, Object[] values) {
+            this.columns = columns;
+            this.values = values;
+        }
+    }
+
+    /** Cached rows by product _id */
+    private final LruCache<Long, Row> mRows;
+
+    /**
+     * Incremented on every invalidation. A row read from the database is only cached if no
+     * invalidation happened since the read started, so a concurrent write can not be overwritten
+     * by the older row.
+     */
+    private long mGeneration;
+
+    /** Number of queries answered from the cache */
+    private final AtomicLong mHitCount = new AtomicLong();
+
+    /** Number of queries that had to read the database */
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    /**
+     * Constructs a new {@link ProductRowCache}.
+     * @param maxRows maximum number of product rows kept in the cache
+     */
+    ProductRowCache(int maxRows) {
+        mRows = new LruCache<>(maxRows);
+    }
+
+    /**
+     * Returns a cursor with the given columns of the cached product with the given ID, or null if
+     * the product is not cached or a column is not in the cached row.
+     * @param projection the columns to return, or null for all columns of the cached row
+     */
+    Cursor get(long id, String[] projection) {
+        Row row = mRows.get(id);
+        Cursor cursor = row == null ? null : project(row, projection);
+        if (cursor == null) {
+            mMissCount.incrementAndGet();
+        } else {
+            mHitCount.incrementAndGet();
+        }
+        return cursor;
+    }
+
+    /**
+     * Returns the current generation, to pass to {@link #load} for a row read from now on.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Materialize the first row of the given cursor as the product with the given ID, and cache
+     * it unless the cache was invalidated since the given generation. Returns a cursor with the
+     * given columns of the row, or null if the cursor is empty or a column is not in the row.
+     */
+    Cursor load(long id, Cursor cursor, long generation, String[] projection) {
+        if (!cursor.moveToFirst()) {
+            return null;
+        }
+
+        String[] columns = cursor.getColumnNames();
+        Object[] values = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    values[i] = cursor.getLong(i);
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    values[i] = cursor.getDouble(i);
+                    break;
+                case Cursor.FIELD_TYPE_STRING:
+                    values[i] = cursor.getString(i);
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    values[i] = cursor.getBlob(i);
+                    break;
+                default:
+                    values[i] = null;
+                    break;
+            }
+        }
+        Row row = new Row(columns, values);
+
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mRows.put(id, row);
+            }
+        }
+        return project(row, projection);
+    }
+
+    /**
+     * Remove the product with the given ID from the cache.
+     */
+    synchronized void invalidate(long id) {
+        mGeneration++;
+        mRows.remove(id);
+    }
+
+    /**
+     * Remove all products from the cache, when the changed products are not known.
+     */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mRows.evictAll();
+    }
+
+    /** Returns the number of queries answered from the cache */
+    long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /** Returns the number of queries that had to read the database */
+    long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * Returns a single row cursor with the given columns of the given row, or null if a column is
+     * not in the row.
+     */
+    private static Cursor project(Row row, String[] projection) {
+        String[] columns = projection == null ? row.columns : projection;
+        Object[] values = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            int index = indexOf(row.columns, columns[i]);
+            if (index == -1) {
+                return null;
+            }
+            values[i] = row.values[index];
+        }
+
+        MatrixCursor cursor = new MatrixCursor(columns, 1);
+        cursor.addRow(values);
+        return cursor;
+    }
+
+    /**
+     * Returns the index of the given column in the given column names, or -1.
+     */
+    private static int indexOf(String[] columns, String column) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.android.inventory.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.inventory.data.ProductContract.MetricsEntry;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Continuous operation metrics of {@link ProductProvider}: for every operation and URI match, the
+ * number of calls, failed calls and rows, and a {@link LatencyHistogram}, plus the number of
+ * committed and rolled back transactions. Recording only uses atomic counters, so it is always on.
+ */
+final class ProviderMetrics {
+
+    /** Columns of the metrics cursor, in the order of {@link #toCursor} */
+    private static final String[] COLUMNS = {
+            MetricsEntry.COLUMN_NAME,
+            MetricsEntry.COLUMN_COUNT,
+            MetricsEntry.COLUMN_ERRORS,
+            MetricsEntry.COLUMN_ROWS,
+            MetricsEntry.COLUMN_MEAN_MICROS,
+            MetricsEntry.COLUMN_P50_MICROS,
+            MetricsEntry.COLUMN_P95_MICROS,
+            MetricsEntry.COLUMN_P99_MICROS,
+            MetricsEntry.COLUMN_MAX_MICROS};
+
+    /** Metrics of one operation on one URI match */
+    private static final class OperationMetrics {
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong rows = new AtomicLong();
+        final LatencyHistogram latency = new LatencyHistogram();
+    }
+
+    /** Metrics by operation and URI match, for example "query products/#" */
+    private final ConcurrentMap<String, OperationMetrics> mOperations = new ConcurrentHashMap<>();
+
+    /** Number of committed transactions of batches and bulk inserts */
+    private final AtomicLong mTransactionsCommitted = new AtomicLong();
+
+    /** Number of rolled back transactions of batches and bulk inserts */
+    private final AtomicLong mTransactionsRolledBack = new AtomicLong();
+
+    /**
+     * Record a call that started at the given {@link System#nanoTime()} and just finished.
+     * @param operation name of the operation, for example "query"
+     * @param match the URI pattern of the call, for example "products/#"
+     * @param rows number of rows returned or changed, or -1 if the call failed
+     */
+    void record(String operation, String match, long startNanos, int rows) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+        String name = operation + " " + match;
+        OperationMetrics metrics = mOperations.get(name);
+        if (metrics == null) {
+            OperationMetrics newMetrics = new OperationMetrics();
+            metrics = mOperations.putIfAbsent(name, newMetrics);
+            if (metrics == null) {
+                metrics = newMetrics;
+            }
+        }
+
+        metrics.latency.record(micros);
+        if (rows < 0) {
+            metrics.errors.incrementAndGet();
+        } else {
+            metrics.rows.addAndGet(rows);
+        }
+    }
+
+    /**
+     * Record the end of a transaction.
+     * @param committed true if the transaction was committed, false if it was rolled back
+     */
+    void recordTransaction(boolean committed) {
+        if (committed) {
+            mTransactionsCommitted.incrementAndGet();
+        } else {
+            mTransactionsRolledBack.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns a cursor with one row for every operation and URI match, followed by one row for
+     * every counter: the transaction counters and the given ones. The counter rows only have a
+     * name and a count. The rows are sorted by name.
+     */
+    Cursor toCursor(Map<String, Long> counters) {
+        Map<String, OperationMetrics> operations = new TreeMap<>(mOperations);
+        Map<String, Long> allCounters = new TreeMap<>(counters);
+        allCounters.put("transactions.committed", mTransactionsCommitted.get());
+        allCounters.put("transactions.rolled_back", mTransactionsRolledBack.get());
+
+        MatrixCursor cursor = new MatrixCursor(COLUMNS, operations.size() + allCounters.size());
+        for (Map.Entry<String, OperationMetrics> entry : operations.entrySet()) {
+            OperationMetrics metrics = entry.getValue();
+            LatencyHistogram latency = metrics.latency;
+            cursor.addRow(new Object[] {
+                    entry.getKey(),
+                    latency.getCount(),
+                    metrics.errors.get(),
+                    metrics.rows.get(),
+                    latency.getMeanMicros(),
+                    latency.getPercentileMicros(0.50),
+                    latency.getPercentileMicros(0.95),
+                    latency.getPercentileMicros(0.99),
+                    latency.getMaxMicros()});
+        }
+        for (Map.Entry<String, Long> entry : allCounters.entrySet()) {
+            cursor.addRow(new Object[] {
+                    entry.getKey(), entry.getValue(), null, null, null, null, null, null, null});
+        }
+        return cursor;
+    }
+}
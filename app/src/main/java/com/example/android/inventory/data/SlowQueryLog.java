@@ -0,0 +1,191 @@
+package com.example.android.inventory.data;
+
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.text.format.DateFormat;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opt-in log of the slow calls of {@link ProductProvider}. When enabled, the provider times every
+ * query, insert, update and delete. A call that takes at least the threshold is recorded with its
+ * URI match, selection, row count and the EXPLAIN QUERY PLAN of its SQL statement, in a bounded
+ * ring buffer that is printed by {@link ProductProvider#dump}. It is disabled by default, so the
+ * provider pays nothing for it.
+ */
+final class SlowQueryLog {
+
+    /** Maximum number of slow calls kept, the oldest are dropped first */
+    static final int CAPACITY = 32;
+
+    /** Threshold value of a disabled log */
+    private static final long DISABLED = -1;
+
+    /** A SQL statement and its arguments, whose query plan is captured if the call is slow */
+    private static final class Statement {
+        final String sql;
+        final String[] args;
+
+        Statement(String sql, String[] args) {
+            this.sql = sql;
+            this.args = args;
+        }
+    }
+
+    /** A recorded slow call */
+    private static final class Entry {
+        final long timeMillis;
+        final String operation;
+        final int match;
+        final Uri uri;
+        final String selection;
+        final int rowCount;
+        final long durationMicros;
+        final String sql;
+        final List<String> plan;
+
+        Entry(long timeMillis, String operation, int match, Uri uri, String selection, int rowCount,
+              long durationMicros, String sql, List<String> plan) {
+            this.timeMillis = timeMillis;
+            this.operation = operation;
+            this.match = match;
+            this.uri = uri;
+            this.selection = selection;
+            this.rowCount = rowCount;
+            this.durationMicros = durationMicros;
+            this.sql = sql;
+            this.plan = plan;
+        }
+    }
+
+    /** Minimum duration of a recorded call in nanoseconds, or {@link #DISABLED} */
+    private volatile long mThresholdNanos = DISABLED;
+
+    /** Statement of the call running on the current thread */
+    private final ThreadLocal<Statement> mStatement = new ThreadLocal<>();
+
+    /** The most recent slow calls, oldest first */
+    private final ArrayDeque<Entry> mEntries = new ArrayDeque<>(CAPACITY);
+
+    /** Returns true if the calls are being timed */
+    boolean isEnabled() {
+        return mThresholdNanos != DISABLED;
+    }
+
+    /**
+     * Start recording the calls that take at least the given number of milliseconds. Use 0 to
+     * record every call.
+     */
+    void enable(long thresholdMillis) {
+        if (thresholdMillis < 0) {
+            throw new IllegalArgumentException("Threshold must not be negative");
+        }
+        mThresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    }
+
+    /** Stop timing the calls. The recorded calls are kept. */
+    void disable() {
+        mThresholdNanos = DISABLED;
+    }
+
+    /**
+     * Set the SQL statement of the call running on the current thread, to explain if the call is
+     * slow. Does nothing while the log is disabled.
+     */
+    void setStatement(String sql, String... args) {
+        if (isEnabled()) {
+            mStatement.set(new Statement(sql, args));
+        }
+    }
+
+    /**
+     * Set the query on the rows of the given table that match the given selection as the statement
+     * of the call running on the current thread. An update or delete finds its rows the same way,
+     * so this query has the same plan.
+     */
+    void setWhere(String table, String selection, String[] selectionArgs) {
+        if (isEnabled()) {
+            String sql = "SELECT 1 FROM " + table;
+            if (selection != null && !selection.isEmpty()) {
+                sql += " WHERE " + selection;
+            }
+            mStatement.set(new Statement(sql, selectionArgs));
+        }
+    }
+
+    /** Forget the statement of the call running on the current thread */
+    void clearStatement() {
+        mStatement.remove();
+    }
+
+    /**
+     * Record the call that started at the given {@link System#nanoTime()} and just finished, if it
+     * took at least the threshold. The query plan of its statement is captured on the given
+     * database.
+     */
+    void record(SQLiteDatabase db, String operation, int match, Uri uri, String selection,
+                int rowCount, long startNanos) {
+        long durationNanos = System.nanoTime() - startNanos;
+        long thresholdNanos = mThresholdNanos;
+        if (thresholdNanos == DISABLED || durationNanos < thresholdNanos) {
+            return;
+        }
+
+        Statement statement = mStatement.get();
+        String sql = null;
+        List<String> plan = Collections.emptyList();
+        if (statement != null) {
+            sql = statement.sql;
+            try {
+                plan = ProductDbHelper.explainQueryPlan(db, statement.sql, statement.args);
+            } catch (SQLException e) {
+                plan = Collections.singletonList("EXPLAIN QUERY PLAN failed: " + e.getMessage());
+            }
+        }
+
+        Entry entry = new Entry(System.currentTimeMillis(), operation, match, uri, selection,
+                rowCount, TimeUnit.NANOSECONDS.toMicros(durationNanos), sql, plan);
+        synchronized (mEntries) {
+            if (mEntries.size() == CAPACITY) {
+                mEntries.removeFirst();
+            }
+            mEntries.addLast(entry);
+        }
+    }
+
+    /**
+     * Print the recorded slow calls, oldest first. Plans that scan a whole table are flagged.
+     */
+    void dump(PrintWriter writer) {
+        List<Entry> entries;
+        synchronized (mEntries) {
+            entries = new ArrayList<>(mEntries);
+        }
+
+        long thresholdNanos = mThresholdNanos;
+        writer.println("Slow queries: " + (thresholdNanos == DISABLED ? "disabled"
+                : "threshold=" + TimeUnit.NANOSECONDS.toMillis(thresholdNanos) + "ms")
+                + " recorded=" + entries.size());
+        for (Entry entry : entries) {
+            writer.println("  " + DateFormat.format("HH:mm:ss", entry.timeMillis)
+                    + " " + entry.operation + " " + entry.uri + " match=" + entry.match
+                    + " rows=" + entry.rowCount + " time=" + entry.durationMicros + "us"
+                    + (ProductDbHelper.isFullTableScan(entry.plan) ? " FULL SCAN" : ""));
+            if (entry.selection != null) {
+                writer.println("    selection: " + entry.selection);
+            }
+            if (entry.sql != null) {
+                writer.println("    sql: " + entry.sql);
+            }
+            for (String step : entry.plan) {
+                writer.println("    plan: " + step);
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.android.inventory.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of compiled statements for the hottest writes and lookups of {@link ProductProvider}, so
+ * their SQL is compiled once per database connection instead of on every call.
+ * A {@link SQLiteStatement} holds its bind arguments, so a statement from this cache must be bound
+ * and executed while holding its lock: {@code synchronized (statement) { ... }}. The lock must be
+ * taken inside a transaction, never the other way round: a thread that held the lock while
+ * waiting for the connection could wait forever for a thread whose transaction holds the
+ * connection and that waits for the lock. The statements are therefore only writes.
+ */
+final class StatementCache {
+
+    /** Compiled statements by their SQL */
+    private final Map<String, SQLiteStatement> mStatements = new HashMap<>();
+
+    /** Database the cached statements were compiled for */
+    private SQLiteDatabase mDatabase;
+
+    /** Number of statements compiled by the cache */
+    private final AtomicLong mCompileCount = new AtomicLong();
+
+    /** Number of statements served from the cache without compiling */
+    private final AtomicLong mHitCount = new AtomicLong();
+
+    /**
+     * Returns the compiled statement for the given SQL on the given database, compiling it on first
+     * use. If the database is not the one the cached statements were compiled for, for instance
+     * after the helper was closed and opened again, the cached statements are released first.
+     */
+    synchronized SQLiteStatement get(SQLiteDatabase db, String sql) {
+        if (db != mDatabase) {
+            clear();
+            mDatabase = db;
+        }
+        SQLiteStatement statement = mStatements.get(sql);
+        if (statement == null) {
+            statement = db.compileStatement(sql);
+            mStatements.put(sql, statement);
+            mCompileCount.incrementAndGet();
+        } else {
+            mHitCount.incrementAndGet();
+        }
+        return statement;
+    }
+
+    /**
+     * Release all cached statements. Called when the schema changes or the database is closed,
+     * since the statements were compiled against the old schema.
+     */
+    synchronized void clear() {
+        for (SQLiteStatement statement : mStatements.values()) {
+            statement.close();
+        }
+        mStatements.clear();
+        mDatabase = null;
+    }
+
+    /** Returns the number of statements compiled by the cache */
+    long getCompileCount() {
+        return mCompileCount.get();
+    }
+
+    /** Returns the number of statements served from the cache without compiling */
+    long getHitCount() {
+        return mHitCount.get();
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.android.inventory.data;
+
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import com.example.android.inventory.data.ProductContract.StockMovementEntry;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the stock movements table bounded. The movements older than the retention period are
+ * folded into one snapshot entry per product and day, whose delta is the sum of the folded
+ * movements and whose quantity is the quantity after the last of them. The history keeps every
+ * quantity change of the retention period, and the daily net change before it.
+ */
+final class StockMovementCompactor implements Runnable {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = StockMovementCompactor.class.getSimpleName();
+
+    /** Movements younger than this are kept as they are */
+    static final long RETENTION_MILLIS = TimeUnit.DAYS.toMillis(30);
+
+    /** Length of the period that is folded into a single snapshot */
+    static final long PERIOD_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /** Period of a movement, the number of periods since the epoch */
+    private static final String PERIOD = StockMovementEntry.COLUMN_TIMESTAMP + " / " + PERIOD_MILLIS;
+
+    /**
+     * Insert a snapshot for every product and period before the cutoff with more than one entry.
+     * When a query has a single max() aggregate, SQLite takes the other columns from the row with
+     * the max, so the quantity and timestamp are those of the last movement of the period.
+     */
+    private static final String SQL_INSERT_SNAPSHOTS = "INSERT INTO " + StockMovementEntry.TABLE_NAME
+            + " (" + StockMovementEntry.COLUMN_PRODUCT_ID + ", "
+            + StockMovementEntry.COLUMN_DELTA + ", "
+            + StockMovementEntry.COLUMN_QUANTITY + ", "
+            + StockMovementEntry.COLUMN_TIMESTAMP + ", "
+            + StockMovementEntry.COLUMN_MOVEMENT_COUNT + ") "
+            + "SELECT " + StockMovementEntry.COLUMN_PRODUCT_ID + ", delta_sum, "
+            + StockMovementEntry.COLUMN_QUANTITY + ", " + StockMovementEntry.COLUMN_TIMESTAMP
+            + ", count_sum FROM (SELECT " + StockMovementEntry.COLUMN_PRODUCT_ID + ", "
+            + "SUM(" + StockMovementEntry.COLUMN_DELTA + ") AS delta_sum, "
+            + StockMovementEntry.COLUMN_QUANTITY + ", " + StockMovementEntry.COLUMN_TIMESTAMP + ", "
+            + "SUM(" + StockMovementEntry.COLUMN_MOVEMENT_COUNT + ") AS count_sum, "
+            + "MAX(" + StockMovementEntry._ID + ") "
+            + "FROM " + StockMovementEntry.TABLE_NAME
+            + " WHERE " + StockMovementEntry.COLUMN_TIMESTAMP + " < ?"
+            + " GROUP BY " + StockMovementEntry.COLUMN_PRODUCT_ID + ", " + PERIOD
+            + " HAVING COUNT(*) > 1)";
+
+    /**
+     * Delete the entries up to the given ID before the cutoff that were folded into a snapshot,
+     * which is an entry after the given ID for the same product and period.
+     */
+    private static final String SQL_DELETE_FOLDED = "DELETE FROM " + StockMovementEntry.TABLE_NAME
+            + " WHERE " + StockMovementEntry._ID + " <= ?"
+            + " AND " + StockMovementEntry.COLUMN_TIMESTAMP + " < ?"
+            + " AND EXISTS (SELECT 1 FROM " + StockMovementEntry.TABLE_NAME + " s"
+            + " WHERE s." + StockMovementEntry._ID + " > ?"
+            + " AND s." + StockMovementEntry.COLUMN_PRODUCT_ID + " = "
+            + StockMovementEntry.TABLE_NAME + "." + StockMovementEntry.COLUMN_PRODUCT_ID
+            + " AND s." + PERIOD + " = " + StockMovementEntry.TABLE_NAME + "." + PERIOD + ")";
+
+    /** Database helper object */
+    private final ProductDbHelper mDbHelper;
+
+    /**
+     * Constructs a new {@link StockMovementCompactor}.
+     * @param dbHelper of the database with the stock movements
+     */
+    StockMovementCompactor(ProductDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Fold the movements older than the retention period. Meant to run on a background thread,
+     * once every {@link #PERIOD_MILLIS}. A failure is logged and left to the next run, which
+     * folds what this one could not: an exception would stop the periodic runs.
+     */
+    @Override
+    public void run() {
+        long cutoff = System.currentTimeMillis() - RETENTION_MILLIS;
+        // Start the cutoff at the beginning of a period, so a period is only folded once it is over
+        cutoff -= cutoff % PERIOD_MILLIS;
+        try {
+            int folded = compact(mDbHelper.getWritableDatabase(), cutoff);
+            Log.i(LOG_TAG, "Folded " + folded + " stock movements");
+        } catch (SQLException | IllegalStateException e) {
+            // The database could not be opened, is busy or full, or was closed meanwhile
+            Log.e(LOG_TAG, "Problem folding the stock movements", e);
+        }
+    }
+
+    /**
+     * Fold the movements before the given time into one snapshot per product and period, in a
+     * single transaction. Running it again for the same time does not change anything.
+     *
+     * @param cutoffMillis time in milliseconds since the epoch of the first movement to keep
+     * @return the number of entries that were folded into snapshots
+     */
+    @VisibleForTesting
+    static int compact(SQLiteDatabase db, long cutoffMillis) {
+        db.beginTransaction();
+        try {
+            // The snapshots get IDs after the last existing entry
+            long lastId = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX("
+                    + StockMovementEntry._ID + "), 0) FROM " + StockMovementEntry.TABLE_NAME, null);
+            db.execSQL(SQL_INSERT_SNAPSHOTS, new Object[] {cutoffMillis});
+            SQLiteStatement delete = db.compileStatement(SQL_DELETE_FOLDED);
+            int folded;
+            try {
+                delete.bindLong(1, lastId);
+                delete.bindLong(2, cutoffMillis);
+                delete.bindLong(3, lastId);
+                folded = delete.executeUpdateDelete();
+            } finally {
+                delete.close();
+            }
+            db.setTransactionSuccessful();
+            return folded;
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.android.inventory.utils;
+
+import android.os.SystemClock;
+
+/**
+ * Circuit breaker of the Google Books requests. After a number of consecutive failed requests
+ * the circuit opens, and requests fail fast without touching the network until the open time
+ * has passed. Then a single trial request is let through: its success closes the circuit, and
+ * its failure opens it again.
+ */
+final class CircuitBreaker {
+
+    /** Default number of consecutive failures that open the circuit */
+    static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+    /** Default time the circuit stays open before a trial request */
+    static final long DEFAULT_OPEN_MILLIS = 30000;
+
+    /** State of the circuit */
+    enum State {
+        /** Requests go through */
+        CLOSED,
+        /** Requests fail fast */
+        OPEN,
+        /** A single trial request goes through */
+        HALF_OPEN
+    }
+
+    /** Number of consecutive failures that open the circuit */
+    private final int mFailureThreshold;
+
+    /** Time in milliseconds the circuit stays open before a trial request */
+    private final long mOpenMillis;
+
+    private State mState = State.CLOSED;
+
+    /** Number of consecutive failed requests */
+    private int mFailureCount;
+
+    /** Time, in milliseconds of {@link SystemClock#elapsedRealtime}, the circuit last opened */
+    private long mOpenedAtMillis;
+
+    /** True while the trial request of the half-open circuit is in flight */
+    private boolean mTrialInFlight;
+
+    /**
+     * Constructs a new {@link CircuitBreaker} with {@link #DEFAULT_FAILURE_THRESHOLD} and
+     * {@link #DEFAULT_OPEN_MILLIS}.
+     */
+    CircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS);
+    }
+
+    /**
+     * Constructs a new {@link CircuitBreaker}.
+     * @param failureThreshold number of consecutive failures that open the circuit
+     * @param openMillis time in milliseconds the circuit stays open before a trial request
+     */
+    CircuitBreaker(int failureThreshold, long openMillis) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("Failure threshold must be at least 1");
+        }
+        if (openMillis < 0) {
+            throw new IllegalArgumentException("Open time cannot be negative");
+        }
+        mFailureThreshold = failureThreshold;
+        mOpenMillis = openMillis;
+    }
+
+    /**
+     * Returns true if a request may be sent now. Every request allowed must be followed by a
+     * call to {@link #recordSuccess} or {@link #recordFailure}, or to {@link #recordCanceled}.
+     */
+    synchronized boolean allowRequest() {
+        if (mState == State.OPEN
+                && SystemClock.elapsedRealtime() - mOpenedAtMillis >= mOpenMillis) {
+            mState = State.HALF_OPEN;
+        }
+        switch (mState) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                // Only one trial request at a time
+                if (mTrialInFlight) {
+                    return false;
+                }
+                mTrialInFlight = true;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /** Record that a request reached the service: closes the circuit */
+    synchronized void recordSuccess() {
+        mState = State.CLOSED;
+        mFailureCount = 0;
+        mTrialInFlight = false;
+    }
+
+    /** Record that a request failed: opens the circuit after too many failures in a row */
+    synchronized void recordFailure() {
+        mFailureCount++;
+        if (mState == State.HALF_OPEN || mFailureCount >= mFailureThreshold) {
+            mState = State.OPEN;
+            mOpenedAtMillis = SystemClock.elapsedRealtime();
+        }
+        mTrialInFlight = false;
+    }
+
+    /** Record that a request was canceled, which says nothing about the service */
+    synchronized void recordCanceled() {
+        mTrialInFlight = false;
+    }
+
+    /** Returns the current state of the circuit */
+    synchronized State getState() {
+        if (mState == State.OPEN
+                && SystemClock.elapsedRealtime() - mOpenedAtMillis >= mOpenMillis) {
+            return State.HALF_OPEN;
+        }
+        return mState;
+    }
+}
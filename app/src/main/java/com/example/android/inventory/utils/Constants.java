@@ -23,11 +23,11 @@ public class Constants {
     static final String JSON_KEY_IDENTIFIER = "identifier";
     static final String JSON_KEY_PUBLISHER = "publisher";
 
-    /** Read timeout for setting up the HTTP request */
-    static final int READ_TIMEOUT = 10000; /* milliseconds */
+    /** Directory of the on-disk cache of the Google Books responses, in the app cache */
+    static final String HTTP_CACHE_DIRECTORY = "google_books";
 
-    /** Connect timeout for setting up the HTTP request */
-    static final int CONNECT_TIMEOUT = 15000; /* milliseconds */
+    /** Maximum size of the on-disk cache of the Google Books responses */
+    static final long HTTP_CACHE_SIZE = 1024 * 1024; /* bytes */
 
     /** HTTP response code when the request is successful */
     static final int SUCCESS_RESPONSE_CODE = 200;
@@ -38,6 +38,31 @@ public class Constants {
     /** URL for the book data from the Google books data set */
     public static final String BOOK_REQUEST_URL = "https://www.googleapis.com/books/v1/volumes?";
 
+    /** Query parameter of the Google Books volumes request that holds the search terms */
+    static final String QUERY_PARAMETER_Q = "q";
+
+    /** Prefix of the search terms to look up a book by ISBN */
+    static final String QUERY_ISBN_PREFIX = "isbn:";
+
+    /** Query parameter of the Google Books requests that selects the fields of the response */
+    static final String QUERY_PARAMETER_FIELDS = "fields";
+
+    /**
+     * Partial response of the Google Books volumes requests: only the fields read by
+     * {@link QueryUtils#readBooks}, instead of the full volume records
+     */
+    static final String BOOK_FIELDS =
+            "items(volumeInfo(title,authors,publisher,industryIdentifiers))";
+
+    /** Request header that lists the compressions the client accepts */
+    static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+
+    /** Response header with the time to wait before sending a request again */
+    static final String HEADER_RETRY_AFTER = "Retry-After";
+
+    /** Compression of the Google Books responses that the client accepts */
+    static final String ENCODING_GZIP = "gzip";
+
     /** Default number to set the image on the top of the textView */
     public static final int DEFAULT_NUMBER = 0;
 }
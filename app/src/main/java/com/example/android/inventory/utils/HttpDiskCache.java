@@ -0,0 +1,397 @@
+package com.example.android.inventory.utils;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Size-bounded on-disk cache of HTTP response bodies, keyed by URL. Each entry keeps the body
+ * with its validators (ETag and Last-Modified) and its expiry from Cache-Control max-age or
+ * Expires, so a fresh entry is served without a request and a stale one is revalidated with a
+ * conditional GET. Responses with "no-store" are never cached; responses with "no-cache" are
+ * cached but always revalidated. When the cache is over its size, the least recently used
+ * entries are evicted.
+ */
+final class HttpDiskCache {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = HttpDiskCache.class.getSimpleName();
+
+    /** Suffix of the file holding the body of an entry */
+    private static final String BODY_SUFFIX = ".body";
+
+    /** Suffix of the file holding the headers of an entry */
+    private static final String META_SUFFIX = ".meta";
+
+    /**
+     * Suffix of the file a body or meta file is written to before it is renamed over the
+     * previous one, so a reader never sees a file half written
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /** Keys of the headers of an entry in its meta file */
+    private static final String META_URL = "url";
+    private static final String META_ETAG = "etag";
+    private static final String META_LAST_MODIFIED = "last_modified";
+    private static final String META_EXPIRES = "expires";
+
+    /** HTTP response code of a conditional GET whose cached entry is still valid */
+    static final int NOT_MODIFIED_RESPONSE_CODE = 304;
+
+    /** Source of the time an entry is used at, which orders the entries for eviction */
+    interface Clock {
+        /** Returns the current time in milliseconds */
+        long currentTimeMillis();
+    }
+
+    /** Clock of the system time */
+    private static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    /** A cached response */
+    static final class Entry {
+        final String key;
+        final String etag;
+        final String lastModified;
+        /** Time in milliseconds until which the entry can be used without revalidation */
+        final long expiresMillis;
+        final File bodyFile;
+
+        Entry(String key, String etag, String lastModified, long expiresMillis, File bodyFile) {
+            this.key = key;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expiresMillis = expiresMillis;
+            this.bodyFile = bodyFile;
+        }
+
+        /** Returns true if the entry can be used at the given time without revalidation */
+        boolean isFresh(long nowMillis) {
+            return nowMillis < expiresMillis;
+        }
+
+        /** Add the validators of the entry to the given request, to make it conditional */
+        void addValidators(HttpURLConnection connection) {
+            if (etag != null) {
+                connection.setRequestProperty("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                connection.setRequestProperty("If-Modified-Since", lastModified);
+            }
+        }
+
+        /**
+         * Returns a stream of the cached body. The body is replaced and evicted by renaming and
+         * deleting its file, so an open stream keeps reading the body it was opened on.
+         */
+        InputStream newInputStream() throws IOException {
+            return new FileInputStream(bodyFile);
+        }
+    }
+
+    /** Directory of the cache files */
+    private final File mDirectory;
+
+    /** Maximum total size of the cache files in bytes */
+    private final long mMaxSize;
+
+    /** Time the entries are used at */
+    private final Clock mClock;
+
+    /**
+     * Constructs a new {@link HttpDiskCache}.
+     * @param directory of the cache files, created if needed
+     * @param maxSize maximum total size of the cache files in bytes
+     */
+    HttpDiskCache(File directory, long maxSize) {
+        this(directory, maxSize, SYSTEM_CLOCK);
+    }
+
+    /**
+     * Constructs a new {@link HttpDiskCache} that marks the entries it writes and reads with the
+     * time of the given clock, so tests can order the uses without waiting.
+     */
+    HttpDiskCache(File directory, long maxSize, Clock clock) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        mDirectory = directory;
+        mMaxSize = maxSize;
+        mClock = clock;
+    }
+
+    /**
+     * Returns the cached response of the given URL, or null if there is none. Marks the entry as
+     * recently used.
+     */
+    synchronized Entry get(String url) {
+        String key = keyOf(url);
+        File bodyFile = new File(mDirectory, key + BODY_SUFFIX);
+        Properties meta = readMeta(key);
+        // Ignore an entry of another URL with the same hash, or with a missing body
+        if (meta == null || !url.equals(meta.getProperty(META_URL)) || !bodyFile.isFile()) {
+            return null;
+        }
+
+        bodyFile.setLastModified(mClock.currentTimeMillis());
+        long expiresMillis;
+        try {
+            expiresMillis = Long.parseLong(meta.getProperty(META_EXPIRES, "0"));
+        } catch (NumberFormatException e) {
+            expiresMillis = 0;
+        }
+        return new Entry(key, meta.getProperty(META_ETAG), meta.getProperty(META_LAST_MODIFIED),
+                expiresMillis, bodyFile);
+    }
+
+    /**
+     * Cache the given body of the successful response of the given connection to the given URL,
+     * unless the response forbids it. Evicts the least recently used entries if the cache is
+     * over its size.
+     */
+    synchronized void put(String url, HttpURLConnection connection, byte[] body) {
+        String cacheControl = connection.getHeaderField("Cache-Control");
+        if (hasDirective(cacheControl, "no-store") || body.length > mMaxSize) {
+            return;
+        }
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.e(LOG_TAG, "Cannot create the cache directory " + mDirectory);
+            return;
+        }
+
+        String key = keyOf(url);
+        Properties meta = new Properties();
+        meta.setProperty(META_URL, url);
+        putIfNotNull(meta, META_ETAG, connection.getHeaderField("ETag"));
+        putIfNotNull(meta, META_LAST_MODIFIED, connection.getHeaderField("Last-Modified"));
+        meta.setProperty(META_EXPIRES, String.valueOf(expiresMillis(connection)));
+        File bodyFile = new File(mDirectory, key + BODY_SUFFIX);
+        try {
+            writeAtomically(bodyFile, body);
+            writeMeta(key, meta);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem caching the response of " + url, e);
+            remove(key);
+            return;
+        }
+        bodyFile.setLastModified(mClock.currentTimeMillis());
+        trimToSize();
+    }
+
+    /**
+     * Update the expiry of the given entry from the "304 Not Modified" response of the given
+     * connection, which revalidated it.
+     */
+    synchronized void update(String url, Entry entry, HttpURLConnection connection) {
+        Properties meta = readMeta(entry.key);
+        if (meta == null) {
+            return;
+        }
+        // A 304 response may carry new validators
+        putIfNotNull(meta, META_ETAG, connection.getHeaderField("ETag"));
+        putIfNotNull(meta, META_LAST_MODIFIED, connection.getHeaderField("Last-Modified"));
+        meta.setProperty(META_EXPIRES, String.valueOf(expiresMillis(connection)));
+        try {
+            writeMeta(entry.key, meta);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem updating the cached response of " + url, e);
+        }
+    }
+
+    /** Returns the total size of the cache files in bytes */
+    synchronized long size() {
+        long size = 0;
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Delete the least recently used entries until the cache fits its maximum size.
+     */
+    private void trimToSize() {
+        long size = size();
+        if (size <= mMaxSize) {
+            return;
+        }
+
+        File[] bodies = mDirectory.listFiles();
+        if (bodies == null) {
+            return;
+        }
+        // Every write is done under the lock, so a temporary file is left over from a crash
+        for (File file : bodies) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                long length = file.length();
+                if (file.delete()) {
+                    size -= length;
+                }
+            }
+        }
+        // The last modified time of a body is the time it was last used
+        Arrays.sort(bodies, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        for (File file : bodies) {
+            if (size <= mMaxSize) {
+                break;
+            }
+            String name = file.getName();
+            if (name.endsWith(BODY_SUFFIX)) {
+                String key = name.substring(0, name.length() - BODY_SUFFIX.length());
+                size -= file.length() + new File(mDirectory, key + META_SUFFIX).length();
+                remove(key);
+            }
+        }
+    }
+
+    /** Delete the files of the entry with the given key */
+    private void remove(String key) {
+        new File(mDirectory, key + BODY_SUFFIX).delete();
+        new File(mDirectory, key + META_SUFFIX).delete();
+    }
+
+    private Properties readMeta(String key) {
+        File file = new File(mDirectory, key + META_SUFFIX);
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties meta = new Properties();
+        try {
+            InputStream inputStream = new FileInputStream(file);
+            try {
+                meta.load(inputStream);
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the cache entry " + key, e);
+            return null;
+        }
+        return meta;
+    }
+
+    private void writeMeta(String key, Properties meta) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        meta.store(outputStream, null);
+        writeAtomically(new File(mDirectory, key + META_SUFFIX), outputStream.toByteArray());
+    }
+
+    /**
+     * Write the given data to a temporary file and rename it to the given file, which replaces
+     * the previous file at once. A reader that opened the previous file keeps reading it.
+     */
+    private static void writeAtomically(File file, byte[] data) throws IOException {
+        File tempFile = new File(file.getPath() + TEMP_SUFFIX);
+        OutputStream outputStream = new FileOutputStream(tempFile);
+        try {
+            outputStream.write(data);
+        } finally {
+            outputStream.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Cannot rename " + tempFile + " to " + file);
+        }
+    }
+
+    private static void putIfNotNull(Properties properties, String key, String value) {
+        if (value != null) {
+            properties.setProperty(key, value);
+        }
+    }
+
+    /**
+     * Returns the time in milliseconds until which the response of the given connection can be
+     * used without revalidation: from "max-age", else from "Expires". Returns 0, which means
+     * always revalidate, for "no-cache" or if the response has no expiry.
+     */
+    static long expiresMillis(HttpURLConnection connection) {
+        String cacheControl = connection.getHeaderField("Cache-Control");
+        if (hasDirective(cacheControl, "no-cache")) {
+            return 0;
+        }
+        long maxAgeSeconds = directiveSeconds(cacheControl, "max-age");
+        if (maxAgeSeconds >= 0) {
+            return System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(maxAgeSeconds);
+        }
+        long expires = connection.getExpiration();
+        return expires > 0 ? expires : 0;
+    }
+
+    /** Returns true if the given Cache-Control header has the given directive */
+    private static boolean hasDirective(String cacheControl, String directive) {
+        if (cacheControl == null) {
+            return false;
+        }
+        for (String part : cacheControl.split(",")) {
+            if (part.trim().toLowerCase(Locale.US).equals(directive)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the value in seconds of the given directive of the given Cache-Control header, or
+     * -1 if it is missing or invalid.
+     */
+    private static long directiveSeconds(String cacheControl, String directive) {
+        if (cacheControl == null) {
+            return -1;
+        }
+        for (String part : cacheControl.split(",")) {
+            String[] nameValue = part.trim().split("=", 2);
+            if (nameValue.length == 2
+                    && nameValue[0].trim().toLowerCase(Locale.US).equals(directive)) {
+                try {
+                    return Long.parseLong(nameValue[1].trim().replace("\"", ""));
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the file name of the entry of the given URL: the hex SHA-1 of the URL */
+    private static String keyOf(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes("UTF-8"));
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                key.append(String.format(Locale.US, "%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // Every platform has SHA-1 and UTF-8
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.example.android.inventory.utils;
+
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.inventory.Book;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Looks up many ISBNs on Google Books at once, for example all the titles of an invoice. The
+ * requests go through {@link QueryUtils#fetchBookData} on a bounded pool of threads, so at most
+ * a fixed number of them are in flight. Concurrent lookups of the same ISBN, in the same batch
+ * or in different ones, share a single request. The results are delivered one by one as they
+ * arrive, not at the end of the batch.
+ */
+public final class IsbnBatchLookup {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = IsbnBatchLookup.class.getSimpleName();
+
+    /** Default number of requests in flight at the same time */
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    /** Time an idle request thread is kept before it stops */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Receives the results of a batch. Its methods are called on the request threads, so they
+     * must not touch the views directly.
+     */
+    public interface Callback {
+
+        /**
+         * Called once for every distinct ISBN of the batch, as soon as its lookup is done.
+         * @param books the books found, empty if there is none, or null if the request failed
+         */
+        void onResult(String isbn, List<Book> books);
+
+        /**
+         * Called once after the results of all the ISBNs of the batch were delivered.
+         */
+        void onComplete();
+    }
+
+    /** Receives the result of a single lookup */
+    private interface Listener {
+        void onResult(List<Book> books);
+    }
+
+    /** Base URL of the Google Books volumes requests */
+    private final String mBaseUrl;
+
+    /** Runs the requests, with at most the given number of threads */
+    private final ExecutorService mExecutor;
+
+    /**
+     * Listeners of the lookups in flight, by ISBN. A new lookup of an ISBN that is in this map
+     * only adds its listener.
+     */
+    private final Map<String, List<Listener>> mInFlight = new HashMap<>();
+
+    /** Number of requests sent, for tests and diagnostics */
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+
+    /**
+     * Constructs a new {@link IsbnBatchLookup} of the Google Books data set, with
+     * {@link #DEFAULT_PARALLELISM} requests in flight.
+     */
+    public IsbnBatchLookup() {
+        this(Constants.BOOK_REQUEST_URL, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Constructs a new {@link IsbnBatchLookup}.
+     * @param baseUrl base URL of the volumes requests, to which the ISBN query is appended
+     * @param parallelism maximum number of requests in flight at the same time
+     */
+    public IsbnBatchLookup(String baseUrl, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        mBaseUrl = baseUrl;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(parallelism, parallelism,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        // Stop the threads when there is nothing to look up
+        executor.allowCoreThreadTimeOut(true);
+        mExecutor = executor;
+    }
+
+    /**
+     * Look up the given ISBNs and deliver their results to the given callback as they arrive.
+     * Duplicate ISBNs are looked up and delivered once. Returns right away.
+     *
+     * @throws RejectedExecutionException if the lookup was shut down. If it was shut down while
+     *         the batch was being started, the ISBNs that were not looked up get a null result
+     *         first, so the callback is still completed.
+     */
+    public void lookup(Collection<String> isbns, final Callback callback) {
+        if (mExecutor.isShutdown()) {
+            throw new RejectedExecutionException("The ISBN lookup was shut down");
+        }
+        List<String> distinctIsbns = new ArrayList<>(new LinkedHashSet<>(isbns));
+        if (distinctIsbns.isEmpty()) {
+            callback.onComplete();
+            return;
+        }
+
+        AtomicInteger remaining = new AtomicInteger(distinctIsbns.size());
+        for (int i = 0; i < distinctIsbns.size(); i++) {
+            try {
+                lookup(distinctIsbns.get(i), newBatchListener(distinctIsbns.get(i), callback,
+                        remaining));
+            } catch (RejectedExecutionException e) {
+                // Fail this ISBN and the ones after it, like the lookups that joined this one
+                for (int j = i; j < distinctIsbns.size(); j++) {
+                    String isbn = distinctIsbns.get(j);
+                    try {
+                        newBatchListener(isbn, callback, remaining).onResult(null);
+                    } catch (RuntimeException callbackException) {
+                        Log.e(LOG_TAG, "Problem delivering the result of ISBN " + isbn,
+                                callbackException);
+                    }
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Returns the listener that delivers the result of the given ISBN of a batch to its callback,
+     * and completes the callback after the last result of the batch.
+     * @param remaining number of ISBNs of the batch without a result
+     */
+    private static Listener newBatchListener(final String isbn, final Callback callback,
+                                             final AtomicInteger remaining) {
+        return new Listener() {
+            @Override
+            public void onResult(List<Book> books) {
+                try {
+                    callback.onResult(isbn, books);
+                } finally {
+                    // A callback that threw still completes the batch
+                    if (remaining.decrementAndGet() == 0) {
+                        callback.onComplete();
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Stop the lookup threads once the pending lookups are done. No lookup can be started after
+     * this.
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    /** Returns the number of requests sent so far */
+    int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * Look up the given ISBN and deliver the result to the given listener. Joins the request in
+     * flight for the ISBN, if any.
+     *
+     * @throws RejectedExecutionException if the lookup was shut down
+     */
+    private void lookup(final String isbn, final Listener listener) {
+        synchronized (mInFlight) {
+            List<Listener> listeners = mInFlight.get(isbn);
+            if (listeners != null) {
+                listeners.add(listener);
+                return;
+            }
+            listeners = new ArrayList<>();
+            listeners.add(listener);
+            mInFlight.put(isbn, listeners);
+        }
+
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    List<Book> books = null;
+                    try {
+                        mRequestCount.incrementAndGet();
+                        books = QueryUtils.fetchBookData(buildUrl(isbn));
+                    } finally {
+                        deliver(isbn, books, null);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // No request will be sent: the lookups that joined this one fail, and this one
+            // throws, so the ISBN is not left in flight forever
+            deliver(isbn, null, listener);
+            throw e;
+        }
+    }
+
+    /**
+     * Deliver the given result to the listeners of the lookup of the given ISBN in flight, but
+     * the given one, and end the lookup: lookups of the ISBN from now on send a new request. A
+     * listener that throws is logged, and does not keep the result from the others.
+     * @param skippedListener listener that is not called, or null
+     */
+    private void deliver(String isbn, List<Book> books, Listener skippedListener) {
+        List<Listener> listeners;
+        synchronized (mInFlight) {
+            listeners = mInFlight.remove(isbn);
+        }
+        for (Listener listener : listeners) {
+            if (listener == skippedListener) {
+                continue;
+            }
+            try {
+                listener.onResult(books);
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, "Problem delivering the result of ISBN " + isbn, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the URL of the volumes request for the given ISBN, for example
+     * "https://www.googleapis.com/books/v1/volumes?q=isbn:9780553902808".
+     */
+    private String buildUrl(String isbn) {
+        return Uri.parse(mBaseUrl).buildUpon()
+                .appendQueryParameter(Constants.QUERY_PARAMETER_Q,
+                        Constants.QUERY_ISBN_PREFIX + isbn)
+                .build().toString();
+    }
+}
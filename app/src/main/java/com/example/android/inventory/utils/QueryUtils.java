@@ -1,15 +1,21 @@
 package com.example.android.inventory.utils;
 
-import android.text.TextUtils;
+import android.content.Context;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
+import android.util.JsonReader;
+import android.util.JsonToken;
 import android.util.Log;
+import android.util.MalformedJsonException;
 
 import com.example.android.inventory.Book;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -19,6 +25,9 @@ import java.net.URL;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Helper methods related to requesting and receiving book data from the Google Books.
@@ -29,32 +38,129 @@ public class QueryUtils {
     /** Tag for the log messages */
     private static final String LOG_TAG = QueryUtils.class.getSimpleName();
 
+    /** On-disk cache of the Google Books responses, null until it is installed */
+    private static volatile HttpDiskCache sResponseCache;
+
+    /** Retries of the failed Google Books requests */
+    private static final RetryPolicy sRetryPolicy = new RetryPolicy();
+
+    /** Circuit breaker shared by all the Google Books requests of the app */
+    private static volatile CircuitBreaker sCircuitBreaker = new CircuitBreaker();
+
     /**
      * Create a private constructor because no one should ever create a {@link QueryUtils} object.
      */
     private QueryUtils() {
     }
 
+    /**
+     * Use an on-disk cache in the app cache directory for the Google Books responses of
+     * {@link #fetchBookData}, so a repeated lookup does not need the network.
+     */
+    public static void installResponseCache(Context context) {
+        if (sResponseCache == null) {
+            synchronized (QueryUtils.class) {
+                if (sResponseCache == null) {
+                    sResponseCache = new HttpDiskCache(new File(context.getCacheDir(),
+                            Constants.HTTP_CACHE_DIRECTORY), Constants.HTTP_CACHE_SIZE);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forget the state shared by the lookups of the app: close the circuit, and use no response
+     * cache until {@link #installResponseCache} is called again. Tests of the lookups through
+     * the public {@link #fetchBookData} call this, so they do not inherit the failures or cached
+     * responses of the tests before them.
+     */
+    @VisibleForTesting
+    public static void resetSharedState() {
+        synchronized (QueryUtils.class) {
+            sResponseCache = null;
+            sCircuitBreaker = new CircuitBreaker();
+        }
+    }
+
     /**
      * Query the Google Books data set and return a list of {@link Book} objects.
      */
     public static List<Book> fetchBookData(String requestUrl) {
-        // Create URL object
-        URL url = createUrl(requestUrl);
+        return fetchBookData(requestUrl, sResponseCache, null);
+    }
 
-        // Perform HTTP request to the URL and receive a JSON response back
-        String jsonResponse = null;
-        try {
-            jsonResponse = makeHttpRequest(url);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Problem making the HTTP request.", e);
-        }
+    /**
+     * Query the Google Books data set and return a list of {@link Book} objects. Canceling the
+     * given signal aborts the request in flight, which then returns null.
+     * @param cancellationSignal signal to cancel the request, or null
+     * @throws OperationCanceledException if the signal was canceled before the request
+     */
+    public static List<Book> fetchBookData(String requestUrl,
+                                           CancellationSignal cancellationSignal) {
+        return fetchBookData(requestUrl, sResponseCache, cancellationSignal);
+    }
 
-        // Extract relevant fields from the JSON response and create a list of {@link Book}s
-        List<Book> books = extractFeatureFromJSON(jsonResponse);
+    /**
+     * Query the Google Books data set through the given response cache and return a list of
+     * {@link Book} objects.
+     * @param cache of the responses, or null to always use the network
+     */
+    @VisibleForTesting
+    static List<Book> fetchBookData(String requestUrl, HttpDiskCache cache) {
+        return fetchBookData(requestUrl, cache, null);
+    }
 
-        // Return the list of {@link Book}s
-        return books;
+    /**
+     * Query the Google Books data set through the given response cache, retry policy and
+     * circuit breaker, and return a list of {@link Book} objects.
+     */
+    @VisibleForTesting
+    static List<Book> fetchBookData(String requestUrl, HttpDiskCache cache,
+                                    RetryPolicy retryPolicy, CircuitBreaker circuitBreaker) {
+        return fetchBookData(requestUrl, cache, retryPolicy, circuitBreaker, null);
+    }
+
+    /**
+     * Query the Google Books data set through the given response cache and return a list of
+     * {@link Book} objects, unless the given signal is canceled first.
+     */
+    private static List<Book> fetchBookData(String requestUrl, HttpDiskCache cache,
+                                            CancellationSignal cancellationSignal) {
+        return fetchBookData(requestUrl, cache, sRetryPolicy, sCircuitBreaker,
+                cancellationSignal);
+    }
+
+    /**
+     * Query the Google Books data set and return a list of {@link Book} objects, or null if the
+     * lookup failed or was canceled.
+     */
+    private static List<Book> fetchBookData(String requestUrl, HttpDiskCache cache,
+                                            RetryPolicy retryPolicy,
+                                            CircuitBreaker circuitBreaker,
+                                            CancellationSignal cancellationSignal) {
+        // Create URL object, asking only for the fields that are read
+        URL url = createUrl(withPartialResponse(requestUrl));
+
+        // Perform HTTP requests to the URL and parse the JSON response as it is received
+        return makeHttpRequest(url, cache, retryPolicy, circuitBreaker, cancellationSignal);
+    }
+
+    /**
+     * Returns the given Google Books request URL with the partial response parameter
+     * {@link Constants#BOOK_FIELDS}, unless it already selects its fields.
+     */
+    @VisibleForTesting
+    static String withPartialResponse(String requestUrl) {
+        if (requestUrl == null) {
+            return null;
+        }
+        Uri uri = Uri.parse(requestUrl);
+        if (uri.isOpaque() || uri.getQueryParameter(Constants.QUERY_PARAMETER_FIELDS) != null) {
+            return requestUrl;
+        }
+        return uri.buildUpon()
+                .appendQueryParameter(Constants.QUERY_PARAMETER_FIELDS, Constants.BOOK_FIELDS)
+                .build().toString();
     }
 
     /**
@@ -71,153 +177,465 @@ public class QueryUtils {
     }
 
     /**
-     * Make an HTTP request to the given URL and return a String as the response.
+     * Make HTTP requests to the given URL and return the list of {@link Book}s parsed from the
+     * response, or null if the lookup failed.
+     *
+     * With a cache, a fresh cached response is used without a request, and a stale one is
+     * revalidated with a conditional GET. If the request fails, for example offline, a cached
+     * response is used right away even if it is stale: an old book description is better than
+     * none, and better than waiting for retries.
+     *
+     * Without a cached response, a request that fails with a network error or a retryable
+     * response code is retried as the given {@link RetryPolicy} says, with growing timeouts and
+     * jittered waits. Every attempt goes through the given {@link CircuitBreaker}: while the
+     * service keeps failing, the lookup fails fast without touching the network.
+     *
+     * Canceling the given signal disconnects the request in flight, or ends the wait before a
+     * retry, and the lookup returns null.
      */
-    private static String makeHttpRequest(URL url) throws IOException {
-        String jsonResponse = "";
-
+    private static List<Book> makeHttpRequest(URL url, HttpDiskCache cache,
+                                              RetryPolicy retryPolicy,
+                                              CircuitBreaker circuitBreaker,
+                                              CancellationSignal cancellationSignal) {
         // If the URL is null, then return early.
         if (url == null) {
-            return jsonResponse;
+            return null;
         }
 
+        String cacheKey = url.toString();
+        HttpDiskCache.Entry cached = cache == null ? null : cache.get(cacheKey);
+        if (cached != null && cached.isFresh(System.currentTimeMillis())) {
+            List<Book> books = readCachedBooks(cached);
+            if (books != null) {
+                return books;
+            }
+            // The entry was evicted meanwhile or cannot be read: fetch the response again,
+            // without validators, and without falling back to the entry
+            cached = null;
+        }
+
+        long startMillis = SystemClock.elapsedRealtime();
+        for (int attempt = 0; attempt < retryPolicy.getMaxAttempts(); attempt++) {
+            if (!circuitBreaker.allowRequest()) {
+                Log.w(LOG_TAG, "The book service keeps failing, the request is not sent.");
+                break;
+            }
+
+            long elapsedMillis = SystemClock.elapsedRealtime() - startMillis;
+            int timeoutMillis = retryPolicy.timeoutMillis(attempt,
+                    retryPolicy.getDeadlineMillis() - elapsedMillis);
+            try {
+                List<Book> books = requestOnce(url, cache, cached, timeoutMillis,
+                        cancellationSignal);
+                // The service answered, even if it found no book
+                circuitBreaker.recordSuccess();
+                return books;
+            } catch (OperationCanceledException e) {
+                // Canceled before the request was sent
+                circuitBreaker.recordCanceled();
+                throw e;
+            } catch (IOException e) {
+                if (cancellationSignal != null && cancellationSignal.isCanceled()) {
+                    // Nobody waits for the result of a canceled request
+                    circuitBreaker.recordCanceled();
+                    Log.d(LOG_TAG, "The book request was canceled.");
+                    return null;
+                }
+                circuitBreaker.recordFailure();
+                if (cached != null) {
+                    Log.w(LOG_TAG, "Problem retrieving the book JSON results, using the cached"
+                            + " ones.", e);
+                    return readCachedBooks(cached);
+                }
+
+                long retryAfterMillis = e instanceof RetryableResponseException
+                        ? ((RetryableResponseException) e).retryAfterMillis : 0;
+                long delayMillis = retryPolicy.delayMillis(attempt, retryAfterMillis);
+                elapsedMillis = SystemClock.elapsedRealtime() - startMillis;
+                if (attempt + 1 >= retryPolicy.getMaxAttempts()
+                        || elapsedMillis + delayMillis >= retryPolicy.getDeadlineMillis()) {
+                    Log.e(LOG_TAG, "Problem retrieving the book JSON results.", e);
+                    break;
+                }
+                Log.w(LOG_TAG, "Problem retrieving the book JSON results, retrying in "
+                        + delayMillis + " ms.", e);
+                if (!waitBeforeRetry(delayMillis, cancellationSignal)) {
+                    circuitBreaker.recordCanceled();
+                    Log.d(LOG_TAG, "The book request was canceled.");
+                    return null;
+                }
+            }
+        }
+        return cached != null ? readCachedBooks(cached) : null;
+    }
+
+    /**
+     * Make a single HTTP request to the given URL, with the given connect and read timeout, and
+     * return the list of {@link Book}s parsed from the response, or null if the service answered
+     * with an error that is not worth retrying.
+     *
+     * The response is requested with gzip, and its body is always read to the end and closed
+     * instead of disconnecting, so the connection goes back to the pool of keep-alive
+     * connections and the next lookup skips the TCP and TLS handshakes. The connection is
+     * disconnected only if the request failed or was canceled.
+     *
+     * @throws RetryableResponseException if the service answered with a retryable error
+     * @throws IOException if the request failed on the network, was canceled, or was answered
+     *                     with a body that is not the expected JSON
+     */
+    private static List<Book> requestOnce(URL url, HttpDiskCache cache,
+                                          HttpDiskCache.Entry cached, int timeoutMillis,
+                                          CancellationSignal cancellationSignal)
+            throws IOException {
+        String cacheKey = url.toString();
+        List<Book> books = null;
         HttpURLConnection urlConnection = null;
         InputStream inputStream = null;
+        // True once the response is read to the end, so the connection can be reused
+        boolean reusable = false;
         try {
             urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setReadTimeout(Constants.READ_TIMEOUT /* milliseconds */);
-            urlConnection.setConnectTimeout(Constants.CONNECT_TIMEOUT /* milliseconds */);
+            if (cancellationSignal != null) {
+                cancellationSignal.throwIfCanceled();
+                final HttpURLConnection connection = urlConnection;
+                cancellationSignal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+                    @Override
+                    public void onCancel() {
+                        // Called on the canceling thread: closes the socket under the read
+                        connection.disconnect();
+                    }
+                });
+            }
+            urlConnection.setReadTimeout(timeoutMillis);
+            urlConnection.setConnectTimeout(timeoutMillis);
             urlConnection.setRequestMethod(Constants.REQUEST_METHOD_GET);
+            // The responses are cached by the HttpDiskCache, not by the platform
+            urlConnection.setUseCaches(false);
+            // Asking for gzip explicitly turns off the transparent decompression of the
+            // platform, which hides the encoding, so the body is decompressed below
+            urlConnection.setRequestProperty(Constants.HEADER_ACCEPT_ENCODING,
+                    Constants.ENCODING_GZIP);
+            if (cached != null) {
+                cached.addValidators(urlConnection);
+            }
             urlConnection.connect();
 
             // If the request was successful (response code 200),
-            // then read the input stream and parse the response.
-            if (urlConnection.getResponseCode() == Constants.SUCCESS_RESPONSE_CODE) {
+            // then parse the response straight from the input stream.
+            int responseCode = urlConnection.getResponseCode();
+            if (responseCode == Constants.SUCCESS_RESPONSE_CODE) {
                 inputStream = urlConnection.getInputStream();
-                jsonResponse = readFromStream(inputStream);
+                if (Constants.ENCODING_GZIP.equalsIgnoreCase(urlConnection.getContentEncoding())) {
+                    inputStream = new GZIPInputStream(inputStream);
+                }
+                if (cache == null) {
+                    books = readBooks(inputStream);
+                    // The parse stops after the first book: read the rest of the body
+                    skipFully(inputStream);
+                } else {
+                    // The parse stops after the first book, so read the whole body to cache it
+                    byte[] body = readFully(inputStream);
+                    books = readBooks(new ByteArrayInputStream(body));
+                    if (books != null) {
+                        cache.put(cacheKey, urlConnection, body);
+                    }
+                }
+                reusable = true;
+                if (books == null) {
+                    // A garbled body, or the page of a proxy: the service did not really answer
+                    throw new IOException("The book service answered with a malformed response");
+                }
+            } else if (responseCode == HttpDiskCache.NOT_MODIFIED_RESPONSE_CODE
+                    && cached != null) {
+                // The cached response is still valid, and has no body
+                cache.update(cacheKey, cached, urlConnection);
+                books = readCachedBooks(cached);
+                reusable = true;
             } else {
-                Log.e(LOG_TAG, "Error response code: " + urlConnection.getResponseCode());
+                // Read the error body too, so the connection can be reused
+                inputStream = urlConnection.getErrorStream();
+                if (inputStream != null) {
+                    skipFully(inputStream);
+                }
+                reusable = true;
+                if (RetryPolicy.isRetryable(responseCode)) {
+                    throw new RetryableResponseException(responseCode,
+                            retryAfterMillis(urlConnection));
+                }
+                Log.e(LOG_TAG, "Error response code: " + responseCode);
             }
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Problem retrieving the book JSON results.", e);
         } finally {
-            if (urlConnection != null) {
+            if (cancellationSignal != null) {
+                cancellationSignal.setOnCancelListener(null);
+            }
+            if (urlConnection != null && !reusable) {
                 urlConnection.disconnect();
             }
             if (inputStream != null) {
                 // Closing the input stream could throw an IOException, which is why
-                // the makeHttpRequest(URL url) method signature specifies that an IOException
+                // the requestOnce method signature specifies that an IOException
                 // could be thrown.
                 inputStream.close();
             }
         }
-        return jsonResponse;
+        return books;
+    }
+
+    /**
+     * An error response of the Google Books service that may succeed if the request is sent
+     * again later, such as "503 Service Unavailable".
+     */
+    private static final class RetryableResponseException extends IOException {
+
+        /** Time the service asked to wait in its Retry-After header, or 0 */
+        final long retryAfterMillis;
+
+        RetryableResponseException(int responseCode, long retryAfterMillis) {
+            super("Error response code: " + responseCode);
+            this.retryAfterMillis = retryAfterMillis;
+        }
     }
 
     /**
-     * Convert the {@link InputStream} into a String which contains the
-     * whole JSON response from the server.
+     * Returns the time in milliseconds given in seconds by the Retry-After header of the
+     * response of the given connection, or 0 if there is none. The HTTP date form of the header
+     * is not used by the Google Books service, and is ignored.
      */
-    private static String readFromStream(InputStream inputStream) throws IOException {
-        StringBuilder output = new StringBuilder();
-        if (inputStream != null) {
-            InputStreamReader inputStreamReader = new InputStreamReader(inputStream,
-                    Charset.forName("UTF-8"));
-            BufferedReader reader = new BufferedReader(inputStreamReader);
-            String line = reader.readLine();
-            while (line != null) {
-                output.append(line);
-                line = reader.readLine();
+    private static long retryAfterMillis(HttpURLConnection connection) {
+        String retryAfter = connection.getHeaderField(Constants.HEADER_RETRY_AFTER);
+        if (retryAfter == null) {
+            return 0;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Math.max(Long.parseLong(retryAfter.trim()), 0));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Wait for the given time before a retry. Returns false if the given signal was canceled
+     * during the wait, or the thread was interrupted.
+     */
+    private static boolean waitBeforeRetry(long delayMillis,
+                                           CancellationSignal cancellationSignal) {
+        final CountDownLatch canceled = new CountDownLatch(1);
+        if (cancellationSignal != null) {
+            cancellationSignal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    canceled.countDown();
+                }
+            });
+        }
+        try {
+            return !canceled.await(delayMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            if (cancellationSignal != null) {
+                cancellationSignal.setOnCancelListener(null);
             }
         }
-        return output.toString();
     }
 
     /**
-     * Return a list of {@link Book}s objects that has been built up from
-     * parsing the given JSON response. In this app, returns only {@link Book} that matches ISBN
-     * number.
+     * Return the list of {@link Book}s parsed from the body of the given cached response, or
+     * null if it cannot be read.
      */
-    private static List<Book> extractFeatureFromJSON(String bookJSON) {
-        // If the JSON string is empty or null, then return early.
-        if (TextUtils.isEmpty(bookJSON)) {
+    private static List<Book> readCachedBooks(HttpDiskCache.Entry cached) {
+        try {
+            InputStream inputStream = cached.newInputStream();
+            try {
+                return readBooks(inputStream);
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the cached book JSON results.", e);
             return null;
         }
+    }
+
+    /**
+     * Returns the remaining bytes of the given {@link InputStream}.
+     */
+    private static byte[] readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = inputStream.read(buffer)) != -1) {
+            output.write(buffer, 0, count);
+        }
+        return output.toByteArray();
+    }
 
+    /**
+     * Read and discard the remaining bytes of the given {@link InputStream}.
+     */
+    private static void skipFully(InputStream inputStream) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (inputStream.read(buffer) != -1) {
+            // Discard the bytes
+        }
+    }
+
+    /**
+     * Return a list of {@link Book}s objects parsed from the JSON response in the given
+     * {@link InputStream}. In this app, returns only the first {@link Book}, which matches the
+     * ISBN number. The list is empty if the response is well formed but has no items: the
+     * service found no book. Returns null if the response is not a JSON object of the expected
+     * structure, which says nothing about the ISBN.
+     *
+     * The response is parsed as a stream of tokens instead of being read into a String and a
+     * JSON tree: only the fields of {@link Book} are read, and parsing stops once the first book
+     * is complete, so the rest of the response is never decoded.
+     */
+    @VisibleForTesting
+    static List<Book> readBooks(InputStream inputStream) throws IOException {
         // Create an empty ArrayList that we can start adding books to
         List<Book> bookList = new ArrayList<>();
 
-        // Try to parse the JSON response string. If there's a problem with the way the JSON
-        // is formatted, a JSONException exception object will be thrown.
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream,
+                Charset.forName("UTF-8")));
+        // If there's a problem with the way the JSON is formatted, a MalformedJsonException or,
+        // for a value of an unexpected type, an IllegalStateException will be thrown.
         try {
-            // Create a JSONObject from the JSON response string
-            JSONObject baseJsonResponse = new JSONObject(bookJSON);
-            if (baseJsonResponse.has(Constants.JSON_KEY_ITEMS)) {
-                // Extract the JSONArray associated with the key called "items"
-                JSONArray bookArray = baseJsonResponse.getJSONArray(Constants.JSON_KEY_ITEMS);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!reader.nextName().equals(Constants.JSON_KEY_ITEMS)) {
+                    reader.skipValue();
+                    continue;
+                }
 
-                // Extract the first JSONObject in the bookArray
-                JSONObject firstItemObject = bookArray.getJSONObject(0);
+                // Read the first element of the array called "items", if there is one
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    Book book = readFirstItem(reader);
+                    if (book != null) {
+                        // Add the new {@link Book} to the list of books.
+                        bookList.add(book);
+                    }
+                }
+                // The other items and fields are not needed, so stop here
+                break;
+            }
+        } catch (MalformedJsonException | IllegalStateException e) {
+            // Catch the exception here, so the app doesn't crash. Print a log message
+            // with the message from the exception.
+            Log.e(LOG_TAG, "Problem parsing the book JSON results", e);
+            return null;
+        }
 
-                // Extract the JSONObject associated with the key called "volumeInfo"
-                JSONObject volumeInfoObject = firstItemObject.getJSONObject(Constants.JSON_KEY_VOLUME_INFO);
+        // Returns the list of books. In this app, since searching for the book that matches the
+        // ISBN number, returns only one book that matches the ISBN number.
+        return bookList;
+    }
 
-                // For a given book, extract the value for the key called "title"
-                String title = volumeInfoObject.getString(Constants.JSON_KEY_TITLE);
+    /**
+     * Read the {@link Book} in the item object at the current position of the given reader, or
+     * return null if the item has no "volumeInfo" with a title, authors and industry identifiers.
+     */
+    private static Book readFirstItem(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals(Constants.JSON_KEY_VOLUME_INFO)) {
+                return readVolumeInfo(reader);
+            }
+            reader.skipValue();
+        }
+        return null;
+    }
 
-                // For a given book, extract the JSONArray associated with the key called "authors"
-                JSONArray authorsArray = volumeInfoObject.getJSONArray(Constants.JSON_KEY_AUTHORS);
+    /**
+     * Read the {@link Book} in the "volumeInfo" object at the current position of the given
+     * reader. Stops as soon as every field of the book has been read.
+     */
+    private static Book readVolumeInfo(JsonReader reader) throws IOException {
+        String title = null;
+        String author = null;
+        String isbn = null;
+        String publisher = null;
+        boolean hasAuthors = false;
+        boolean hasIdentifiers = false;
 
+        reader.beginObject();
+        while (reader.hasNext()
+                && (title == null || !hasAuthors || !hasIdentifiers || publisher == null)) {
+            String name = reader.nextName();
+            if (name.equals(Constants.JSON_KEY_TITLE)) {
+                title = nextStringOrNull(reader);
+            } else if (name.equals(Constants.JSON_KEY_AUTHORS)) {
                 // For a given book, if there are authors, extract the value in the first
-                String author = null;
-                if (authorsArray.length() != 0) {
-                    author = authorsArray.getString(0);
-                }
-
-                // For a given book, extract the JSONArray associated with the key called "industryIdentifiers"
-                JSONArray industryIdentifiersArray =
-                        volumeInfoObject.getJSONArray(Constants.JSON_KEY_INDUSTRY_IDENTIFIERS);
-                String isbn = null;
-                // If there is element in the JSONArray, for each element create a JSONObject.
-                if (industryIdentifiersArray.length() != 0) {
-                    for (int i = 0; i < industryIdentifiersArray.length(); i++) {
-                        JSONObject currentObject = industryIdentifiersArray.getJSONObject(i);
-                        if (currentObject.has(Constants.JSON_KEY_TYPE)) {
-                            // Extract the value for the key "type" and the value will be "ISBN_13" or
-                            // "ISBN_10".
-                            String isbnType = currentObject.getString(Constants.JSON_KEY_TYPE);
-                            // If the value for the key "type" is "ISBN_13", extract the value for the
-                            // key "identifier"
-                            if (isbnType.equals(Constants.JSON_KEY_ISBN_13)) {
-                                isbn = currentObject.getString(Constants.JSON_KEY_IDENTIFIER);
-                            }
-                        }
-                    }
+                hasAuthors = true;
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    author = nextStringOrNull(reader);
                 }
-
-                // For a given book, if it contains the key called "publisher", extract the value for the
-                // key called "publisher"
-                String publisher = null;
-                if (volumeInfoObject.has(Constants.JSON_KEY_PUBLISHER)) {
-                    publisher = volumeInfoObject.getString(Constants.JSON_KEY_PUBLISHER);
+                while (reader.hasNext()) {
+                    reader.skipValue();
                 }
+                reader.endArray();
+            } else if (name.equals(Constants.JSON_KEY_INDUSTRY_IDENTIFIERS)) {
+                hasIdentifiers = true;
+                isbn = readIsbn13(reader);
+            } else if (name.equals(Constants.JSON_KEY_PUBLISHER)) {
+                publisher = nextStringOrNull(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
 
-                // Create a new {@link Book} object with the title, author, ISBN, and publisher from
-                // the JSON response.
-                Book book = new Book(title, author, isbn, publisher);
+        // The title, authors and industry identifiers are required, as in the JSON response
+        // of a book found by ISBN.
+        if (title == null || !hasAuthors || !hasIdentifiers) {
+            return null;
+        }
+        // Create a new {@link Book} object with the title, author, ISBN, and publisher from
+        // the JSON response.
+        return new Book(title, author, isbn, publisher);
+    }
 
-                // Add the new {@link Book} to the list of books.
-                bookList.add(book);
+    /**
+     * Read the "industryIdentifiers" array at the current position of the given reader and
+     * return the identifier of type "ISBN_13", or null if there is none.
+     */
+    private static String readIsbn13(JsonReader reader) throws IOException {
+        String isbn = null;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            // Each element has the type, "ISBN_13" or "ISBN_10", and the identifier
+            String type = null;
+            String identifier = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals(Constants.JSON_KEY_TYPE)) {
+                    type = nextStringOrNull(reader);
+                } else if (name.equals(Constants.JSON_KEY_IDENTIFIER)) {
+                    identifier = nextStringOrNull(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (Constants.JSON_KEY_ISBN_13.equals(type)) {
+                isbn = identifier;
             }
-        } catch (JSONException e) {
-            // If an error is thrown when executing any of the above statements in the "try" block,
-            // catch the exception here, so the app doesn't crash. Print a log message
-            // with the message from the exception.
-            Log.e(LOG_TAG, "Problem parsing the book JSON results", e);
         }
+        reader.endArray();
+        return isbn;
+    }
 
-        // Returns the list of books. In this app, since searching for the book that matches the ISBN number,
-        // returns only one book that matches the ISBN number.
-        return bookList;
+    /**
+     * Returns the string at the current position of the given reader, or null for a JSON null.
+     */
+    private static String nextStringOrNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
     }
 }
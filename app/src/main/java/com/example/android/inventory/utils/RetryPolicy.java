@@ -0,0 +1,147 @@
+package com.example.android.inventory.utils;
+
+import java.util.Random;
+
+/**
+ * Retry policy of the Google Books requests: how many attempts a lookup makes, the timeouts of
+ * each attempt, and how long to wait between attempts. The timeouts start short, so a stalled
+ * connection is given up quickly, and grow on each retry in case the service is only slow. The
+ * waits grow exponentially with random jitter, so clients that failed together do not retry
+ * together. No attempt runs past the deadline of the whole lookup.
+ */
+final class RetryPolicy {
+
+    /** Default maximum number of attempts of a lookup, the first one included */
+    static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    /** Default connect and read timeout of the first attempt */
+    static final int DEFAULT_INITIAL_TIMEOUT_MILLIS = 5000;
+
+    /** Default maximum connect and read timeout of an attempt */
+    static final int DEFAULT_MAX_TIMEOUT_MILLIS = 15000;
+
+    /** Default upper bound of the wait before the first retry */
+    static final long DEFAULT_BASE_DELAY_MILLIS = 500;
+
+    /** Default maximum wait before a retry */
+    static final long DEFAULT_MAX_DELAY_MILLIS = 4000;
+
+    /** Default time a lookup may take, all attempts and waits included */
+    static final long DEFAULT_DEADLINE_MILLIS = 30000;
+
+    /** HTTP response codes of the failures worth retrying: the service may answer later */
+    private static final int REQUEST_TIMEOUT_RESPONSE_CODE = 408;
+    private static final int TOO_MANY_REQUESTS_RESPONSE_CODE = 429;
+    private static final int INTERNAL_ERROR_RESPONSE_CODE = 500;
+    private static final int BAD_GATEWAY_RESPONSE_CODE = 502;
+    private static final int UNAVAILABLE_RESPONSE_CODE = 503;
+    private static final int GATEWAY_TIMEOUT_RESPONSE_CODE = 504;
+
+    private final int mMaxAttempts;
+    private final int mInitialTimeoutMillis;
+    private final int mMaxTimeoutMillis;
+    private final long mBaseDelayMillis;
+    private final long mMaxDelayMillis;
+    private final long mDeadlineMillis;
+
+    /** Source of the jitter of the waits */
+    private final Random mRandom;
+
+    /**
+     * Constructs a new {@link RetryPolicy} with the default values.
+     */
+    RetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_TIMEOUT_MILLIS, DEFAULT_MAX_TIMEOUT_MILLIS,
+                DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS, DEFAULT_DEADLINE_MILLIS,
+                new Random());
+    }
+
+    /**
+     * Constructs a new {@link RetryPolicy}.
+     * @param maxAttempts maximum number of attempts of a lookup, the first one included
+     * @param initialTimeoutMillis connect and read timeout of the first attempt
+     * @param maxTimeoutMillis maximum connect and read timeout of an attempt
+     * @param baseDelayMillis upper bound of the wait before the first retry, doubled on each
+     *                        retry
+     * @param maxDelayMillis maximum wait before a retry
+     * @param deadlineMillis time a lookup may take, all attempts and waits included
+     * @param random source of the jitter of the waits
+     */
+    RetryPolicy(int maxAttempts, int initialTimeoutMillis, int maxTimeoutMillis,
+                long baseDelayMillis, long maxDelayMillis, long deadlineMillis, Random random) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("A lookup needs at least 1 attempt");
+        }
+        if (initialTimeoutMillis <= 0 || maxTimeoutMillis < initialTimeoutMillis) {
+            throw new IllegalArgumentException("Timeouts must be positive and ordered");
+        }
+        if (baseDelayMillis < 0 || maxDelayMillis < baseDelayMillis) {
+            throw new IllegalArgumentException("Delays cannot be negative and must be ordered");
+        }
+        if (deadlineMillis <= 0) {
+            throw new IllegalArgumentException("Deadline must be positive");
+        }
+        mMaxAttempts = maxAttempts;
+        mInitialTimeoutMillis = initialTimeoutMillis;
+        mMaxTimeoutMillis = maxTimeoutMillis;
+        mBaseDelayMillis = baseDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+        mDeadlineMillis = deadlineMillis;
+        mRandom = random;
+    }
+
+    /** Returns the maximum number of attempts of a lookup */
+    int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    /** Returns the time a lookup may take, all attempts and waits included */
+    long getDeadlineMillis() {
+        return mDeadlineMillis;
+    }
+
+    /**
+     * Returns the connect and read timeout of the given attempt, counted from 0, which doubles
+     * on each attempt up to the maximum timeout and never goes past the given remaining time of
+     * the lookup.
+     */
+    int timeoutMillis(int attempt, long remainingMillis) {
+        long timeout = mInitialTimeoutMillis;
+        for (int i = 0; i < attempt && timeout < mMaxTimeoutMillis; i++) {
+            timeout *= 2;
+        }
+        timeout = Math.min(Math.min(timeout, mMaxTimeoutMillis), remainingMillis);
+        // A timeout of 0 would mean no timeout at all
+        return (int) Math.max(timeout, 1);
+    }
+
+    /**
+     * Returns the wait before the given retry, counted from 0: a random time up to the base
+     * delay doubled for each retry, bounded by the maximum delay ("full jitter"). The wait is at
+     * least the given time the server asked for in a Retry-After header, if any.
+     */
+    long delayMillis(int retry, long retryAfterMillis) {
+        long bound = mBaseDelayMillis;
+        for (int i = 0; i < retry && bound < mMaxDelayMillis; i++) {
+            bound *= 2;
+        }
+        bound = Math.min(bound, mMaxDelayMillis);
+        long delay = (long) (mRandom.nextDouble() * bound);
+        return Math.max(delay, retryAfterMillis);
+    }
+
+    /** Returns true if a request that failed with the given HTTP response code may be retried */
+    static boolean isRetryable(int responseCode) {
+        switch (responseCode) {
+            case REQUEST_TIMEOUT_RESPONSE_CODE:
+            case TOO_MANY_REQUESTS_RESPONSE_CODE:
+            case INTERNAL_ERROR_RESPONSE_CODE:
+            case BAD_GATEWAY_RESPONSE_CODE:
+            case UNAVAILABLE_RESPONSE_CODE:
+            case GATEWAY_TIMEOUT_RESPONSE_CODE:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
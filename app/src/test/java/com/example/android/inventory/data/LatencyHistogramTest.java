@@ -0,0 +1,51 @@
+package com.example.android.inventory.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link LatencyHistogram}, which run on the development machine (host).
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogram_reportsZero() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMeanMicros());
+        assertEquals(0, histogram.getMaxMicros());
+        assertEquals(0, histogram.getPercentileMicros(0.99));
+    }
+
+    @Test
+    public void percentiles_areUpperBoundsOfTheirBuckets() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 90 fast calls, 9 slower ones and a single very slow one
+        for (int i = 0; i < 90; i++) {
+            histogram.record(80);
+        }
+        for (int i = 0; i < 9; i++) {
+            histogram.record(2000);
+        }
+        histogram.record(40000);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals((90 * 80 + 9 * 2000 + 40000) / 100, histogram.getMeanMicros());
+        assertEquals(40000, histogram.getMaxMicros());
+        assertEquals(100, histogram.getPercentileMicros(0.50));
+        assertEquals(2500, histogram.getPercentileMicros(0.95));
+        assertEquals(2500, histogram.getPercentileMicros(0.99));
+        assertEquals(50000, histogram.getPercentileMicros(1.0));
+    }
+
+    @Test
+    public void latenciesAboveTheLastBucket_reportTheMaximum() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(5000000);
+        histogram.record(3000000);
+
+        assertEquals(5000000, histogram.getMaxMicros());
+        assertEquals(5000000, histogram.getPercentileMicros(0.50));
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.android.inventory.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link RetryPolicy}, which run on the development machine (host).
+ */
+public class RetryPolicyTest {
+
+    /** A policy of 5 attempts, timeouts from 1 to 6 seconds and waits up to 2 seconds */
+    private static RetryPolicy newPolicy(Random random) {
+        return new RetryPolicy(5, 1000, 6000, 100, 2000, 30000, random);
+    }
+
+    @Test
+    public void timeouts_doubleUpToTheMaximum() throws Exception {
+        RetryPolicy policy = newPolicy(new Random(1));
+        assertEquals(1000, policy.timeoutMillis(0, 30000));
+        assertEquals(2000, policy.timeoutMillis(1, 30000));
+        assertEquals(4000, policy.timeoutMillis(2, 30000));
+        assertEquals(6000, policy.timeoutMillis(3, 30000));
+        assertEquals(6000, policy.timeoutMillis(40, 30000));
+    }
+
+    @Test
+    public void timeouts_neverPassTheDeadline() throws Exception {
+        RetryPolicy policy = newPolicy(new Random(1));
+        assertEquals(1500, policy.timeoutMillis(3, 1500));
+        // Never 0, which would mean no timeout
+        assertEquals(1, policy.timeoutMillis(3, 0));
+        assertEquals(1, policy.timeoutMillis(3, -20));
+    }
+
+    @Test
+    public void delays_areJitteredWithinExponentialBounds() throws Exception {
+        RetryPolicy policy = newPolicy(new Random(42));
+        long[] bounds = {100, 200, 400, 800, 1600, 2000, 2000};
+        for (int retry = 0; retry < bounds.length; retry++) {
+            long min = Long.MAX_VALUE;
+            long max = 0;
+            for (int i = 0; i < 1000; i++) {
+                long delay = policy.delayMillis(retry, 0);
+                min = Math.min(min, delay);
+                max = Math.max(max, delay);
+            }
+            assertTrue(min >= 0);
+            assertTrue(max <= bounds[retry]);
+            // Full jitter spreads the waits over the whole range
+            assertTrue(min < bounds[retry] / 4);
+            assertTrue(max > bounds[retry] * 3 / 4);
+        }
+    }
+
+    @Test
+    public void delays_honourRetryAfter() throws Exception {
+        RetryPolicy policy = newPolicy(new Random(7));
+        for (int i = 0; i < 100; i++) {
+            assertTrue(policy.delayMillis(0, 5000) >= 5000);
+        }
+    }
+
+    @Test
+    public void onlyTransientResponseCodes_areRetryable() throws Exception {
+        assertTrue(RetryPolicy.isRetryable(429));
+        assertTrue(RetryPolicy.isRetryable(500));
+        assertTrue(RetryPolicy.isRetryable(503));
+        assertTrue(RetryPolicy.isRetryable(504));
+        assertFalse(RetryPolicy.isRetryable(400));
+        assertFalse(RetryPolicy.isRetryable(403));
+        assertFalse(RetryPolicy.isRetryable(404));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroAttempts_isRejected() throws Exception {
+        new RetryPolicy(0, 1000, 6000, 100, 2000, 30000, new Random());
+    }
+}